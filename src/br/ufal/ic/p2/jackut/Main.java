@@ -31,6 +31,7 @@ public class Main {
                 "tests/us6_1.txt", "tests/us6_2.txt", // Arquivo de teste para User Story 6
                 "tests/us7_1.txt", "tests/us7_2.txt", // Arquivo de teste para User Story 7
                 "tests/us8_1.txt", "tests/us8_2.txt", // Arquivo de teste para User Story 8
+                "tests/us9_3.txt", // Remocao seguida de recarga (zera o sistema, entao roda antes de us9_1)
                 "tests/us9_1.txt", "tests/us9_2.txt", // Arquivo de teste para User Story 9
         };
 
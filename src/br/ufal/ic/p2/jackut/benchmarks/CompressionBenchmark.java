@@ -0,0 +1,82 @@
+package br.ufal.ic.p2.jackut.benchmarks;
+
+import br.ufal.ic.p2.jackut.models.Community;
+import br.ufal.ic.p2.jackut.models.User;
+import br.ufal.ic.p2.jackut.persistence.SnapshotCodec;
+import br.ufal.ic.p2.jackut.persistence.SnapshotCompression;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Measures the CPU/I-O trade-off of compressing the binary snapshots.
+ *
+ * <p>Usage: {@code java br.ufal.ic.p2.jackut.benchmarks.CompressionBenchmark [users] [iterations] [MB/s]}</p>
+ *
+ * <p>For each codec and level it reports the size of both snapshot files, the
+ * CPU time to compress and inflate them, and the time a volume with the given
+ * throughput (default 100 MB/s) would need to write or read them. Compression
+ * pays off when the saved I/O time exceeds the added CPU time.</p>
+ */
+public class CompressionBenchmark {
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optional number of users (default 20000), measured iterations
+     *             (default 5) and volume throughput in MB/s (default 100)
+     */
+    public static void main(String[] args) {
+        int userCount = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        double throughput = args.length > 2 ? Double.parseDouble(args[2]) : 100.0;
+
+        NetworkGenerator generator = new NetworkGenerator(42, 20, 5);
+        Map<String, User> users = generator.users(userCount);
+        Map<String, Community> communities = generator.communities(userCount / 20, userCount, 50);
+        byte[][] snapshots = {SnapshotCodec.encodeUsers(users), SnapshotCodec.encodeCommunities(communities)};
+
+        System.out.printf("Rede: %d usuarios, %d iteracoes, disco de %.0f MB/s%n",
+                users.size(), iterations, throughput);
+        System.out.printf("%-10s %12s %8s %10s %10s %10s%n",
+                "codec", "bytes", "razao", "comp ms", "infl ms", "disco ms");
+
+        run("none", SnapshotCompression.NONE, 0, snapshots, iterations, throughput);
+        for (int level : new int[]{1, 6, 9}) {
+            run("deflate-" + level, SnapshotCompression.DEFLATE, level, snapshots, iterations, throughput);
+        }
+    }
+
+    static void run(String name, SnapshotCompression codec, int level, byte[][] snapshots,
+                    int iterations, double throughput) {
+        // Aquecimento do JIT
+        for (byte[] snapshot : snapshots) {
+            SnapshotCompression.decode(ByteBuffer.wrap(codec.encode(snapshot, level)));
+        }
+
+        long compress = 0, inflate = 0;
+        long raw = 0, size = 0;
+        for (int i = 0; i < iterations; i++) {
+            raw = 0;
+            size = 0;
+            for (byte[] snapshot : snapshots) {
+                long t0 = System.nanoTime();
+                byte[] file = codec.encode(snapshot, level);
+                long t1 = System.nanoTime();
+                SnapshotCompression.decode(ByteBuffer.wrap(file));
+                long t2 = System.nanoTime();
+
+                compress += t1 - t0;
+                inflate += t2 - t1;
+                raw += snapshot.length;
+                size += file.length;
+            }
+        }
+
+        // Tempo para gravar (ou ler) os dois arquivos na vazao informada
+        double ioMillis = size / (throughput * 1_000_000.0) * 1_000.0;
+        System.out.printf("%-10s %12d %8.2f %10.1f %10.1f %10.1f%n", name, size,
+                (double) raw / size, compress / 1_000_000.0 / iterations,
+                inflate / 1_000_000.0 / iterations, ioMillis);
+    }
+}
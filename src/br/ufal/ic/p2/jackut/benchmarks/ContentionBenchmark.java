@@ -0,0 +1,129 @@
+package br.ufal.ic.p2.jackut.benchmarks;
+
+import br.ufal.ic.p2.jackut.concurrency.StripedLocks;
+import br.ufal.ic.p2.jackut.concurrency.WriterLoop;
+import br.ufal.ic.p2.jackut.models.User;
+import br.ufal.ic.p2.jackut.repositories.UserRepository;
+import br.ufal.ic.p2.jackut.services.AuthService;
+import br.ufal.ic.p2.jackut.services.FriendshipService;
+import br.ufal.ic.p2.jackut.services.PasswordHasher;
+import br.ufal.ic.p2.jackut.services.MessageService;
+import br.ufal.ic.p2.jackut.services.RelationshipService;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures the throughput of two-user operations as the number of threads grows.
+ *
+ * <p>Usage: {@code java br.ufal.ic.p2.jackut.benchmarks.ContentionBenchmark [users] [ops/thread] [maxThreads]}</p>
+ *
+ * <p>Every thread runs a mix of friend requests, new idols, new crushes and
+ * messages between random pairs of users, straight on the services (nothing is
+ * persisted). The {@code 1 faixa} rows serialize every operation on a single lock,
+ * as a global lock would; the other rows use the configured number of stripes,
+ * taken in ascending order for the two users of each operation. The
+ * {@code escritor} rows hand every operation to the single writer thread of
+ * {@link WriterLoop} instead, over the same stripes. Rejected operations
+ * (already friends, already an idol...) are counted as well.</p>
+ */
+public class ContentionBenchmark {
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optional number of users (default 10000), operations per thread
+     *             (default 50000) and maximum number of threads (default 16)
+     * @throws InterruptedException if interrupted while waiting for the threads
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int userCount = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 50_000;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        int stripes = new StripedLocks().stripeCount();
+        // O custo das senhas nao e o que se mede aqui (veja LoginBenchmark)
+        System.setProperty(PasswordHasher.ITERATIONS, System.getProperty(PasswordHasher.ITERATIONS, "1000"));
+
+        System.out.printf("Usuarios: %d, %d operacoes por thread, %d processadores%n",
+                userCount, operations, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-10s %8s %12s %12s%n", "locks", "threads", "total ms", "ops/ms");
+
+        // Aquecimento do JIT
+        run(new StripedLocks(stripes), false, userCount, operations, 2);
+        run(new StripedLocks(stripes), true, userCount, operations, 2);
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            report("1 faixa", threads, operations, run(new StripedLocks(1), false, userCount, operations, threads));
+            report(stripes + " faixas", threads, operations,
+                    run(new StripedLocks(stripes), false, userCount, operations, threads));
+            report("escritor", threads, operations,
+                    run(new StripedLocks(stripes), true, userCount, operations, threads));
+        }
+    }
+
+    static void report(String name, int threads, int operations, long nanos) {
+        double millis = nanos / 1_000_000.0;
+        System.out.printf("%-10s %8d %12.1f %12.1f%n", name, threads, millis,
+                (double) operations * threads / millis);
+    }
+
+    static long run(StripedLocks locks, boolean singleWriter, int userCount, int operations, int threads)
+            throws InterruptedException {
+        WriterLoop writer = singleWriter ? new WriterLoop(1024, count -> { }) : null;
+        UserRepository users = new UserRepository();
+        AuthService auth = new AuthService(users, locks);
+        FriendshipService friendships = new FriendshipService(users, locks);
+        MessageService messages = new MessageService(users, locks);
+        RelationshipService relationships = new RelationshipService(users, auth, locks);
+
+        String[] sessions = new String[userCount];
+        for (int i = 0; i < userCount; i++) {
+            users.addUser(new User("Usuario " + i, login(i), "senha"));
+            sessions[i] = auth.login(login(i), "senha");
+        }
+
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            SplittableRandom random = new SplittableRandom(t);
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < operations; i++) {
+                        int from = random.nextInt(userCount);
+                        int to = random.nextInt(userCount);
+                        Runnable operation = switch (random.nextInt(5)) {
+                            case 0 -> () -> friendships.addFriend(sessions[from], login(to));
+                            case 1 -> () -> relationships.adicionarIdolo(sessions[from], login(to));
+                            case 2 -> () -> relationships.adicionarPaquera(sessions[from], login(to));
+                            default -> () -> messages.sendMessage(sessions[from], login(to), "oi");
+                        };
+                        try {
+                            if (writer != null) {
+                                writer.execute(operation);
+                            } else {
+                                operation.run();
+                            }
+                        } catch (RuntimeException e) {
+                            // Operacao recusada pelas regras do Jackut
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+            worker.start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        return System.nanoTime() - begin;
+    }
+
+    static String login(int index) {
+        return "user" + index;
+    }
+}
@@ -0,0 +1,169 @@
+package br.ufal.ic.p2.jackut.benchmarks;
+
+import br.ufal.ic.p2.jackut.concurrency.MpscInbox;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Measures the delivery of messages to one popular user while the user reads them.
+ *
+ * <p>Usage: {@code java br.ufal.ic.p2.jackut.benchmarks.InboxBenchmark [messages/sender] [maxSenders]}</p>
+ *
+ * <p>Every sender thread pushes the same message into a single inbox while one
+ * reader thread drains it. The {@code lock} rows use a {@link LinkedList} guarded
+ * by a lock, as the inboxes were kept under the stripe of their user; the
+ * {@code mpsc} rows use the lock-free {@link MpscInbox}. The allocation column
+ * is the memory allocated by the senders and the reader per message, measured
+ * with the per-thread counters of the JVM (0 where they are not supported).</p>
+ */
+public class InboxBenchmark {
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optional number of messages per sender (default 1000000) and
+     *             maximum number of senders (default 8)
+     * @throws InterruptedException if interrupted while waiting for the threads
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int maxSenders = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+
+        System.out.printf("%d mensagens por remetente, %d processadores%n",
+                messages, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-6s %10s %12s %12s %12s%n", "caixa", "remetentes", "total ms", "msgs/ms", "bytes/msg");
+
+        // Aquecimento do JIT
+        run(new LockedInbox(), messages, 2);
+        run(new FreeInbox(), messages, 2);
+
+        for (int senders = 1; senders <= maxSenders; senders *= 2) {
+            report("lock", senders, messages, run(new LockedInbox(), messages, senders));
+            report("mpsc", senders, messages, run(new FreeInbox(), messages, senders));
+        }
+    }
+
+    /**
+     * The two inboxes compared, reduced to the operations of the services.
+     */
+    interface Inbox {
+        void send(String message);
+
+        String read();
+    }
+
+    static final class LockedInbox implements Inbox {
+        private final Queue<String> queue = new LinkedList<>();
+        private final ReentrantLock lock = new ReentrantLock();
+
+        @Override
+        public void send(String message) {
+            lock.lock();
+            try {
+                queue.add(message);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public String read() {
+            lock.lock();
+            try {
+                return queue.poll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    static final class FreeInbox implements Inbox {
+        private final MpscInbox<String> queue = new MpscInbox<>();
+
+        @Override
+        public void send(String message) {
+            queue.offer(message);
+        }
+
+        @Override
+        public String read() {
+            return queue.poll();
+        }
+    }
+
+    /**
+     * Runs the senders and the reader until every message is read.
+     *
+     * @return the elapsed nanoseconds and the bytes allocated by all the threads
+     */
+    static long[] run(Inbox inbox, int messages, int senders) throws InterruptedException {
+        long total = (long) messages * senders;
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(senders + 1);
+        AtomicLong allocated = new AtomicLong();
+
+        for (int s = 0; s < senders; s++) {
+            start(() -> {
+                long before = allocatedBytes();
+                await(start);
+                for (int i = 0; i < messages; i++) {
+                    inbox.send("oi");
+                }
+                allocated.addAndGet(allocatedBytes() - before);
+                done.countDown();
+            });
+        }
+        start(() -> {
+            long before = allocatedBytes();
+            await(start);
+            for (long read = 0; read < total; ) {
+                if (inbox.read() != null) {
+                    read++;
+                } else {
+                    Thread.yield();
+                }
+            }
+            allocated.addAndGet(allocatedBytes() - before);
+            done.countDown();
+        });
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        return new long[]{System.nanoTime() - begin, allocated.get()};
+    }
+
+    private static void start(Runnable body) {
+        Thread thread = new Thread(body);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getCurrentThreadAllocatedBytes();
+        }
+        return 0;
+    }
+
+    private static void report(String name, int senders, int messages, long[] result) {
+        double millis = result[0] / 1_000_000.0;
+        long total = (long) messages * senders;
+        System.out.printf("%-6s %10d %12.1f %12.0f %12.1f%n", name, senders, millis, total / millis,
+                (double) result[1] / total);
+    }
+}
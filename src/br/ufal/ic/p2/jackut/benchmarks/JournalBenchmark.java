@@ -0,0 +1,100 @@
+package br.ufal.ic.p2.jackut.benchmarks;
+
+import br.ufal.ic.p2.jackut.persistence.CommunityJournal;
+import br.ufal.ic.p2.jackut.persistence.FsyncPolicy;
+import br.ufal.ic.p2.jackut.persistence.JournalRecord;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Measures bursts of join/leave mutations appended to the community journal.
+ *
+ * <p>Usage: {@code java br.ufal.ic.p2.jackut.benchmarks.JournalBenchmark [records] [bursts]}</p>
+ *
+ * <p>The {@code per-record} row reproduces the original journal, which opened,
+ * wrote and closed the log for every mutation; {@code per-record+fsync} also syncs
+ * each one. The other rows use the group-commit flusher with each
+ * {@link FsyncPolicy}. Times include draining the queue with
+ * {@link CommunityJournal#flush()} at the end of every burst, as
+ * {@code encerrarSistema} does.</p>
+ */
+public class JournalBenchmark {
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optional number of records per burst (default 2000) and of bursts (default 5)
+     * @throws Exception if a temporary file cannot be used
+     */
+    public static void main(String[] args) throws Exception {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        int bursts = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        System.out.printf("Rajadas: %d x %d registros de entrada/saida%n", bursts, records);
+        System.out.printf("%-18s %12s %12s%n", "modo", "total ms", "us/registro");
+
+        run("per-record", records, bursts, file -> perRecord(file, records, false));
+        run("per-record+fsync", records, bursts, file -> perRecord(file, records, true));
+        for (FsyncPolicy policy : FsyncPolicy.values()) {
+            run(policy.name().toLowerCase(), records, bursts, file -> {
+                CommunityJournal journal = new CommunityJournal(file, policy, 100);
+                appendBurst(journal, records);
+                journal.flush();
+            });
+        }
+    }
+
+    /**
+     * One burst of mutations against a log file.
+     */
+    interface Burst {
+        void run(File file) throws IOException;
+    }
+
+    static void run(String name, int records, int bursts, Burst burst) throws IOException {
+        File file = Files.createTempFile("jackut-bench", ".log").toFile();
+        try {
+            burst.run(file); // Aquecimento
+            Files.deleteIfExists(file.toPath());
+
+            long total = 0;
+            for (int i = 0; i < bursts; i++) {
+                long start = System.nanoTime();
+                burst.run(file);
+                total += System.nanoTime() - start;
+                Files.deleteIfExists(file.toPath());
+            }
+            System.out.printf("%-18s %12.1f %12.2f%n", name,
+                    total / 1_000_000.0 / bursts, total / 1_000.0 / bursts / records);
+        } finally {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    static void appendBurst(CommunityJournal journal, int records) {
+        for (int i = 0; i < records; i++) {
+            journal.append(record(i));
+        }
+    }
+
+    static void perRecord(File file, int records, boolean fsync) throws IOException {
+        for (int i = 0; i < records; i++) {
+            try (FileOutputStream out = new FileOutputStream(file, true)) {
+                out.write(CommunityJournal.encode(record(i)));
+                if (fsync) {
+                    out.getFD().sync();
+                }
+            }
+        }
+    }
+
+    private static JournalRecord record(int i) {
+        String login = NetworkGenerator.login(i % 500);
+        return i % 2 == 0
+                ? JournalRecord.joinCommunity("comunidade" + (i % 20), login)
+                : JournalRecord.leaveCommunity("comunidade" + (i % 20), login);
+    }
+}
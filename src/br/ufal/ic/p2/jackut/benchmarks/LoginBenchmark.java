@@ -0,0 +1,121 @@
+package br.ufal.ic.p2.jackut.benchmarks;
+
+import br.ufal.ic.p2.jackut.concurrency.StripedLocks;
+import br.ufal.ic.p2.jackut.exceptions.SystemOperationException;
+import br.ufal.ic.p2.jackut.models.User;
+import br.ufal.ic.p2.jackut.repositories.UserRepository;
+import br.ufal.ic.p2.jackut.services.AuthService;
+import br.ufal.ic.p2.jackut.services.PasswordHasher;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures login throughput for several costs of the password hash, so the cost
+ * of a deployment can be chosen knowing what it does to logins.
+ *
+ * <p>Usage: {@code java br.ufal.ic.p2.jackut.benchmarks.LoginBenchmark [logins] [maxClients] [costs] [queue]}</p>
+ *
+ * <p>Each row runs the given number of logins of random users, split among the
+ * client threads, straight on {@link AuthService}. The passwords are hashed with
+ * PBKDF2 at the cost of the row (iterations, see {@link PasswordHasher#ITERATIONS})
+ * on a pool with one thread per processor and the given queue. Clients that
+ * find the queue full wait up to a second for it and then give up; those logins
+ * are counted as refused, which is the backpressure the pool applies.</p>
+ */
+public class LoginBenchmark {
+
+    private static final int USERS = 16;
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optional number of logins per row (default 64), maximum number of
+     *             clients (default 16), comma-separated costs (default 1000,10000,100000)
+     *             and queue of the pool (default 256)
+     * @throws InterruptedException if interrupted while waiting for the threads
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int logins = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int maxClients = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        String costs = args.length > 2 ? args[2] : "1000,10000,100000";
+        int queue = args.length > 3 ? Integer.parseInt(args[3]) : 256;
+        int processors = Runtime.getRuntime().availableProcessors();
+
+        System.out.printf("%d logins por linha, %d processadores, fila de %d%n", logins, processors, queue);
+        System.out.printf("%-10s %8s %12s %12s %10s%n", "iteracoes", "clientes", "logins/s", "ms/login", "recusados");
+
+        // Aquecimento do JIT
+        run(1_000, processors, queue, 4, 500);
+
+        for (String cost : costs.split(",")) {
+            int iterations = Integer.parseInt(cost.trim());
+            for (int clients = 1; clients <= maxClients; clients *= 4) {
+                long[] result = run(iterations, processors, queue, clients, logins);
+                double seconds = result[0] / 1e9;
+                long done = logins - result[1];
+                System.out.printf("%-10d %8d %12.1f %12.2f %10d%n", iterations, clients, done / seconds,
+                        done == 0 ? 0 : result[0] / 1e6 * clients / done, result[1]);
+            }
+        }
+    }
+
+    /**
+     * Runs one row.
+     *
+     * @return the elapsed nanoseconds and the refused logins
+     */
+    static long[] run(int iterations, int threads, int queue, int clients, int logins)
+            throws InterruptedException {
+        PasswordHasher passwords = new PasswordHasher(iterations, threads, queue, 1_000);
+        try {
+            UserRepository users = new UserRepository();
+            AuthService auth = new AuthService(users, new StripedLocks(), passwords);
+            for (int i = 0; i < USERS; i++) {
+                users.addUser(new User("Usuario " + i, login(i), passwords.hash("senha" + i)));
+            }
+
+            CountDownLatch start = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(clients);
+            AtomicInteger refused = new AtomicInteger();
+            for (int c = 0; c < clients; c++) {
+                int count = logins / clients + (c < logins % clients ? 1 : 0);
+                SplittableRandom random = new SplittableRandom(c);
+                Thread thread = new Thread(() -> {
+                    await(start);
+                    for (int i = 0; i < count; i++) {
+                        int user = random.nextInt(USERS);
+                        try {
+                            auth.login(login(user), "senha" + user);
+                        } catch (SystemOperationException e) {
+                            refused.incrementAndGet();
+                        }
+                    }
+                    done.countDown();
+                });
+                thread.setDaemon(true);
+                thread.start();
+            }
+
+            long begin = System.nanoTime();
+            start.countDown();
+            done.await();
+            return new long[]{System.nanoTime() - begin, refused.get()};
+        } finally {
+            passwords.close();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static String login(int index) {
+        return "user" + index;
+    }
+}
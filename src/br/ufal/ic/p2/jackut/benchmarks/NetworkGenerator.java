@@ -0,0 +1,107 @@
+package br.ufal.ic.p2.jackut.benchmarks;
+
+import br.ufal.ic.p2.jackut.models.Community;
+import br.ufal.ic.p2.jackut.models.Recado;
+import br.ufal.ic.p2.jackut.models.User;
+
+import java.util.*;
+
+/**
+ * Builds synthetic social networks for the benchmarks.
+ * The generator is seeded, so every run produces the same network.
+ */
+public class NetworkGenerator {
+
+    private final Random random;
+    private final int friendsPerUser;
+    private final int messagesPerUser;
+
+    /**
+     * Creates a generator.
+     *
+     * @param seed the random seed
+     * @param friendsPerUser average number of friends, fans and idols per user
+     * @param messagesPerUser number of queued recados per user
+     */
+    public NetworkGenerator(long seed, int friendsPerUser, int messagesPerUser) {
+        this.random = new Random(seed);
+        this.friendsPerUser = friendsPerUser;
+        this.messagesPerUser = messagesPerUser;
+    }
+
+    /**
+     * Gets the login of the i-th generated user.
+     *
+     * @param i the user index
+     * @return the login
+     */
+    public static String login(int i) {
+        return "usuario" + i;
+    }
+
+    /**
+     * Builds a map of users with friends, fans, idols, attributes and recados.
+     *
+     * @param count the number of users
+     * @return the users indexed by login
+     */
+    public Map<String, User> users(int count) {
+        // Os logins sao compartilhados entre as listas, como acontece depois de um carregamento
+        String[] logins = new String[count];
+        for (int i = 0; i < count; i++) {
+            logins[i] = login(i);
+        }
+
+        Map<String, User> users = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            User user = new User("Usuario " + i, logins[i], "senha" + i);
+            user.setAttributeExtra("descricao", "Perfil gerado para benchmark numero " + i);
+            user.setAttributeExtra("cidade", i % 2 == 0 ? "Maceio" : "Campina Grande");
+            users.put(user.getLogin(), user);
+        }
+
+        for (int i = 0; i < count; i++) {
+            User user = users.get(logins[i]);
+            for (int k = 0; k < friendsPerUser; k++) {
+                String other = logins[random.nextInt(count)];
+                if (other.equals(user.getLogin())) {
+                    continue;
+                }
+                user.addFriend(other);
+                users.get(other).addFriend(user.getLogin());
+                if (k % 2 == 0) {
+                    user.addIdol(other);
+                    users.get(other).addFan(user.getLogin());
+                }
+            }
+            for (int m = 0; m < messagesPerUser; m++) {
+                String sender = logins[random.nextInt(count)];
+                user.incomingMessage(new Recado(sender,
+                        "Recado " + m + " de " + sender + " para " + user.getLogin(), user.getLogin()));
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Builds communities whose members are drawn from the generated users.
+     *
+     * @param count the number of communities
+     * @param userCount the number of generated users
+     * @param membersPerCommunity the number of members per community
+     * @return the communities indexed by name
+     */
+    public Map<String, Community> communities(int count, int userCount, int membersPerCommunity) {
+        Map<String, Community> communities = new LinkedHashMap<>();
+        for (int c = 0; c < count; c++) {
+            String name = "Comunidade " + c;
+            Community community = new Community(name, "Descricao da comunidade " + c,
+                    login(random.nextInt(userCount)));
+            for (int m = 0; m < membersPerCommunity; m++) {
+                community.addMember(login(random.nextInt(userCount)));
+            }
+            communities.put(name, community);
+        }
+        return communities;
+    }
+}
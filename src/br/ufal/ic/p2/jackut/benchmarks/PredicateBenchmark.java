@@ -0,0 +1,136 @@
+package br.ufal.ic.p2.jackut.benchmarks;
+
+import br.ufal.ic.p2.jackut.concurrency.StripedLocks;
+import br.ufal.ic.p2.jackut.models.User;
+import br.ufal.ic.p2.jackut.repositories.UserRepository;
+import br.ufal.ic.p2.jackut.services.AuthService;
+import br.ufal.ic.p2.jackut.services.FriendshipService;
+import br.ufal.ic.p2.jackut.services.PasswordHasher;
+import br.ufal.ic.p2.jackut.services.RelationshipService;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures the throughput of the relationship predicates while a writer adds friends.
+ *
+ * <p>Usage: {@code java br.ufal.ic.p2.jackut.benchmarks.PredicateBenchmark [users] [reads/thread] [maxThreads]}</p>
+ *
+ * <p>Reader threads call {@code ehAmigo}, {@code ehFa}, {@code ehPaquera} and
+ * {@code ehInimigo} on random users while one writer thread keeps sending
+ * friend requests and idols. The {@code locks} rows run every predicate under
+ * the stripe lock; the {@code otimista} rows use lock-free optimistic reads.</p>
+ */
+public class PredicateBenchmark {
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optional number of users (default 10000), reads per thread
+     *             (default 200000) and maximum number of reader threads (default 16)
+     * @throws InterruptedException if interrupted while waiting for the threads
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int userCount = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int reads = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        // O custo das senhas nao e o que se mede aqui (veja LoginBenchmark)
+        System.setProperty(PasswordHasher.ITERATIONS, System.getProperty(PasswordHasher.ITERATIONS, "1000"));
+
+        System.out.printf("Usuarios: %d, %d leituras por thread, %d processadores%n",
+                userCount, reads, Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-10s %8s %12s %12s %12s%n", "leitura", "threads", "total ms", "leituras/ms", "escritas");
+
+        // Aquecimento do JIT
+        run(true, userCount, reads, 2);
+        run(false, userCount, reads, 2);
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            for (boolean optimistic : new boolean[]{false, true}) {
+                long[] result = run(optimistic, userCount, reads, threads);
+                double millis = result[0] / 1_000_000.0;
+                System.out.printf("%-10s %8d %12.1f %12.1f %12d%n", optimistic ? "otimista" : "locks",
+                        threads, millis, (double) reads * threads / millis, result[1]);
+            }
+        }
+    }
+
+    /**
+     * Runs the readers to completion next to one writer.
+     *
+     * @return the elapsed nanoseconds and the number of writes done meanwhile
+     */
+    static long[] run(boolean optimistic, int userCount, int reads, int threads) throws InterruptedException {
+        StripedLocks locks = new StripedLocks(64, optimistic);
+        UserRepository users = new UserRepository();
+        AuthService auth = new AuthService(users, locks);
+        FriendshipService friendships = new FriendshipService(users, locks);
+        RelationshipService relationships = new RelationshipService(users, auth, locks);
+
+        String[] sessions = new String[userCount];
+        for (int i = 0; i < userCount; i++) {
+            users.addUser(new User("Usuario " + i, login(i), "senha"));
+            sessions[i] = auth.login(login(i), "senha");
+        }
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        long[] writes = new long[1];
+        Thread writer = new Thread(() -> {
+            SplittableRandom random = new SplittableRandom(-1);
+            while (running.get()) {
+                int from = random.nextInt(userCount);
+                int to = random.nextInt(userCount);
+                try {
+                    if (random.nextBoolean()) {
+                        friendships.addFriend(sessions[from], login(to));
+                    } else {
+                        relationships.adicionarIdolo(sessions[from], login(to));
+                    }
+                } catch (RuntimeException e) {
+                    // Operacao recusada pelas regras do Jackut
+                }
+                writes[0]++;
+            }
+        });
+
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            SplittableRandom random = new SplittableRandom(t);
+            Thread reader = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < reads; i++) {
+                        int from = random.nextInt(userCount);
+                        String other = login(random.nextInt(userCount));
+                        switch (i & 3) {
+                            case 0 -> friendships.areFriends(login(from), other);
+                            case 1 -> relationships.ehFa(login(from), other);
+                            case 2 -> relationships.ehPaquera(sessions[from], other);
+                            default -> relationships.ehInimigo(sessions[from], other);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+            reader.start();
+        }
+
+        writer.start();
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        running.set(false);
+        writer.join();
+        return new long[]{elapsed, writes[0]};
+    }
+
+    static String login(int index) {
+        return "user" + index;
+    }
+}
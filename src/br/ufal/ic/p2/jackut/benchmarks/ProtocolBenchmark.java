@@ -0,0 +1,167 @@
+package br.ufal.ic.p2.jackut.benchmarks;
+
+import br.ufal.ic.p2.jackut.exceptions.RemoteOperationException;
+import br.ufal.ic.p2.jackut.facade.Facade;
+import br.ufal.ic.p2.jackut.persistence.Checkpointer;
+import br.ufal.ic.p2.jackut.server.BinaryClient;
+import br.ufal.ic.p2.jackut.server.BinaryServer;
+import br.ufal.ic.p2.jackut.server.JackutServer;
+import br.ufal.ic.p2.jackut.server.Opcode;
+import br.ufal.ic.p2.jackut.services.PasswordHasher;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Compares the per-operation cost of the HTTP and binary front ends with an
+ * {@code enviarRecado} flood, as sent by a chatty bot.
+ *
+ * <p>Usage: {@code java br.ufal.ic.p2.jackut.benchmarks.ProtocolBenchmark [users] [ops/client] [clients] [window]}</p>
+ *
+ * <p>Both servers run on localhost over the same Facade. The {@code http} and
+ * {@code binario} rows wait for each response before sending the next request;
+ * the {@code pipeline} rows keep up to {@code window} requests (default 128) in
+ * flight on each connection. Background checkpoints are disabled, so nothing is
+ * written to disk.</p>
+ */
+public class ProtocolBenchmark {
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optional number of users (default 1000), operations per client
+     *             (default 20000), clients (default 4) and pipeline window (default 128)
+     * @throws Exception if a server cannot be started or a request fails
+     */
+    public static void main(String[] args) throws Exception {
+        int userCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        int clients = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int window = args.length > 3 ? Integer.parseInt(args[3]) : 128;
+        System.setProperty(Checkpointer.ENABLED, "false");
+        // O custo das senhas nao e o que se mede aqui (veja LoginBenchmark)
+        System.setProperty(PasswordHasher.ITERATIONS, System.getProperty(PasswordHasher.ITERATIONS, "1000"));
+
+        Facade facade = new Facade();
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        try (JackutServer http = new JackutServer(facade, new InetSocketAddress(loopback, 0));
+             BinaryServer binary = new BinaryServer(facade, new InetSocketAddress(loopback, 0))) {
+            http.start();
+            binary.start();
+
+            String[] sessions = new String[userCount];
+            try (BinaryClient client = new BinaryClient("localhost", binary.getPort())) {
+                for (int i = 0; i < userCount; i++) {
+                    client.call(Opcode.CRIAR_USUARIO, login(i), "senha", "Usuario " + i);
+                    sessions[i] = (String) client.call(Opcode.ABRIR_SESSAO, login(i), "senha");
+                }
+            }
+
+            System.out.printf("Usuarios: %d, %d recados por cliente, %d clientes, janela de %d%n",
+                    userCount, operations, clients, window);
+            System.out.printf("%-10s %12s %12s%n", "protocolo", "total ms", "ops/s");
+
+            String base = "http://localhost:" + http.getPort() + "/";
+            HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            for (int round = 0; round < 2; round++) {
+                // A primeira rodada aquece o JIT e nao e mostrada
+                boolean show = round == 1;
+                report(show, "http", clients, operations, run(clients, c -> {
+                    SplittableRandom random = new SplittableRandom(c);
+                    for (int i = 0; i < operations; i++) {
+                        ServerBenchmark.call(httpClient, base, "enviarRecado", "id",
+                                sessions[random.nextInt(userCount)], "destinatario",
+                                login(random.nextInt(userCount)), "recado", "oi");
+                    }
+                }));
+                report(show, "binario", clients, operations, run(clients, c -> {
+                    flood(binary.getPort(), sessions, operations, 1, c);
+                }));
+                report(show, "pipeline", clients, operations, run(clients, c -> {
+                    flood(binary.getPort(), sessions, operations, window, c);
+                }));
+            }
+        }
+    }
+
+    /**
+     * Sends the recados of one client, keeping up to {@code window} of them in flight.
+     */
+    static void flood(int port, String[] sessions, int operations, int window, int seed) throws IOException {
+        SplittableRandom random = new SplittableRandom(seed);
+        int userCount = sessions.length;
+        try (BinaryClient client = new BinaryClient("localhost", port)) {
+            int received = 0;
+            for (int sent = 0; sent < operations; sent++) {
+                client.send(Opcode.ENVIAR_RECADO, sessions[random.nextInt(userCount)],
+                        login(random.nextInt(userCount)), "oi");
+                if (sent - received + 1 >= window) {
+                    client.flush();
+                    received += receive(client);
+                }
+            }
+            client.flush();
+            while (received < operations) {
+                received += receive(client);
+            }
+        }
+    }
+
+    static int receive(BinaryClient client) throws IOException {
+        try {
+            client.receive();
+        } catch (RemoteOperationException e) {
+            // Recado para si mesmo, recusado pelas regras do Jackut
+        }
+        return 1;
+    }
+
+    interface Client {
+        void run(int index) throws Exception;
+    }
+
+    static long run(int clients, Client body) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(clients);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        for (int c = 0; c < clients; c++) {
+            int index = c;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    body.run(index);
+                } catch (Exception e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    done.countDown();
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        if (failure.get() != null) {
+            System.err.println("Falha em um cliente: " + failure.get());
+        }
+        return System.nanoTime() - begin;
+    }
+
+    static void report(boolean show, String name, int clients, int operations, long nanos) {
+        if (show) {
+            double millis = nanos / 1_000_000.0;
+            System.out.printf("%-10s %12.1f %12.0f%n", name, millis, (double) clients * operations * 1_000 / millis);
+        }
+    }
+
+    static String login(int index) {
+        return "user" + index;
+    }
+}
@@ -0,0 +1,156 @@
+package br.ufal.ic.p2.jackut.benchmarks;
+
+import br.ufal.ic.p2.jackut.facade.Facade;
+import br.ufal.ic.p2.jackut.persistence.Checkpointer;
+import br.ufal.ic.p2.jackut.server.JackutServer;
+import br.ufal.ic.p2.jackut.services.PasswordHasher;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Load generator for the HTTP front end, run against a server on localhost.
+ *
+ * <p>Usage: {@code java br.ufal.ic.p2.jackut.benchmarks.ServerBenchmark [users] [requests/client] [maxClients]}</p>
+ *
+ * <p>Starts a {@link JackutServer} on a free local port, creates the users and
+ * their sessions through it, then runs a growing number of clients. Every client
+ * keeps one request in flight: a mix of {@code getAmigos}, {@code ehAmigo},
+ * {@code adicionarAmigo} and {@code enviarRecado} on random users. It reports
+ * the throughput and the 50th and 99th percentile latencies. Background
+ * checkpoints are disabled, so nothing is written to disk.</p>
+ */
+public class ServerBenchmark {
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optional number of users (default 1000), requests per client
+     *             (default 500) and maximum number of clients (default 256)
+     * @throws IOException if the server cannot be started or a request fails
+     * @throws InterruptedException if interrupted while waiting for the clients
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int userCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int maxClients = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+        System.setProperty(Checkpointer.ENABLED, "false");
+        // O custo das senhas nao e o que se mede aqui (veja LoginBenchmark)
+        System.setProperty(PasswordHasher.ITERATIONS, System.getProperty(PasswordHasher.ITERATIONS, "1000"));
+
+        try (JackutServer server = new JackutServer(new Facade(),
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+            server.start();
+            HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            String base = "http://localhost:" + server.getPort() + "/";
+
+            String[] sessions = new String[userCount];
+            for (int i = 0; i < userCount; i++) {
+                call(client, base, "criarUsuario", "login", login(i), "senha", "senha", "nome", "Usuario " + i);
+                sessions[i] = call(client, base, "abrirSessao", "login", login(i), "senha", "senha");
+            }
+
+            System.out.printf("Usuarios: %d, %d requisicoes por cliente, %s, %d processadores%n", userCount,
+                    requests, server.usesVirtualThreads() ? "threads virtuais" : "threads de plataforma",
+                    Runtime.getRuntime().availableProcessors());
+            System.out.printf("%8s %12s %12s %10s %10s%n", "clientes", "total ms", "req/s", "p50 us", "p99 us");
+
+            // Aquecimento do JIT
+            run(client, base, sessions, requests, 4);
+
+            for (int clients = 1; clients <= maxClients; clients *= 4) {
+                long[] latencies = new long[clients * requests];
+                long elapsed = run(client, base, sessions, requests, clients, latencies);
+                Arrays.sort(latencies);
+                double millis = elapsed / 1_000_000.0;
+                System.out.printf("%8d %12.1f %12.0f %10d %10d%n", clients, millis, latencies.length * 1_000 / millis,
+                        latencies[latencies.length / 2] / 1_000, latencies[latencies.length * 99 / 100] / 1_000);
+            }
+        }
+    }
+
+    static long run(HttpClient client, String base, String[] sessions, int requests, int clients)
+            throws InterruptedException {
+        return run(client, base, sessions, requests, clients, new long[clients * requests]);
+    }
+
+    /**
+     * Runs the clients to completion.
+     *
+     * @return the elapsed nanoseconds; the latency of every request is stored in {@code latencies}
+     */
+    static long run(HttpClient client, String base, String[] sessions, int requests, int clients,
+                    long[] latencies) throws InterruptedException {
+        int userCount = sessions.length;
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(clients);
+        for (int c = 0; c < clients; c++) {
+            int offset = c * requests;
+            SplittableRandom random = new SplittableRandom(c);
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < requests; i++) {
+                        int from = random.nextInt(userCount);
+                        String to = login(random.nextInt(userCount));
+                        long begin = System.nanoTime();
+                        switch (i & 3) {
+                            case 0 -> call(client, base, "getAmigos", "login", login(from));
+                            case 1 -> call(client, base, "ehAmigo", "login", login(from), "amigo", to);
+                            case 2 -> call(client, base, "adicionarAmigo", "id", sessions[from], "amigo", to);
+                            default -> call(client, base, "enviarRecado", "id", sessions[from],
+                                    "destinatario", to, "recado", "oi");
+                        }
+                        latencies[offset + i] = System.nanoTime() - begin;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (IOException e) {
+                    System.err.println("Falha na requisicao: " + e.getMessage());
+                } finally {
+                    done.countDown();
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        return System.nanoTime() - begin;
+    }
+
+    /**
+     * Calls an operation and returns its result. Rejected operations (status 400)
+     * are part of the mix and return their error message.
+     */
+    static String call(HttpClient client, String base, String operation, String... parameters)
+            throws IOException, InterruptedException {
+        StringBuilder query = new StringBuilder();
+        for (int i = 0; i < parameters.length; i += 2) {
+            query.append(i == 0 ? '?' : '&').append(parameters[i]).append('=')
+                    .append(URLEncoder.encode(parameters[i + 1], StandardCharsets.UTF_8));
+        }
+        HttpRequest request = HttpRequest.newBuilder(URI.create(base + operation + query)).GET().build();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200 && response.statusCode() != 400) {
+            throw new IOException(operation + ": HTTP " + response.statusCode());
+        }
+        return response.body();
+    }
+
+    static String login(int index) {
+        return "user" + index;
+    }
+}
@@ -0,0 +1,335 @@
+package br.ufal.ic.p2.jackut.benchmarks;
+
+import br.ufal.ic.p2.jackut.models.User;
+import br.ufal.ic.p2.jackut.repositories.SessionStore;
+import br.ufal.ic.p2.jackut.repositories.SessionTokens;
+import br.ufal.ic.p2.jackut.repositories.SignedSessions;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Measures how the cost of resolving, revoking and expiring sessions grows with
+ * the number of open sessions in the system.
+ *
+ * <p>Usage: {@code java br.ufal.ic.p2.jackut.benchmarks.SessionBenchmark [sessions/user] [revocations] [maxUsers]}</p>
+ *
+ * <p>In the first table, the {@code varredura} rows scan a plain session map for
+ * the sessions of the user, as a removal used to; the {@code indice} rows use the
+ * login index of {@link SessionStore}. Each revoked user logs in again before the
+ * next revocation, so the number of open sessions stays the same.</p>
+ *
+ * <p>The second table expires sessions on a simulated clock: the users open
+ * their sessions spread over the first {@value #IDLE} seconds, and the clock then
+ * runs until all of them are idle past that timeout. Only the time spent
+ * finding and closing the expired sessions is counted. The {@code varredura} rows check
+ * every open session once per second, as a periodic scan would; the {@code roda}
+ * rows let the timing wheel of {@link SessionStore} collect them.</p>
+ *
+ * <p>The third table resolves every open session once, as the authenticated calls
+ * of the Facade do. Each ID is a fresh copy, as it would arrive from a client, so
+ * its hash is not cached. The {@code string} rows resolve {@code login_millis}
+ * IDs the way {@link SessionStore} did before it was keyed on 128 bits: a map
+ * from the ID string, then the same clock, expiry check and access mark. The
+ * {@code 128 bits} rows resolve {@link SessionTokens} IDs in {@link SessionStore};
+ * the {@code assinada} rows check {@link SignedSessions} tokens and then find the
+ * user by login, as the repository does when signed sessions are enabled. The allocation column
+ * comes from the per-thread counters of the JVM (0 where they are not supported).</p>
+ */
+public class SessionBenchmark {
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optional number of sessions per user (default 4), revocations
+     *             per row (default 200) and maximum number of users (default 100000)
+     */
+    public static void main(String[] args) {
+        int perUser = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int revocations = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int maxUsers = args.length > 2 ? Integer.parseInt(args[2]) : 100_000;
+
+        System.out.printf("%d sessoes por usuario, %d revogacoes por linha%n", perUser, revocations);
+        System.out.printf("%-10s %10s %12s %14s%n", "busca", "usuarios", "total ms", "us/revogacao");
+
+        // Aquecimento do JIT
+        scan(1_000, perUser, revocations);
+        index(1_000, perUser, revocations);
+
+        for (int users = 1_000; users <= maxUsers; users *= 10) {
+            report("varredura", users, revocations, scan(users, perUser, revocations));
+            report("indice", users, revocations, index(users, perUser, revocations));
+        }
+
+        System.out.printf("%n%-10s %10s %12s %14s%n", "expiracao", "usuarios", "total ms", "ns/sessao");
+        scanExpiry(1_000, perUser);
+        wheelExpiry(1_000, perUser);
+        for (int users = 1_000; users <= maxUsers; users *= 10) {
+            reportExpiry("varredura", users, perUser, scanExpiry(users, perUser));
+            reportExpiry("roda", users, perUser, wheelExpiry(users, perUser));
+        }
+
+        System.out.printf("%n%-10s %10s %12s %14s%n", "resolucao", "sessoes", "ns/busca", "bytes/busca");
+        for (int i = 0; i < 20; i++) {
+            stringLookup(1_000, perUser);
+            tokenLookup(1_000, perUser);
+            signedLookup(1_000, perUser);
+        }
+        for (int users = 1_000; users <= maxUsers; users *= 10) {
+            reportLookup("string", users * perUser, stringLookup(users, perUser));
+            reportLookup("128 bits", users * perUser, tokenLookup(users, perUser));
+            reportLookup("assinada", users * perUser, signedLookup(users, perUser));
+        }
+    }
+
+    // Inatividade usada na expiracao simulada, em segundos
+    private static final int IDLE = 60;
+
+    static long scan(int userCount, int perUser, int revocations) {
+        User[] users = users(userCount);
+        Map<String, User> sessions = new ConcurrentHashMap<>();
+        for (User user : users) {
+            for (int s = 0; s < perUser; s++) {
+                sessions.put(user.getLogin() + "_" + s, user);
+            }
+        }
+
+        long begin = System.nanoTime();
+        for (int r = 0; r < revocations; r++) {
+            User user = users[r % userCount];
+            List<String> revoked = new ArrayList<>();
+            for (Map.Entry<String, User> entry : sessions.entrySet()) {
+                if (entry.getValue().getLogin().equals(user.getLogin())) {
+                    revoked.add(entry.getKey());
+                }
+            }
+            for (String sessionId : revoked) {
+                sessions.remove(sessionId);
+            }
+            for (int s = 0; s < perUser; s++) {
+                sessions.put(user.getLogin() + "_" + s, user);
+            }
+        }
+        return System.nanoTime() - begin;
+    }
+
+    static long index(int userCount, int perUser, int revocations) {
+        User[] users = users(userCount);
+        SessionStore sessions = new SessionStore(perUser);
+        for (User user : users) {
+            for (int s = 0; s < perUser; s++) {
+                sessions.add(SessionTokens.generate(), user);
+            }
+        }
+
+        long begin = System.nanoTime();
+        for (int r = 0; r < revocations; r++) {
+            User user = users[r % userCount];
+            sessions.revokeAll(user.getLogin());
+            for (int s = 0; s < perUser; s++) {
+                sessions.add(SessionTokens.generate(), user);
+            }
+        }
+        return System.nanoTime() - begin;
+    }
+
+    static long scanExpiry(int userCount, int perUser) {
+        User[] users = users(userCount);
+        Map<String, long[]> sessions = new ConcurrentHashMap<>();
+        long nanos = 0;
+        for (long now = 0; !sessions.isEmpty() || now < IDLE; now++) {
+            for (User user : opening(users, now)) {
+                for (int s = 0; s < perUser; s++) {
+                    sessions.put(user.getLogin() + "_" + s, new long[]{now});
+                }
+            }
+            long limit = now - IDLE;
+            long begin = System.nanoTime();
+            sessions.values().removeIf(lastAccess -> lastAccess[0] <= limit);
+            nanos += System.nanoTime() - begin;
+        }
+        return nanos;
+    }
+
+    static long wheelExpiry(int userCount, int perUser) {
+        User[] users = users(userCount);
+        long[] clock = {0};
+        SessionStore sessions = new SessionStore(perUser, IDLE, 0, () -> clock[0]);
+        long nanos = 0;
+        for (; sessions.size() > 0 || clock[0] < IDLE; clock[0]++) {
+            for (User user : opening(users, clock[0])) {
+                for (int s = 0; s < perUser; s++) {
+                    sessions.add(SessionTokens.generate(), user);
+                }
+            }
+            long begin = System.nanoTime();
+            sessions.get("");
+            nanos += System.nanoTime() - begin;
+        }
+        return nanos;
+    }
+
+    /**
+     * A session as the string-keyed store kept it.
+     */
+    static final class StringSession {
+        final User user;
+        final long opened;
+        volatile long lastAccess;
+
+        StringSession(User user, long now) {
+            this.user = user;
+            this.opened = now;
+            this.lastAccess = now;
+        }
+    }
+
+    static long[] stringLookup(int userCount, int perUser) {
+        User[] users = users(userCount);
+        Map<String, StringSession> sessions = new ConcurrentHashMap<>();
+        List<String> ids = new ArrayList<>();
+        long millis = System.currentTimeMillis();
+        for (User user : users) {
+            for (int s = 0; s < perUser; s++) {
+                String sessionId = user.getLogin() + "_" + (millis + s);
+                sessions.put(sessionId, new StringSession(user, seconds()));
+                ids.add(sessionId);
+            }
+        }
+        String[] requests = copies(ids);
+
+        long before = allocatedBytes();
+        long begin = System.nanoTime();
+        int found = 0;
+        for (String sessionId : requests) {
+            long now = seconds();
+            StringSession session = sessions.get(sessionId);
+            if (session == null || Math.min(session.lastAccess + 1800, session.opened + 86400) <= now) {
+                continue;
+            }
+            if (session.lastAccess != now) {
+                session.lastAccess = now;
+            }
+            found++;
+        }
+        long nanos = System.nanoTime() - begin;
+        return new long[]{nanos, allocatedBytes() - before, found};
+    }
+
+    static long[] tokenLookup(int userCount, int perUser) {
+        User[] users = users(userCount);
+        SessionStore sessions = new SessionStore(perUser);
+        List<String> ids = new ArrayList<>();
+        for (User user : users) {
+            for (int s = 0; s < perUser; s++) {
+                String sessionId = SessionTokens.generate();
+                sessions.add(sessionId, user);
+                ids.add(sessionId);
+            }
+        }
+        String[] requests = copies(ids);
+
+        long before = allocatedBytes();
+        long begin = System.nanoTime();
+        int found = 0;
+        for (String sessionId : requests) {
+            if (sessions.get(sessionId) != null) {
+                found++;
+            }
+        }
+        long nanos = System.nanoTime() - begin;
+        return new long[]{nanos, allocatedBytes() - before, found};
+    }
+
+    static long[] signedLookup(int userCount, int perUser) {
+        User[] users = users(userCount);
+        Map<String, User> byLogin = new ConcurrentHashMap<>();
+        SignedSessions sessions = new SignedSessions();
+        List<String> ids = new ArrayList<>();
+        for (User user : users) {
+            byLogin.put(user.getLogin(), user);
+            for (int s = 0; s < perUser; s++) {
+                ids.add(sessions.issue(user.getLogin()));
+            }
+        }
+        String[] requests = copies(ids);
+
+        long before = allocatedBytes();
+        long begin = System.nanoTime();
+        int found = 0;
+        for (String sessionId : requests) {
+            String login = sessions.verify(sessionId);
+            if (login != null && byLogin.get(login) != null) {
+                found++;
+            }
+        }
+        long nanos = System.nanoTime() - begin;
+        return new long[]{nanos, allocatedBytes() - before, found};
+    }
+
+    /**
+     * Copies the IDs in random order, so no lookup finds a hash already cached.
+     */
+    private static String[] copies(List<String> ids) {
+        java.util.Collections.shuffle(ids, new java.util.Random(42));
+        String[] copies = new String[ids.size()];
+        for (int i = 0; i < copies.length; i++) {
+            copies[i] = new String(ids.get(i).toCharArray());
+        }
+        return copies;
+    }
+
+    private static long seconds() {
+        return System.nanoTime() / 1_000_000_000L;
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getCurrentThreadAllocatedBytes();
+        }
+        return 0;
+    }
+
+    /**
+     * Gets the users that open their sessions in a second of the simulated clock.
+     */
+    private static User[] opening(User[] users, long second) {
+        if (second >= IDLE) {
+            return new User[0];
+        }
+        int from = (int) (users.length * second / IDLE);
+        int to = (int) (users.length * (second + 1) / IDLE);
+        return Arrays.copyOfRange(users, from, to);
+    }
+
+    private static User[] users(int count) {
+        User[] users = new User[count];
+        for (int i = 0; i < count; i++) {
+            users[i] = new User("Usuario " + i, "user" + i, "senha");
+        }
+        return users;
+    }
+
+    private static void reportExpiry(String name, int users, int perUser, long nanos) {
+        System.out.printf("%-10s %10d %12.1f %14.1f%n", name, users, nanos / 1_000_000.0,
+                (double) nanos / ((long) users * perUser));
+    }
+
+    private static void reportLookup(String name, int sessions, long[] result) {
+        if (result[2] != sessions) {
+            throw new IllegalStateException(name + ": " + result[2] + " de " + sessions + " sessoes encontradas");
+        }
+        System.out.printf("%-10s %10d %12.1f %14.1f%n", name, sessions, (double) result[0] / sessions,
+                (double) result[1] / sessions);
+    }
+
+    private static void report(String name, int users, int revocations, long nanos) {
+        System.out.printf("%-10s %10d %12.1f %14.2f%n", name, users, nanos / 1_000_000.0,
+                nanos / 1_000.0 / revocations);
+    }
+}
@@ -0,0 +1,208 @@
+package br.ufal.ic.p2.jackut.benchmarks;
+
+import br.ufal.ic.p2.jackut.config.JackutConfig;
+import br.ufal.ic.p2.jackut.models.Community;
+import br.ufal.ic.p2.jackut.models.User;
+import br.ufal.ic.p2.jackut.persistence.SnapshotCodec;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Compares the binary snapshot codec with the original Java serialization path.
+ *
+ * <p>Usage: {@code java br.ufal.ic.p2.jackut.benchmarks.SnapshotBenchmark [users] [iterations]}</p>
+ *
+ * <p>For each format it reports the size of both snapshot files and the average
+ * time to encode, write, read and decode the users and communities of a
+ * synthetic network. The {@code mmap} row loads the binary files through a
+ * memory mapping and leaves recado bodies undecoded. The {@code lazy} row only
+ * reads the user index, as {@code carregarSistema} does by default. The
+ * {@code binary} row decodes users in parallel chunks; {@code binary-seq}
+ * decodes them on a single thread.</p>
+ */
+public class SnapshotBenchmark {
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args optional number of users (default 20000) and of measured iterations (default 5)
+     * @throws Exception if a temporary file cannot be used
+     */
+    public static void main(String[] args) throws Exception {
+        int userCount = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        NetworkGenerator generator = new NetworkGenerator(42, 20, 5);
+        Map<String, User> users = generator.users(userCount);
+        Map<String, Community> communities = generator.communities(userCount / 20, userCount, 50);
+
+        System.out.printf("Rede: %d usuarios, %d comunidades, %d iteracoes%n",
+                users.size(), communities.size(), iterations);
+        printHeader();
+
+        run("java", iterations, new Codec() {
+            public byte[][] encode() throws IOException {
+                return new byte[][]{javaSerialize(users), javaSerialize(communities)};
+            }
+
+            public void decode(ByteBuffer[] files) throws Exception {
+                javaDeserialize(files[0].array());
+                javaDeserialize(files[1].array());
+            }
+        });
+
+        Codec binary = new Codec() {
+            public byte[][] encode() {
+                return new byte[][]{SnapshotCodec.encodeUsers(users), SnapshotCodec.encodeCommunities(communities)};
+            }
+
+            public void decode(ByteBuffer[] files) {
+                SnapshotCodec.decodeUsers(files[0], false);
+                SnapshotCodec.decodeCommunities(files[1]);
+            }
+        };
+        run("binary", iterations, binary);
+
+        run("binary-seq", iterations, new Codec() {
+            public byte[][] encode() throws Exception {
+                return binary.encode();
+            }
+
+            public void decode(ByteBuffer[] files) throws Exception {
+                System.setProperty(JackutConfig.PARALLEL_STARTUP, "false");
+                try {
+                    binary.decode(files);
+                } finally {
+                    System.clearProperty(JackutConfig.PARALLEL_STARTUP);
+                }
+            }
+        });
+
+        run("mmap", iterations, new Codec() {
+            public byte[][] encode() throws Exception {
+                return binary.encode();
+            }
+
+            public ByteBuffer read(Path path) throws IOException {
+                try (FileChannel channel = FileChannel.open(path)) {
+                    return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+            }
+
+            public void decode(ByteBuffer[] files) {
+                SnapshotCodec.decodeUsers(files[0], true);
+                SnapshotCodec.decodeCommunities(files[1]);
+            }
+        });
+
+        run("lazy", iterations, new Codec() {
+            public byte[][] encode() throws Exception {
+                return binary.encode();
+            }
+
+            public ByteBuffer read(Path path) throws IOException {
+                try (FileChannel channel = FileChannel.open(path)) {
+                    return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+            }
+
+            public void decode(ByteBuffer[] files) {
+                // Apenas o indice de usuarios e lido; cada usuario e decodificado no primeiro acesso
+                SnapshotCodec.openUsers(files[0]);
+                SnapshotCodec.decodeCommunities(files[1]);
+            }
+        });
+    }
+
+    /**
+     * A snapshot format under test. Each format produces one byte array per snapshot file.
+     */
+    interface Codec {
+        byte[][] encode() throws Exception;
+
+        default ByteBuffer read(Path path) throws IOException {
+            return ByteBuffer.wrap(Files.readAllBytes(path));
+        }
+
+        void decode(ByteBuffer[] files) throws Exception;
+    }
+
+    static void printHeader() {
+        System.out.printf("%-10s %12s %10s %10s %10s %10s%n",
+                "formato", "bytes", "encode ms", "write ms", "read ms", "decode ms");
+    }
+
+    static void run(String name, int iterations, Codec codec) throws Exception {
+        Path[] paths = {Files.createTempFile("jackut-bench", ".users"), Files.createTempFile("jackut-bench", ".comm")};
+        try {
+            // Aquecimento do JIT
+            for (int i = 0; i < 2; i++) {
+                byte[][] files = codec.encode();
+                ByteBuffer[] buffers = new ByteBuffer[files.length];
+                for (int f = 0; f < files.length; f++) {
+                    buffers[f] = ByteBuffer.wrap(files[f]);
+                }
+                codec.decode(buffers);
+            }
+
+            long encode = 0, write = 0, read = 0, decode = 0;
+            long size = 0;
+            for (int i = 0; i < iterations; i++) {
+                long t0 = System.nanoTime();
+                byte[][] files = codec.encode();
+                long t1 = System.nanoTime();
+                for (int f = 0; f < files.length; f++) {
+                    Files.write(paths[f], files[f]);
+                }
+                long t2 = System.nanoTime();
+                ByteBuffer[] loaded = new ByteBuffer[files.length];
+                for (int f = 0; f < files.length; f++) {
+                    loaded[f] = codec.read(paths[f]);
+                }
+                long t3 = System.nanoTime();
+                codec.decode(loaded);
+                long t4 = System.nanoTime();
+
+                encode += t1 - t0;
+                write += t2 - t1;
+                read += t3 - t2;
+                decode += t4 - t3;
+                size = 0;
+                for (byte[] file : files) {
+                    size += file.length;
+                }
+            }
+
+            System.out.printf("%-10s %12d %10.1f %10.1f %10.1f %10.1f%n", name, size,
+                    millis(encode, iterations), millis(write, iterations),
+                    millis(read, iterations), millis(decode, iterations));
+        } finally {
+            for (Path path : paths) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    static byte[] javaSerialize(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    static Object javaDeserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        }
+    }
+
+    static double millis(long nanos, int iterations) {
+        return nanos / 1_000_000.0 / iterations;
+    }
+}
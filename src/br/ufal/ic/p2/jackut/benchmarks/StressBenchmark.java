@@ -0,0 +1,379 @@
+package br.ufal.ic.p2.jackut.benchmarks;
+
+import br.ufal.ic.p2.jackut.facade.Facade;
+import br.ufal.ic.p2.jackut.persistence.Checkpointer;
+import br.ufal.ic.p2.jackut.services.PasswordHasher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hammers the Facade from many threads and then checks that its state is one a
+ * sequential run could have produced.
+ *
+ * <p>Usage: {@code java br.ufal.ic.p2.jackut.benchmarks.StressBenchmark [users] [ops/thread] [threads] [communities]}</p>
+ *
+ * <p>Every thread runs a random mix of {@code adicionarAmigo}, {@code adicionarIdolo},
+ * {@code enviarRecado} and {@code adicionarComunidade} between random users, while
+ * one user in twenty is removed with {@code removerUsuario} along the run.
+ * Rejected operations (already friends, a removed user...) are expected and only
+ * counted. Once every thread is done, the harness checks that:</p>
+ * <ul>
+ *   <li>friendships are symmetric and only between users that still exist;</li>
+ *   <li>every fan has the matching idol, and every accepted {@code adicionarIdolo}
+ *       between surviving users is visible from both sides;</li>
+ *   <li>the members of each community are exactly the users that list it in
+ *       {@code getComunidades};</li>
+ *   <li>each accepted recado between surviving users is read exactly once, in the
+ *       order it was sent, and no recado from a removed user is left.</li>
+ * </ul>
+ * <p>The throughput of each operation is printed, and the process exits with
+ * status 1 if any check fails. The system is reset in the working directory
+ * before and after the run, as in the EasyAccept scripts, so run it in a scratch
+ * directory. Background checkpoints are disabled.</p>
+ */
+public class StressBenchmark {
+
+    private static final String[] OPERATIONS = {"amigo", "idolo", "recado", "comunidade", "remocao"};
+    private static final int FRIEND = 0;
+    private static final int IDOL = 1;
+    private static final int MESSAGE = 2;
+    private static final int JOIN = 3;
+    private static final int REMOVE = 4;
+
+    // Um a cada REMOVED_EVERY usuarios e removido durante a execucao
+    private static final int REMOVED_EVERY = 20;
+    private static final int MAX_REPORTED = 10;
+
+    /**
+     * Operations of one thread: counters and the recados and idols it got accepted.
+     */
+    private static final class Worker {
+        final long[] accepted = new long[OPERATIONS.length];
+        final long[] rejected = new long[OPERATIONS.length];
+        // Remetente e destinatario de cada recado aceito, pela sequencia do recado
+        final int[] senders;
+        final int[] recipients;
+        final boolean[] sent;
+        final List<int[]> idols = new ArrayList<>();
+
+        Worker(int operations) {
+            senders = new int[operations];
+            recipients = new int[operations];
+            sent = new boolean[operations];
+        }
+    }
+
+    /**
+     * Runs the harness.
+     *
+     * @param args optional number of users (default 2000), operations per thread
+     *             (default 20000), threads (default 8) and communities (default 50)
+     * @throws InterruptedException if interrupted while waiting for the threads
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int userCount = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        int communityCount = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+        System.setProperty(Checkpointer.ENABLED, "false");
+        // O custo das senhas nao e o que se mede aqui (veja LoginBenchmark)
+        System.setProperty(PasswordHasher.ITERATIONS, System.getProperty(PasswordHasher.ITERATIONS, "1000"));
+
+        Facade facade = new Facade();
+        facade.zerarSistema();
+        String[] sessions = new String[userCount];
+        for (int i = 0; i < userCount; i++) {
+            facade.criarUsuario(login(i), "senha", "Usuario " + i);
+            sessions[i] = facade.abrirSessao(login(i), "senha");
+        }
+        // Quem sera removido nao cria comunidades, ja que remover um usuario apaga as dele
+        for (int c = 0; c < communityCount; c++) {
+            facade.criarComunidade(sessions[owner(c, userCount)], community(c), "Comunidade " + c);
+        }
+
+        int[] doomed = new int[userCount / REMOVED_EVERY];
+        for (int k = 0; k < doomed.length; k++) {
+            doomed[k] = k * REMOVED_EVERY + 1;
+        }
+        boolean[] removed = new boolean[userCount];
+        AtomicInteger nextRemoval = new AtomicInteger();
+        double removalChance = (double) doomed.length / ((long) threads * operations);
+
+        System.out.printf("Usuarios: %d, %d comunidades, %d operacoes por thread, %d threads, %d processadores%n",
+                userCount, communityCount, operations, threads, Runtime.getRuntime().availableProcessors());
+
+        Worker[] workers = new Worker[threads];
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (int t = 0; t < threads; t++) {
+            Worker worker = new Worker(operations);
+            workers[t] = worker;
+            int index = t;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    run(facade, sessions, communityCount, doomed, removed, nextRemoval, removalChance,
+                            operations, index, worker);
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    done.countDown();
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long nanos = System.nanoTime() - begin;
+        if (failure.get() != null) {
+            System.err.println("Falha inesperada em uma thread:");
+            failure.get().printStackTrace();
+            System.exit(1);
+        }
+
+        report(workers, nanos);
+
+        List<String> violations = new ArrayList<>();
+        check(facade, userCount, communityCount, removed, workers, violations);
+        facade.zerarSistema();
+
+        System.out.printf("Violacoes: %d%n", violations.size());
+        for (int i = 0; i < Math.min(MAX_REPORTED, violations.size()); i++) {
+            System.out.println("  " + violations.get(i));
+        }
+        if (!violations.isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    private static void run(Facade facade, String[] sessions, int communityCount, int[] doomed,
+                            boolean[] removed, AtomicInteger nextRemoval, double removalChance,
+                            int operations, int index, Worker worker) {
+        SplittableRandom random = new SplittableRandom(index);
+        int userCount = sessions.length;
+        for (int seq = 0; seq < operations; seq++) {
+            int a = random.nextInt(userCount);
+            int b = random.nextInt(userCount);
+            int operation;
+            if (random.nextDouble() < removalChance) {
+                operation = REMOVE;
+            } else {
+                int roll = random.nextInt(100);
+                operation = roll < 30 ? FRIEND : roll < 50 ? IDOL : roll < 85 ? MESSAGE : JOIN;
+            }
+
+            try {
+                switch (operation) {
+                    case FRIEND:
+                        facade.adicionarAmigo(sessions[a], login(b));
+                        break;
+                    case IDOL:
+                        facade.adicionarIdolo(sessions[a], login(b));
+                        worker.idols.add(new int[]{a, b});
+                        break;
+                    case MESSAGE:
+                        facade.enviarRecado(sessions[a], login(b), index + ":" + seq);
+                        worker.senders[seq] = a;
+                        worker.recipients[seq] = b;
+                        worker.sent[seq] = true;
+                        break;
+                    case JOIN:
+                        facade.adicionarComunidade(sessions[a], community(random.nextInt(communityCount)));
+                        break;
+                    default:
+                        int k = nextRemoval.getAndIncrement();
+                        if (k >= doomed.length) {
+                            worker.rejected[REMOVE]++;
+                            continue;
+                        }
+                        facade.removerUsuario(sessions[doomed[k]]);
+                        // Lido so depois do fim das threads, que o publica
+                        removed[doomed[k]] = true;
+                        break;
+                }
+                worker.accepted[operation]++;
+            } catch (RuntimeException e) {
+                worker.rejected[operation]++;
+            }
+        }
+    }
+
+    private static void report(Worker[] workers, long nanos) {
+        double millis = nanos / 1_000_000.0;
+        System.out.printf("%-12s %12s %12s %12s%n", "operacao", "aceitas", "recusadas", "ops/s");
+        long total = 0;
+        for (int op = 0; op < OPERATIONS.length; op++) {
+            long accepted = 0;
+            long rejected = 0;
+            for (Worker worker : workers) {
+                accepted += worker.accepted[op];
+                rejected += worker.rejected[op];
+            }
+            total += accepted + rejected;
+            System.out.printf("%-12s %12d %12d %12.0f%n", OPERATIONS[op], accepted, rejected,
+                    (accepted + rejected) * 1_000 / millis);
+        }
+        System.out.printf("%-12s %12s %12s %12.0f  (%.1f ms)%n", "total", "", "", total * 1_000 / millis, millis);
+    }
+
+    private static void check(Facade facade, int userCount, int communityCount, boolean[] removed,
+                              Worker[] workers, List<String> violations) {
+        // Amizades simetricas e so entre usuarios existentes
+        for (int u = 0; u < userCount; u++) {
+            if (removed[u]) {
+                continue;
+            }
+            for (String friend : parse(facade.getAmigos(login(u)))) {
+                int f = index(friend);
+                if (f < 0 || removed[f]) {
+                    violations.add(login(u) + " ainda e amigo do usuario removido " + friend);
+                } else if (!parse(facade.getAmigos(friend)).contains(login(u))) {
+                    violations.add("amizade assimetrica: " + login(u) + " -> " + friend);
+                }
+            }
+            for (String fan : parse(facade.getFas(login(u)))) {
+                int f = index(fan);
+                if (f < 0 || removed[f]) {
+                    violations.add(login(u) + " ainda tem o fa removido " + fan);
+                } else if (!facade.ehFa(fan, login(u))) {
+                    violations.add(fan + " e fa de " + login(u) + " sem te-lo como idolo");
+                }
+            }
+        }
+
+        // Todo idolo aceito entre sobreviventes e visto dos dois lados
+        for (Worker worker : workers) {
+            for (int[] idol : worker.idols) {
+                if (removed[idol[0]] || removed[idol[1]]) {
+                    continue;
+                }
+                if (!facade.ehFa(login(idol[0]), login(idol[1]))
+                        || !parse(facade.getFas(login(idol[1]))).contains(login(idol[0]))) {
+                    violations.add("idolo aceito perdido: " + login(idol[0]) + " -> " + login(idol[1]));
+                }
+            }
+        }
+
+        // Membros de cada comunidade batem com as comunidades de cada usuario
+        Set<String> memberships = new HashSet<>();
+        for (int c = 0; c < communityCount; c++) {
+            String members;
+            try {
+                members = facade.getMembrosComunidade(community(c));
+            } catch (RuntimeException e) {
+                continue; // Apagada junto com um membro removido
+            }
+            for (String member : parse(members)) {
+                int m = index(member);
+                if (m < 0 || removed[m]) {
+                    violations.add(community(c) + " ainda tem o membro removido " + member);
+                } else {
+                    memberships.add(member + "@" + community(c));
+                }
+            }
+        }
+        for (int u = 0; u < userCount; u++) {
+            if (removed[u]) {
+                continue;
+            }
+            for (String joined : parse(facade.getComunidades(login(u)))) {
+                if (!memberships.remove(login(u) + "@" + joined)) {
+                    violations.add(login(u) + " lista " + joined + " sem ser membro");
+                }
+            }
+        }
+        for (String membership : memberships) {
+            violations.add("membro sem a comunidade na lista: " + membership);
+        }
+
+        checkMessages(facade, userCount, removed, workers, violations);
+    }
+
+    /**
+     * Reads every inbox to the end: each recado must be read exactly once, in the
+     * order its thread sent it, unless its sender or recipient was removed.
+     */
+    private static void checkMessages(Facade facade, int userCount, boolean[] removed,
+                                      Worker[] workers, List<String> violations) {
+        boolean[][] read = new boolean[workers.length][];
+        for (int t = 0; t < workers.length; t++) {
+            read[t] = new boolean[workers[t].sent.length];
+        }
+        for (int u = 0; u < userCount; u++) {
+            if (removed[u]) {
+                continue;
+            }
+            String session = facade.abrirSessao(login(u), "senha");
+            int[] lastSeq = new int[workers.length];
+            Arrays.fill(lastSeq, -1);
+            while (true) {
+                String message;
+                try {
+                    message = facade.lerRecado(session);
+                } catch (RuntimeException e) {
+                    break; // Caixa vazia
+                }
+                int colon = message.indexOf(':');
+                int t = Integer.parseInt(message.substring(0, colon));
+                int seq = Integer.parseInt(message.substring(colon + 1));
+                Worker worker = workers[t];
+                if (!worker.sent[seq] || worker.recipients[seq] != u) {
+                    violations.add(login(u) + " leu um recado nunca aceito: " + message);
+                } else if (read[t][seq]) {
+                    violations.add(login(u) + " leu o recado " + message + " duas vezes");
+                } else if (removed[worker.senders[seq]]) {
+                    violations.add(login(u) + " leu o recado " + message + " do usuario removido "
+                            + login(worker.senders[seq]));
+                } else if (seq < lastSeq[t]) {
+                    violations.add(login(u) + " leu o recado " + message + " fora de ordem");
+                }
+                read[t][seq] = true;
+                lastSeq[t] = Math.max(lastSeq[t], seq);
+            }
+        }
+        for (int t = 0; t < workers.length; t++) {
+            Worker worker = workers[t];
+            for (int seq = 0; seq < worker.sent.length; seq++) {
+                if (worker.sent[seq] && !read[t][seq]
+                        && !removed[worker.senders[seq]] && !removed[worker.recipients[seq]]) {
+                    violations.add("recado perdido: " + t + ":" + seq + " para " + login(worker.recipients[seq]));
+                }
+            }
+        }
+    }
+
+    private static List<String> parse(String list) {
+        String content = list.substring(1, list.length() - 1);
+        return content.isEmpty() ? List.of() : Arrays.asList(content.split(","));
+    }
+
+    private static int index(String login) {
+        return login.startsWith("user") ? Integer.parseInt(login.substring(4)) : -1;
+    }
+
+    private static int owner(int community, int userCount) {
+        // Usuarios de indice multiplo de REMOVED_EVERY nunca sao removidos
+        int owners = Math.max(1, userCount / REMOVED_EVERY);
+        return community % owners * REMOVED_EVERY;
+    }
+
+    static String login(int index) {
+        return "user" + index;
+    }
+
+    static String community(int index) {
+        return "com" + index;
+    }
+}
@@ -0,0 +1,280 @@
+package br.ufal.ic.p2.jackut.concurrency;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serial;
+import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Unbounded inbox with many senders and one reader, without locks.
+ *
+ * <p>Messages are kept in linked array chunks. A sender claims a slot of the
+ * newest chunk with a single fetch-and-add and publishes its message there with
+ * a release write; when the chunk is full, the first sender to notice links a
+ * new, larger one. The reader takes the slots in order with another
+ * fetch-and-add, so neither side ever waits on a lock, and a burst of messages
+ * costs one small array per chunk instead of one node per message.</p>
+ *
+ * <p>A reader that reaches a slot claimed by a sender that has not written it
+ * yet marks it as taken and moves on; the sender then sees its write fail and
+ * claims another slot. The same rule keeps the inbox correct if two readers
+ * (e.g. two sessions of one user) poll at once: every message is returned once.</p>
+ *
+ * <p>{@link #size()} and the iterator are weakly consistent: exact when nobody
+ * sends or reads at the same time, as while a checkpoint holds the system lock.
+ * The iterator does not support removal.</p>
+ *
+ * @param <E> the type of the messages
+ */
+public final class MpscInbox<E> extends AbstractQueue<E> implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private static final int FIRST_CHUNK = 4;
+    private static final int MAX_CHUNK = 1024;
+
+    // Marca um slot ja consumido (ou abandonado pelo leitor antes da escrita)
+    private static final Object TAKEN = new Object();
+
+    private static final VarHandle SLOT = MethodHandles.arrayElementVarHandle(Object[].class);
+    private static final VarHandle SENT;
+    private static final VarHandle READ;
+    private static final VarHandle NEXT;
+    private static final VarHandle HEAD;
+    private static final VarHandle TAIL;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            SENT = lookup.findVarHandle(Chunk.class, "sent", int.class);
+            READ = lookup.findVarHandle(Chunk.class, "read", int.class);
+            NEXT = lookup.findVarHandle(Chunk.class, "next", Chunk.class);
+            HEAD = lookup.findVarHandle(MpscInbox.class, "head", Chunk.class);
+            TAIL = lookup.findVarHandle(MpscInbox.class, "tail", Chunk.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final class Chunk {
+        final Object[] slots;
+        // Slots reservados por remetentes e pelo leitor; podem passar do tamanho
+        volatile int sent;
+        volatile int read;
+        volatile Chunk next;
+
+        Chunk(int capacity) {
+            this.slots = new Object[capacity];
+        }
+
+        Chunk(int capacity, Object first) {
+            this(capacity);
+            slots[0] = first;
+            sent = 1;
+        }
+
+        int nextCapacity() {
+            return Math.min(slots.length * 2, MAX_CHUNK);
+        }
+    }
+
+    private transient volatile Chunk head;
+    private transient volatile Chunk tail;
+
+    /**
+     * Creates an empty inbox.
+     */
+    public MpscInbox() {
+        init();
+    }
+
+    /**
+     * Creates an inbox with the messages of a collection, in iteration order.
+     *
+     * @param messages the initial messages
+     */
+    public MpscInbox(Collection<? extends E> messages) {
+        this();
+        addAll(messages);
+    }
+
+    private void init() {
+        Chunk first = new Chunk(FIRST_CHUNK);
+        head = first;
+        tail = first;
+    }
+
+    /**
+     * Adds a message at the end of the inbox. Safe to call from any thread.
+     *
+     * @param message the message
+     * @return always true
+     * @throws NullPointerException if the message is null
+     */
+    @Override
+    public boolean offer(E message) {
+        if (message == null) {
+            throw new NullPointerException();
+        }
+        while (true) {
+            Chunk last = tail;
+            int index = (int) SENT.getAndAdd(last, 1);
+            if (index < last.slots.length) {
+                if (SLOT.compareAndSet(last.slots, index, null, message)) {
+                    return true;
+                }
+                continue; // O leitor desistiu deste slot; reserva outro
+            }
+
+            // Bloco cheio: o primeiro a ligar um bloco novo ja entrega a mensagem nele
+            Chunk next = last.next;
+            if (next == null) {
+                Chunk created = new Chunk(last.nextCapacity(), message);
+                if (NEXT.compareAndSet(last, null, created)) {
+                    TAIL.compareAndSet(this, last, created);
+                    return true;
+                }
+            } else {
+                TAIL.compareAndSet(this, last, next);
+            }
+        }
+    }
+
+    /**
+     * Takes the oldest message, without blocking.
+     *
+     * @return the oldest message, or null if the inbox is empty
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        while (true) {
+            Chunk first = head;
+            if (first.read >= first.sent && first.next == null) {
+                return null;
+            }
+            int index = (int) READ.getAndAdd(first, 1);
+            if (index >= first.slots.length) {
+                Chunk next = first.next;
+                if (next == null) {
+                    return null;
+                }
+                HEAD.compareAndSet(this, first, next);
+                continue;
+            }
+            Object message = SLOT.getAndSet(first.slots, index, TAKEN);
+            if (message != null) {
+                return (E) message;
+            }
+        }
+    }
+
+    /**
+     * Gets the oldest message without taking it.
+     *
+     * @return the oldest message, or null if the inbox is empty
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        for (Chunk chunk = head; chunk != null; chunk = chunk.next) {
+            int end = Math.min(chunk.sent, chunk.slots.length);
+            for (int i = Math.min(chunk.read, end); i < end; i++) {
+                Object message = SLOT.getAcquire(chunk.slots, i);
+                if (message != null && message != TAKEN) {
+                    return (E) message;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return peek() == null;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Chunk chunk = head; chunk != null; chunk = chunk.next) {
+            int end = Math.min(chunk.sent, chunk.slots.length);
+            for (int i = Math.min(chunk.read, end); i < end; i++) {
+                Object message = SLOT.getAcquire(chunk.slots, i);
+                if (message != null && message != TAKEN) {
+                    size++;
+                }
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<>() {
+            private Chunk chunk = head;
+            private int index = Math.min(chunk.read, chunk.slots.length);
+            private E next = advance();
+
+            @SuppressWarnings("unchecked")
+            private E advance() {
+                while (chunk != null) {
+                    int end = Math.min(chunk.sent, chunk.slots.length);
+                    while (index < end) {
+                        Object message = SLOT.getAcquire(chunk.slots, index++);
+                        if (message != null && message != TAKEN) {
+                            return (E) message;
+                        }
+                    }
+                    chunk = chunk.next;
+                    index = 0;
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public E next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                E current = next;
+                next = advance();
+                return current;
+            }
+        };
+    }
+
+    @Serial
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        Object[] messages = toArray();
+        out.writeInt(messages.length);
+        for (Object message : messages) {
+            out.writeObject(message);
+        }
+    }
+
+    @Serial
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        init();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            offer((E) in.readObject());
+        }
+    }
+}
@@ -0,0 +1,399 @@
+package br.ufal.ic.p2.jackut.concurrency;
+
+import br.ufal.ic.p2.jackut.config.JackutConfig;
+import br.ufal.ic.p2.jackut.models.User;
+
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Locks that let the Facade be shared by many request threads.
+ *
+ * <p>Every user and community is guarded by one of a fixed number of lock
+ * stripes, chosen by the hash of its login or name, so operations on
+ * independent users run in parallel while operations on the same user are
+ * serialized. Above the stripes there is a system-wide read/write lock: keyed
+ * operations hold it in shared mode, and operations that touch arbitrary users
+ * (loading, checkpoints, removing a user, renaming a login) hold it in exclusive
+ * mode, which waits for every keyed operation to finish.</p>
+ *
+ * <p>Operations on a few users at once (a friend request, a new idol, joining a
+ * community) lock all of their stripes with {@link #lock(String...)} or
+ * {@link #lockUsers(User, String...)}. The stripes are always taken in ascending
+ * index order and each one only once, so two such operations can never wait on
+ * each other in a cycle, whatever order their keys are given in.</p>
+ *
+ * <p>Recados and community messages are delivered through lock-free inboxes,
+ * so sending and reading them only needs {@link #lockShared()}.</p>
+ *
+ * <p>Short read-only checks can run without locking through {@link #read(String, Supplier)}
+ * and {@link #readUser(User, Supplier)}, in the style of {@code StampedLock}
+ * optimistic reads. Each stripe, and the system lock, has a version that is odd
+ * while it is held and is advanced again on release; a read records the versions,
+ * runs, and is only accepted if nothing took the locks in between. Otherwise it
+ * is run again under the locks.</p>
+ *
+ * <p>Every {@link Held} section is also a {@link Versions} write section: the
+ * users and communities changed under it are published as a new snapshot version
+ * just before the locks are released.</p>
+ *
+ * <p>Locks are held through {@link Held} handles, meant for try-with-resources:</p>
+ * <pre>
+ * try (StripedLocks.Held ignored = locks.lockUser(user)) {
+ *     ...
+ * }
+ * </pre>
+ * <p>The handle is never referenced inside the block, so classes using this idiom
+ * are annotated with {@code @SuppressWarnings("try")}.</p>
+ */
+@SuppressWarnings("try")
+public final class StripedLocks {
+
+    /** Number of lock stripes (rounded up to a power of two). */
+    public static final String STRIPES = "jackut.concurrency.stripes";
+
+    /** Enables lock-free optimistic reads; when false every read takes the locks. */
+    public static final String OPTIMISTIC_READS = "jackut.concurrency.optimisticReads";
+
+    private static final Object RETRY = new Object();
+
+    private final ReentrantReadWriteLock system = new ReentrantReadWriteLock();
+    private final ReentrantLock[] stripes;
+    private final AtomicLong systemVersion = new AtomicLong();
+    private final AtomicLongArray versions;
+    private final int mask;
+    private final boolean optimisticReads;
+
+    /**
+     * Creates the locks with the configured number of stripes.
+     */
+    public StripedLocks() {
+        this(JackutConfig.getInt(STRIPES, 64));
+    }
+
+    /**
+     * Creates the locks with an explicit number of stripes.
+     *
+     * @param stripeCount the minimum number of stripes
+     */
+    public StripedLocks(int stripeCount) {
+        this(stripeCount, JackutConfig.getBoolean(OPTIMISTIC_READS, true));
+    }
+
+    /**
+     * Creates the locks with an explicit number of stripes and read mode.
+     *
+     * @param stripeCount the minimum number of stripes
+     * @param optimisticReads false to run every read under the locks
+     */
+    public StripedLocks(int stripeCount, boolean optimisticReads) {
+        int size = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.versions = new AtomicLongArray(size);
+        this.mask = size - 1;
+        this.optimisticReads = optimisticReads;
+    }
+
+    /**
+     * Locks the stripe of a login or community name.
+     *
+     * @param key the login or community name
+     * @return the held locks
+     */
+    public Held lock(String key) {
+        system.readLock().lock();
+        try {
+            return locked(index(key));
+        } catch (RuntimeException | Error e) {
+            system.readLock().unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Locks the stripes of several logins or community names, in a global order.
+     *
+     * @param keys the logins or community names; duplicates are allowed
+     * @return the held locks
+     */
+    public Held lock(String... keys) {
+        system.readLock().lock();
+        try {
+            return lockedInOrder(keys);
+        } catch (RuntimeException | Error e) {
+            system.readLock().unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Locks the stripe of a user. The login is read once the system lock is held,
+     * so a concurrent rename cannot make the caller lock the wrong stripe.
+     *
+     * @param user the user
+     * @return the held locks
+     */
+    public Held lockUser(User user) {
+        system.readLock().lock();
+        try {
+            return locked(index(user.getLogin()));
+        } catch (RuntimeException | Error e) {
+            system.readLock().unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Locks the stripes of a user and of other logins or community names, in a
+     * global order. As in {@link #lockUser(User)}, the login is read under the system lock.
+     *
+     * @param user the user
+     * @param others the other logins or community names
+     * @return the held locks
+     */
+    public Held lockUsers(User user, String... others) {
+        system.readLock().lock();
+        try {
+            String[] keys = new String[others.length + 1];
+            keys[0] = user.getLogin();
+            System.arraycopy(others, 0, keys, 1, others.length);
+            return lockedInOrder(keys);
+        } catch (RuntimeException | Error e) {
+            system.readLock().unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Holds the system lock in shared mode only, without any stripe. Meant for
+     * operations that only touch lock-free structures, such as the inboxes of
+     * recados, but must still not overlap a checkpoint or a user removal.
+     *
+     * @return the held lock
+     */
+    public Held lockShared() {
+        system.readLock().lock();
+        try {
+            return new Held(new int[0], false);
+        } catch (RuntimeException | Error e) {
+            system.readLock().unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Locks the whole system, waiting for every keyed operation to finish.
+     *
+     * @return the held lock
+     */
+    public Held lockAll() {
+        system.writeLock().lock();
+        if (system.getWriteHoldCount() == 1) {
+            systemVersion.incrementAndGet();
+        }
+        return new Held(new int[0], true);
+    }
+
+    /**
+     * Runs a read-only check on the data guarded by the stripe of a login or
+     * community name, first without locking. The reader may then run concurrently
+     * with a writer, so it must only read and must tolerate inconsistent data:
+     * a run overlapped by a writer is discarded, along with any exception it
+     * threw, and the check is run again under the locks.
+     *
+     * @param key the login or community name
+     * @param reader the check
+     * @param <T> the type of the result
+     * @return the result of a run not overlapped by any writer
+     */
+    public <T> T read(String key, Supplier<T> reader) {
+        if (optimisticReads) {
+            Object result = tryOptimistic(key, null, reader);
+            if (result != RETRY) {
+                return cast(result);
+            }
+        }
+        try (Held ignored = lock(key)) {
+            return reader.get();
+        }
+    }
+
+    /**
+     * Runs a read-only check on the data of a user, first without locking.
+     * See {@link #read(String, Supplier)}.
+     *
+     * @param user the user
+     * @param reader the check
+     * @param <T> the type of the result
+     * @return the result of a run not overlapped by any writer
+     */
+    public <T> T readUser(User user, Supplier<T> reader) {
+        if (optimisticReads) {
+            Object result = tryOptimistic(null, user, reader);
+            if (result != RETRY) {
+                return cast(result);
+            }
+        }
+        try (Held ignored = lockUser(user)) {
+            return reader.get();
+        }
+    }
+
+    /**
+     * Gets the exclusive system lock, e.g. to capture a consistent checkpoint.
+     * Holding it through this view does not invalidate optimistic reads, so it
+     * must not be used to change users or communities.
+     *
+     * @return the exclusive lock
+     */
+    public Lock exclusiveLock() {
+        return system.writeLock();
+    }
+
+    /**
+     * Gets the number of stripes.
+     *
+     * @return the stripe count
+     */
+    public int stripeCount() {
+        return stripes.length;
+    }
+
+    private Object tryOptimistic(String key, User user, Supplier<?> reader) {
+        long systemStamp = systemVersion.get();
+        if ((systemStamp & 1) != 0) {
+            return RETRY;
+        }
+        // Sem locks, o login lido so vale se nenhuma troca de login comecar depois daqui
+        int index = index(user == null ? key : user.getLogin());
+        long stamp = versions.get(index);
+        if ((stamp & 1) != 0) {
+            return RETRY;
+        }
+
+        Object result;
+        RuntimeException failure = null;
+        try {
+            result = reader.get();
+        } catch (RuntimeException e) {
+            result = null;
+            failure = e;
+        }
+
+        // Impede que as leituras acima sejam reordenadas depois da validacao
+        VarHandle.acquireFence();
+        if (versions.get(index) != stamp || systemVersion.get() != systemStamp) {
+            return RETRY;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T cast(Object result) {
+        return (T) result;
+    }
+
+    private Held locked(int index) {
+        stripes[index].lock();
+        enter(index);
+        return new Held(new int[]{index}, false);
+    }
+
+    private Held lockedInOrder(String[] keys) {
+        int[] indexes = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            indexes[i] = index(keys[i]);
+        }
+        Arrays.sort(indexes);
+
+        // Ordem crescente de indice e sem repeticoes: nunca ha espera circular
+        int[] held = new int[indexes.length];
+        int count = 0;
+        try {
+            for (int i = 0; i < indexes.length; i++) {
+                if (i > 0 && indexes[i] == indexes[i - 1]) {
+                    continue;
+                }
+                stripes[indexes[i]].lock();
+                enter(indexes[i]);
+                held[count++] = indexes[i];
+            }
+        } catch (RuntimeException | Error e) {
+            unlock(held, count);
+            throw e;
+        }
+        return new Held(Arrays.copyOf(held, count), false);
+    }
+
+    private int index(String key) {
+        int hash = key == null ? 0 : key.hashCode();
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * Makes the version of a stripe odd once it is locked for the first time.
+     */
+    private void enter(int index) {
+        if (stripes[index].getHoldCount() == 1) {
+            versions.incrementAndGet(index);
+        }
+    }
+
+    private void unlock(int[] indexes, int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            ReentrantLock stripe = stripes[indexes[i]];
+            if (stripe.getHoldCount() == 1) {
+                versions.incrementAndGet(indexes[i]);
+            }
+            stripe.unlock();
+        }
+    }
+
+    /**
+     * Locks held by an operation; closing the handle releases them.
+     */
+    public final class Held implements AutoCloseable {
+        private final int[] indexes;
+        private final boolean exclusive;
+
+        private Held(int[] indexes, boolean exclusive) {
+            this.indexes = indexes;
+            this.exclusive = exclusive;
+            Versions.enter();
+        }
+
+        @Override
+        public void close() {
+            try {
+                // Publica as alteracoes enquanto os locks ainda estao seguros
+                Versions.exit();
+            } finally {
+                release();
+            }
+        }
+
+        private void release() {
+            unlock(indexes, indexes.length);
+            if (!exclusive) {
+                system.readLock().unlock();
+                return;
+            }
+            if (system.getWriteHoldCount() == 1) {
+                systemVersion.incrementAndGet();
+            }
+            system.writeLock().unlock();
+        }
+    }
+}
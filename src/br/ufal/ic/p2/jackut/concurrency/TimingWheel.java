@@ -0,0 +1,225 @@
+package br.ufal.ic.p2.jackut.concurrency;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hierarchical timing wheel: schedules timers by tick and hands back the ones
+ * that are due, at O(1) cost per timer whatever their number.
+ *
+ * <p>There are {@value #LEVELS} wheels of {@value #SLOTS} slots. The first holds the
+ * timers due in the next {@value #SLOTS} ticks, one slot per tick; each next wheel
+ * covers {@value #SLOTS} times the range of the previous one with slots as wide as
+ * that whole range. A slot of a coarse wheel is emptied into the finer ones when
+ * the time reaches it, so each timer is moved at most once per level before it
+ * fires. Timers farther than the last wheel wait in its farthest slot and are
+ * placed again each time it comes around.</p>
+ *
+ * <p>Scheduling, cancelling and advancing are O(1) per timer (advancing also
+ * visits one slot per elapsed tick). They run under one lock; {@link #tryAdvance(long)}
+ * lets callers advance the wheel from a hot path without ever waiting on it.</p>
+ */
+public final class TimingWheel {
+
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long RANGE = 1L << (BITS * LEVELS);
+
+    /**
+     * An entry of the wheel. A timer is in at most one slot at a time.
+     */
+    public static class Timer {
+        private long deadline;
+        private Timer prev;
+        private Timer next;
+
+        /**
+         * Gets the tick the timer was last scheduled for.
+         *
+         * @return the deadline tick
+         */
+        public final long deadline() {
+            return deadline;
+        }
+
+        private boolean scheduled() {
+            return prev != null;
+        }
+    }
+
+    // Cada slot e uma lista circular com um no sentinela
+    private final Timer[][] wheels = new Timer[LEVELS][SLOTS];
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile long current;
+
+    /**
+     * Creates an empty wheel.
+     *
+     * @param now the current tick
+     */
+    public TimingWheel(long now) {
+        for (Timer[] wheel : wheels) {
+            for (int i = 0; i < SLOTS; i++) {
+                Timer head = new Timer();
+                head.prev = head;
+                head.next = head;
+                wheel[i] = head;
+            }
+        }
+        this.current = now;
+    }
+
+    /**
+     * Gets the tick the wheel was last advanced to.
+     *
+     * @return the current tick
+     */
+    public long currentTick() {
+        return current;
+    }
+
+    /**
+     * Schedules a timer, moving it if it was already scheduled.
+     * A deadline that is not after the current tick fires on the next advance.
+     *
+     * @param timer the timer
+     * @param deadline the tick the timer is due
+     */
+    public void schedule(Timer timer, long deadline) {
+        lock.lock();
+        try {
+            if (timer.scheduled()) {
+                unlink(timer);
+            }
+            timer.deadline = deadline;
+            place(timer, Math.max(deadline, current + 1));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes a timer from the wheel, if it is scheduled.
+     *
+     * @param timer the timer
+     */
+    public void cancel(Timer timer) {
+        lock.lock();
+        try {
+            if (timer.scheduled()) {
+                unlink(timer);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Advances the wheel to a tick.
+     *
+     * @param now the current tick; ticks before the wheel's are ignored
+     * @return the timers that became due, already removed from the wheel
+     */
+    public List<Timer> advance(long now) {
+        lock.lock();
+        try {
+            return advanceLocked(now);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Advances the wheel to a tick unless another thread is using it.
+     *
+     * @param now the current tick
+     * @return the timers that became due, or an empty list if the wheel was busy
+     */
+    public List<Timer> tryAdvance(long now) {
+        if (now <= current || !lock.tryLock()) {
+            return List.of();
+        }
+        try {
+            return advanceLocked(now);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes every timer.
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            for (Timer[] wheel : wheels) {
+                for (Timer head : wheel) {
+                    while (head.next != head) {
+                        unlink(head.next);
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<Timer> advanceLocked(long now) {
+        List<Timer> due = new ArrayList<>();
+        while (current < now) {
+            long tick = current + 1;
+            current = tick;
+            // Nas viradas de cada roda, o slot da roda de cima desce para as de baixo
+            for (int level = 1; level < LEVELS && (tick & ((1L << (BITS * level)) - 1)) == 0; level++) {
+                Timer head = wheels[level][(int) (tick >>> (BITS * level)) & MASK];
+                while (head.next != head) {
+                    Timer timer = head.next;
+                    unlink(timer);
+                    if (timer.deadline <= tick) {
+                        due.add(timer);
+                    } else {
+                        place(timer, timer.deadline);
+                    }
+                }
+            }
+            Timer head = wheels[0][(int) tick & MASK];
+            while (head.next != head) {
+                Timer timer = head.next;
+                unlink(timer);
+                due.add(timer);
+            }
+        }
+        return due;
+    }
+
+    /**
+     * Puts a timer in the slot of a tick after the current one.
+     */
+    private void place(Timer timer, long tick) {
+        long delta = tick - current;
+        if (delta >= RANGE) {
+            // Alem da ultima roda: espera no slot mais distante dela
+            tick = current + RANGE - 1;
+            delta = RANGE - 1;
+        }
+        int level = 0;
+        while (delta >= 1L << (BITS * (level + 1))) {
+            level++;
+        }
+        Timer head = wheels[level][(int) (tick >>> (BITS * level)) & MASK];
+        timer.prev = head.prev;
+        timer.next = head;
+        head.prev.next = timer;
+        head.prev = timer;
+    }
+
+    private static void unlink(Timer timer) {
+        timer.prev.next = timer.next;
+        timer.next.prev = timer.prev;
+        timer.prev = null;
+        timer.next = null;
+    }
+}
@@ -0,0 +1,103 @@
+package br.ufal.ic.p2.jackut.concurrency;
+
+/**
+ * Committed versions of one user or community, newest first.
+ *
+ * <p>Each version is an immutable view tagged with the commit that produced it;
+ * a {@code null} view marks the object as removed from that commit on. Versions
+ * are only added by {@link Versions} while committing, and readers walk the
+ * chain without locking.</p>
+ *
+ * @param <V> the type of the immutable views
+ */
+public final class VersionChain<V> {
+
+    private static final class Node<V> {
+        final long version;
+        final V view;
+        volatile Node<V> older;
+
+        Node(long version, V view, Node<V> older) {
+            this.version = version;
+            this.view = view;
+            this.older = older;
+        }
+    }
+
+    private final Versions owner;
+    private volatile Node<V> head;
+
+    /**
+     * Creates an empty chain.
+     *
+     * @param owner the versions whose commits publish to this chain
+     */
+    public VersionChain(Versions owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * Gets the versions whose commits publish to this chain.
+     *
+     * @return the owner
+     */
+    public Versions owner() {
+        return owner;
+    }
+
+    /**
+     * Gets the view visible at a read timestamp.
+     *
+     * @param timestamp the read timestamp
+     * @return the newest view committed at or before the timestamp, or null if the
+     *         object did not exist or was removed at that point
+     */
+    public V at(long timestamp) {
+        for (Node<V> node = head; node != null; node = node.older) {
+            if (node.version <= timestamp) {
+                return node.view;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the version of the newest view.
+     *
+     * @return the newest committed version, or -1 if nothing was committed yet
+     */
+    public long newestVersion() {
+        Node<V> node = head;
+        return node == null ? -1 : node.version;
+    }
+
+    /**
+     * Gets the newest view.
+     *
+     * @return the newest committed view, or null
+     */
+    public V newest() {
+        Node<V> node = head;
+        return node == null ? null : node.view;
+    }
+
+    /**
+     * Adds a version and drops the ones no reader can see anymore.
+     * Must only be called from {@link Versioned#publish(long, long)} while {@link Versions} commits.
+     *
+     * @param version the commit version
+     * @param view the immutable view, or null if the object was removed
+     * @param oldest the oldest read timestamp still in use
+     */
+    public void publish(long version, V view, long oldest) {
+        Node<V> node = new Node<>(version, view, head);
+        head = node;
+        // A versao mais nova visivel para o leitor mais antigo encerra a cadeia
+        for (; node != null; node = node.older) {
+            if (node.version <= oldest) {
+                node.older = null;
+                return;
+            }
+        }
+    }
+}
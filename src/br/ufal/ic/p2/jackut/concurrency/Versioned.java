@@ -0,0 +1,40 @@
+package br.ufal.ic.p2.jackut.concurrency;
+
+/**
+ * An object whose committed states are kept as immutable versions for
+ * snapshot reads (see {@link Versions}).
+ */
+public interface Versioned {
+
+    /**
+     * Gets the versions the object is published in.
+     *
+     * @return the owner of its version chain, or null if it has none yet
+     */
+    Versions owner();
+
+    /**
+     * Gets the newest published version.
+     *
+     * @return the version, or -1 if none was published
+     */
+    long newestVersion();
+
+    /**
+     * Starts the version chain of an object that was just added to a repository,
+     * so that readers do not see it before its first commit. Does nothing if the
+     * object already has one.
+     *
+     * @param owner the versions the object is published in
+     */
+    void startVersions(Versions owner);
+
+    /**
+     * Publishes the current state as a new immutable version.
+     * The version chain must have been started.
+     *
+     * @param version the commit version
+     * @param oldest the oldest read timestamp still in use
+     */
+    void publish(long version, long oldest);
+}
@@ -0,0 +1,242 @@
+package br.ufal.ic.p2.jackut.concurrency;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Multi-version snapshots of users and communities.
+ *
+ * <p>Writers change the live objects while holding their {@link StripedLocks};
+ * every object they change is recorded with {@link #touch(Versioned)} and, when
+ * the outermost lock is released, all of them are published together as immutable
+ * views tagged with a new commit version. Readers open a {@link Snapshot}, which
+ * pins the last commit, and read the views visible at it without taking any lock,
+ * so several reads see one consistent point in time even while writers publish
+ * newer versions. Old versions are dropped once no open snapshot can see them.</p>
+ *
+ * <p>Each instance has its own clock and set of open snapshots; a Facade shares
+ * one between its two repositories, and every object published in it remembers
+ * it (see {@link Versioned#owner()}). Commits take their version from an atomic
+ * counter and publish under the monitors of the objects they changed only, so
+ * writers on unrelated users publish in parallel. The last committed version only
+ * advances over versions that finished publishing, without gaps, so a snapshot
+ * never sees a version while an older one is still being published; a commit that
+ * finishes early leaves it to the older one to advance, and never waits.</p>
+ */
+public final class Versions {
+
+    private static final ThreadLocal<Section> SECTION = ThreadLocal.withInitial(Section::new);
+
+    private final Set<Snapshot> open = ConcurrentHashMap.newKeySet();
+    private final AtomicLong clock = new AtomicLong();
+    private final Set<Long> finished = new ConcurrentSkipListSet<>();
+    private volatile long committed;
+
+    /**
+     * The objects changed by the lock section running on a thread.
+     */
+    private static final class Section {
+        int depth;
+        final Set<Versioned> touched = new LinkedHashSet<>();
+    }
+
+    /**
+     * Pins the last committed version for reading. Must be closed after the reads.
+     */
+    public final class Snapshot implements AutoCloseable {
+        private volatile long timestamp = -1;
+
+        private Snapshot() {
+        }
+
+        /**
+         * Gets the read timestamp.
+         *
+         * @return the version this snapshot reads
+         */
+        public long timestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public void close() {
+            open.remove(this);
+        }
+    }
+
+    /**
+     * Opens a snapshot of the last committed version.
+     *
+     * @return the open snapshot
+     */
+    public Snapshot open() {
+        Snapshot snapshot = new Snapshot();
+        // Registra antes de ler o relogio: um commit concorrente ja preserva a versao lida
+        open.add(snapshot);
+        snapshot.timestamp = committed;
+        return snapshot;
+    }
+
+    /**
+     * Gets the last committed version.
+     *
+     * @return the commit version
+     */
+    public long committed() {
+        return committed;
+    }
+
+    /**
+     * Gets the oldest timestamp that an open snapshot may read.
+     *
+     * @return the oldest timestamp in use, or the last commit if no snapshot is open
+     */
+    public long oldestInUse() {
+        long now = committed;
+        long oldest = now;
+        for (Snapshot snapshot : open) {
+            long timestamp = snapshot.timestamp;
+            // Um snapshot ainda sem timestamp vai ler pelo menos a versao atual
+            oldest = Math.min(oldest, timestamp < 0 ? now : timestamp);
+        }
+        return oldest;
+    }
+
+    /**
+     * Records that an object was changed. Inside a lock section the object is
+     * published when the section ends; outside one (single-threaded setup, tests)
+     * an object that already has versions is published right away. Objects not
+     * yet added to a repository have no versions and are not recorded.
+     *
+     * @param object the changed object
+     */
+    public static void touch(Versioned object) {
+        Versions owner = object.owner();
+        if (owner == null) {
+            return;
+        }
+        Section section = SECTION.get();
+        if (section.depth > 0) {
+            section.touched.add(object);
+        } else {
+            owner.commit(Set.of(object));
+        }
+    }
+
+    /**
+     * Records that an object was added to a repository. Inside a lock section it
+     * becomes visible when the section commits; outside one it is published now,
+     * so that later sections never hide it while they change it.
+     *
+     * @param object the added object
+     */
+    public void attach(Versioned object) {
+        synchronized (object) {
+            object.startVersions(this);
+        }
+        Section section = SECTION.get();
+        if (section.depth > 0) {
+            section.touched.add(object);
+        } else {
+            commit(Set.of(object));
+        }
+    }
+
+    /**
+     * Publishes the state of an object that was loaded from disk as its base
+     * version, visible to every snapshot. Does nothing if a version was already
+     * published; changes recorded while it was decoded are still committed later.
+     *
+     * @param object the loaded object
+     */
+    public void publishLoaded(Versioned object) {
+        synchronized (object) {
+            if (object.newestVersion() < 0) {
+                object.startVersions(this);
+                object.publish(0, oldestInUse());
+            }
+        }
+    }
+
+    /**
+     * Marks the start of a lock section on the current thread.
+     */
+    static void enter() {
+        SECTION.get().depth++;
+    }
+
+    /**
+     * Marks the end of a lock section, committing its changes if it is the outermost one.
+     * Must be called while the section's locks are still held.
+     */
+    static void exit() {
+        Section section = SECTION.get();
+        if (--section.depth > 0 || section.touched.isEmpty()) {
+            return;
+        }
+        try {
+            commitTouched(section.touched);
+        } finally {
+            section.touched.clear();
+        }
+    }
+
+    /**
+     * Commits the objects of a section, each in the versions it belongs to.
+     * They normally all belong to the same one.
+     */
+    private static void commitTouched(Set<Versioned> objects) {
+        Versions first = objects.iterator().next().owner();
+        Map<Versions, List<Versioned>> byOwner = null;
+        for (Versioned object : objects) {
+            if (object.owner() != first) {
+                byOwner = new IdentityHashMap<>();
+                break;
+            }
+        }
+        if (byOwner == null) {
+            first.commit(objects);
+            return;
+        }
+        for (Versioned object : objects) {
+            byOwner.computeIfAbsent(object.owner(), owner -> new ArrayList<>()).add(object);
+        }
+        byOwner.forEach(Versions::commit);
+    }
+
+    private void commit(Collection<Versioned> objects) {
+        long version = clock.incrementAndGet();
+        try {
+            long oldest = oldestInUse();
+            for (Versioned object : objects) {
+                synchronized (object) {
+                    object.publish(version, oldest);
+                }
+            }
+        } finally {
+            finished.add(version);
+            advance();
+        }
+    }
+
+    /**
+     * Advances the last committed version over the versions that finished
+     * publishing right after it. Only the thread that takes the next version out
+     * of the finished set moves the clock, so it never goes back.
+     */
+    private void advance() {
+        long current = committed;
+        while (finished.remove(current + 1)) {
+            current++;
+            committed = current;
+        }
+    }
+}
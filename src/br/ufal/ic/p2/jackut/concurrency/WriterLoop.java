@@ -0,0 +1,235 @@
+package br.ufal.ic.p2.jackut.concurrency;
+
+import br.ufal.ic.p2.jackut.config.JackutConfig;
+import br.ufal.ic.p2.jackut.exceptions.SystemOperationException;
+
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Runs every mutation on one writer thread, fed by a bounded ring buffer.
+ *
+ * <p>Caller threads put their operation in the ring and wait for its result;
+ * the writer takes all queued operations at once and runs them one after the
+ * other, in the order they were submitted. Since only the writer changes the
+ * system, the stripe locks it takes are never contended by another mutation,
+ * and the order of the mutations is the order of the ring. After each batch the
+ * writer reports how many operations succeeded, so persistence triggers are
+ * checked once per batch instead of once per call. The callers of a batch are
+ * only released after it was reported, so a checkpoint requested by one of them
+ * (e.g. {@code encerrarSistema}) already counts their mutations.</p>
+ *
+ * <p>Reads are not submitted: they keep reading the published versions (see
+ * {@link Versions}) or the optimistic reads of {@link StripedLocks} on the
+ * caller's thread. When the ring is full, callers wait for free slots.</p>
+ */
+public final class WriterLoop {
+
+    /** Runs the Facade mutations on a single writer thread instead of the caller threads. */
+    public static final String ENABLED = "jackut.concurrency.singleWriter";
+
+    /** Number of slots of the ring (rounded up to a power of two). */
+    public static final String CAPACITY = "jackut.concurrency.writerQueue";
+
+    private final Task<?>[] ring;
+    private final int mask;
+    private final IntConsumer afterBatch;
+
+    // Posicoes de leitura e escrita no anel, guardadas pelo monitor
+    private long head;
+    private long tail;
+    private volatile Thread writer;
+
+    /**
+     * Creates a writer loop with the configured capacity.
+     *
+     * @param afterBatch called on the writer thread with the number of operations
+     *                   of each batch that completed without an exception
+     */
+    public WriterLoop(IntConsumer afterBatch) {
+        this(JackutConfig.getInt(CAPACITY, 1024), afterBatch);
+    }
+
+    /**
+     * Creates a writer loop with an explicit capacity.
+     *
+     * @param capacity the minimum number of slots of the ring
+     * @param afterBatch called on the writer thread with the number of operations
+     *                   of each batch that completed without an exception
+     */
+    public WriterLoop(int capacity, IntConsumer afterBatch) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.ring = new Task<?>[size];
+        this.mask = size - 1;
+        this.afterBatch = afterBatch;
+    }
+
+    /**
+     * Runs a mutation on the writer thread and waits for it.
+     *
+     * @param operation the mutation
+     * @throws RuntimeException the exception thrown by the operation
+     */
+    public void execute(Runnable operation) {
+        call(() -> {
+            operation.run();
+            return null;
+        });
+    }
+
+    /**
+     * Runs a mutation on the writer thread and waits for its result.
+     * Called from the writer thread itself, the operation simply runs.
+     *
+     * @param operation the mutation
+     * @param <T> the type of the result
+     * @return the result of the operation
+     * @throws RuntimeException the exception thrown by the operation
+     */
+    public <T> T call(Supplier<T> operation) {
+        if (Thread.currentThread() == writer) {
+            return operation.get();
+        }
+        Task<T> task = new Task<>(operation);
+        enqueue(task);
+        return task.await();
+    }
+
+    private synchronized void enqueue(Task<?> task) {
+        try {
+            while (tail - head == ring.length) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SystemOperationException(e);
+        }
+        ring[(int) (tail++ & mask)] = task;
+        startWriter();
+        notifyAll();
+    }
+
+    /**
+     * Moves every queued operation to the batch, waiting while the ring is empty.
+     *
+     * @return the number of operations taken
+     */
+    private synchronized int take(Task<?>[] batch) throws InterruptedException {
+        while (head == tail) {
+            wait();
+        }
+        int count = (int) (tail - head);
+        for (int i = 0; i < count; i++) {
+            int slot = (int) (head++ & mask);
+            batch[i] = ring[slot];
+            ring[slot] = null;
+        }
+        notifyAll();
+        return count;
+    }
+
+    private void startWriter() {
+        if (writer == null) {
+            Thread thread = new Thread(this::runWriter, "jackut-writer");
+            thread.setDaemon(true);
+            writer = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * Loop of the writer thread.
+     */
+    private void runWriter() {
+        Task<?>[] batch = new Task<?>[ring.length];
+        while (true) {
+            int count;
+            try {
+                count = take(batch);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            int succeeded = 0;
+            for (int i = 0; i < count; i++) {
+                if (batch[i].run()) {
+                    succeeded++;
+                }
+            }
+            if (succeeded > 0) {
+                try {
+                    afterBatch.accept(succeeded);
+                } catch (RuntimeException e) {
+                    System.err.println("Erro ao registrar o lote de alteracoes: " + e.getMessage());
+                }
+            }
+            // Libera quem chamou so depois que o lote foi registrado
+            for (int i = 0; i < count; i++) {
+                batch[i].release();
+                batch[i] = null;
+            }
+        }
+    }
+
+    /**
+     * An operation waiting in the ring, and later its outcome.
+     */
+    private static final class Task<T> {
+        private final Supplier<T> operation;
+        private T result;
+        private Throwable failure;
+        private boolean done;
+
+        Task(Supplier<T> operation) {
+            this.operation = operation;
+        }
+
+        /**
+         * Runs the operation, keeping its outcome until {@link #release()}.
+         *
+         * @return true if it completed without an exception
+         */
+        boolean run() {
+            // Escritos so pelo escritor; release() os publica para quem chamou
+            try {
+                result = operation.get();
+            } catch (RuntimeException | Error e) {
+                failure = e;
+            }
+            return failure == null;
+        }
+
+        /**
+         * Hands the outcome of {@link #run()} to the caller and releases it.
+         */
+        synchronized void release() {
+            done = true;
+            notifyAll();
+        }
+
+        /**
+         * Waits until the writer ran the operation. The operation is already in the
+         * ring, so an interrupt does not stop the wait; it is restored afterwards.
+         */
+        synchronized T await() {
+            boolean interrupted = false;
+            while (!done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package br.ufal.ic.p2.jackut.config;
+
+/**
+ * Centralizes the runtime settings of the Jackut system.
+ * Every option is read from a JVM system property ({@code -Djackut.xxx=value}),
+ * so a deployment can be tuned without touching the code. When a property is
+ * missing or malformed, the documented default value is used.
+ */
+public final class JackutConfig {
+
+    /**
+     * Enables the community write-ahead journal. When disabled, every community
+     * mutation rewrites the whole snapshot files, as in the original implementation.
+     */
+    public static final String JOURNAL_ENABLED = "jackut.persistence.journal";
+
+    /**
+     * Enables the parallel startup pipeline: both snapshot stores are loaded
+     * concurrently and large user snapshots are decoded in parallel chunks.
+     */
+    public static final String PARALLEL_STARTUP = "jackut.startup.parallel";
+
+    private JackutConfig() {
+    }
+
+    /**
+     * Reads a boolean option.
+     *
+     * @param key the property name
+     * @param defaultValue the value used when the property is not set
+     * @return the configured value
+     */
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value.trim());
+    }
+
+    /**
+     * Reads an integer option.
+     *
+     * @param key the property name
+     * @param defaultValue the value used when the property is not set or is invalid
+     * @return the configured value
+     */
+    public static int getInt(String key, int defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Reads a long option.
+     *
+     * @param key the property name
+     * @param defaultValue the value used when the property is not set or is invalid
+     * @return the configured value
+     */
+    public static long getLong(String key, long defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Reads a string option.
+     *
+     * @param key the property name
+     * @param defaultValue the value used when the property is not set
+     * @return the configured value
+     */
+    public static String getString(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        return value.trim();
+    }
+}
@@ -0,0 +1,22 @@
+package br.ufal.ic.p2.jackut.exceptions;
+
+import java.io.Serial;
+
+/**
+ * Exceo lanada no cliente quando uma operao executada em um servidor Jackut falha.
+ * A mensagem  a mesma da exceo lanada pela Facade no servidor.
+ */
+public class RemoteOperationException extends RuntimeException {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Construtor que recebe a mensagem de erro do servidor.
+     *
+     * @param message a mensagem de erro
+     */
+    public RemoteOperationException(String message) {
+        super(message);
+    }
+}
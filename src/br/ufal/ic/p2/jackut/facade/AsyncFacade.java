@@ -0,0 +1,302 @@
+package br.ufal.ic.p2.jackut.facade;
+
+import br.ufal.ic.p2.jackut.config.JackutConfig;
+import br.ufal.ic.p2.jackut.exceptions.SystemOperationException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Variante assncrona da {@link Facade}: cada operao devolve um
+ * {@link CompletableFuture} e roda em um executor de operaes, de modo que quem
+ * chama (por exemplo, a thread de uma requisio) no fica preso enquanto uma
+ * mensagem  entregue a uma comunidade enorme ou o journal espera pelo disco.
+ *
+ * <p>O registro de cada alterao para os checkpoints tambm sai do caminho da
+ * operao: ele roda em uma thread de persistncia prpria, e o futuro 
+ * completado assim que a alterao est em memria (e no journal). Excees da
+ * Facade completam o futuro excepcionalmente, com a mesma exceo como causa.
+ * {@link #encerrarSistema()} e {@link #close()} esperam os registros j enfileirados,
+ * para que o checkpoint final conte todas as alteraes j completadas.</p>
+ *
+ * <p>As operaes de uma mesma thread no so ordenadas entre si: quem precisa
+ * de ordem encadeia os futuros (por exemplo, com {@code thenCompose}).</p>
+ */
+public class AsyncFacade implements AutoCloseable {
+
+    /** Nmero de threads do executor de operaes (padro: nmero de processadores). */
+    public static final String THREADS = "jackut.async.threads";
+
+    private final Facade facade;
+    private final Executor operations;
+    private final ExecutorService ownOperations;
+    private final ExecutorService persistence;
+
+    /**
+     * Cria uma Facade assncrona com um executor de operaes prprio.
+     */
+    public AsyncFacade() {
+        this(null);
+    }
+
+    /**
+     * Cria uma Facade assncrona que roda as operaes no executor dado.
+     *
+     * @param operations o executor das operaes, ou null para criar um prprio
+     */
+    public AsyncFacade(Executor operations) {
+        this.persistence = Executors.newSingleThreadExecutor(daemonThreads("jackut-async-persistence"));
+        this.facade = new Facade(persistence);
+        if (operations == null) {
+            int threads = JackutConfig.getInt(THREADS, Runtime.getRuntime().availableProcessors());
+            this.ownOperations = Executors.newFixedThreadPool(Math.max(1, threads), daemonThreads("jackut-async"));
+            this.operations = ownOperations;
+        } else {
+            this.ownOperations = null;
+            this.operations = operations;
+        }
+    }
+
+    /**
+     * Obtm a Facade sncrona usada pelas operaes.
+     *
+     * @return a Facade
+     */
+    public Facade getFacade() {
+        return facade;
+    }
+
+    /**
+     * Encerra as threads criadas por esta Facade. Operaes j aceitas terminam
+     * normalmente, e os registros de alterao delas so entregues antes do retorno.
+     */
+    @Override
+    public void close() {
+        if (ownOperations != null) {
+            ownOperations.shutdown();
+            awaitTermination(ownOperations);
+        }
+        persistence.shutdown();
+        awaitTermination(persistence);
+    }
+
+    /**
+     * Espera que os registros de alterao j enfileirados cheguem aos checkpoints.
+     * O executor de persistncia tem uma s thread, ento uma tarefa vazia enfileirada
+     * agora s roda depois deles.
+     */
+    private void drainPersistence() {
+        if (persistence.isShutdown()) {
+            awaitTermination(persistence);
+        } else {
+            CompletableFuture.runAsync(() -> { }, persistence).join();
+        }
+    }
+
+    private static void awaitTermination(ExecutorService executor) {
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                // Uma operao longa ainda est rodando: continua esperando
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SystemOperationException(e);
+        }
+    }
+
+    private CompletableFuture<Void> run(Runnable operation) {
+        return CompletableFuture.runAsync(operation, operations);
+    }
+
+    private <T> CompletableFuture<T> supply(Supplier<T> operation) {
+        return CompletableFuture.supplyAsync(operation, operations);
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /** @see Facade#zerarSistema() */
+    public CompletableFuture<Void> zerarSistema() {
+        return run(() -> facade.zerarSistema());
+    }
+
+    /** @see Facade#carregarSistema() */
+    public CompletableFuture<Void> carregarSistema() {
+        return run(() -> facade.carregarSistema());
+    }
+
+    /** @see Facade#encerrarSistema() */
+    public CompletableFuture<Void> encerrarSistema() {
+        return run(() -> {
+            drainPersistence();
+            facade.encerrarSistema();
+        });
+    }
+
+    /** @see Facade#criarUsuario(String, String, String) */
+    public CompletableFuture<Void> criarUsuario(String login, String senha, String nome) {
+        return run(() -> facade.criarUsuario(login, senha, nome));
+    }
+
+    /** @see Facade#getAtributoUsuario(String, String) */
+    public CompletableFuture<String> getAtributoUsuario(String login, String atributo) {
+        return supply(() -> facade.getAtributoUsuario(login, atributo));
+    }
+
+    /** @see Facade#abrirSessao(String, String) */
+    public CompletableFuture<String> abrirSessao(String login, String senha) {
+        return supply(() -> facade.abrirSessao(login, senha));
+    }
+
+    /** @see Facade#editarPerfil(String, String, String) */
+    public CompletableFuture<Void> editarPerfil(String id, String atributo, String valor) {
+        return run(() -> facade.editarPerfil(id, atributo, valor));
+    }
+
+    /** @see Facade#ehAmigo(String, String) */
+    public CompletableFuture<Boolean> ehAmigo(String login, String amigo) {
+        return supply(() -> facade.ehAmigo(login, amigo));
+    }
+
+    /** @see Facade#adicionarAmigo(String, String) */
+    public CompletableFuture<Void> adicionarAmigo(String id, String amigo) {
+        return run(() -> facade.adicionarAmigo(id, amigo));
+    }
+
+    /** @see Facade#getAmigos(String) */
+    public CompletableFuture<String> getAmigos(String login) {
+        return supply(() -> facade.getAmigos(login));
+    }
+
+    /** @see Facade#enviarRecado(String, String, String) */
+    public CompletableFuture<Void> enviarRecado(String id, String destinatario, String mensagem) {
+        return run(() -> facade.enviarRecado(id, destinatario, mensagem));
+    }
+
+    /** @see Facade#lerRecado(String) */
+    public CompletableFuture<String> lerRecado(String id) {
+        return supply(() -> facade.lerRecado(id));
+    }
+
+    /** @see Facade#criarComunidade(String, String, String) */
+    public CompletableFuture<Void> criarComunidade(String session, String nome, String descricao) {
+        return run(() -> facade.criarComunidade(session, nome, descricao));
+    }
+
+    /** @see Facade#editarComunidade(String, String, String) */
+    public CompletableFuture<Void> editarComunidade(String session, String nome, String descricao) {
+        return run(() -> facade.editarComunidade(session, nome, descricao));
+    }
+
+    /** @see Facade#deletarComunidade(String, String) */
+    public CompletableFuture<Void> deletarComunidade(String session, String nome) {
+        return run(() -> facade.deletarComunidade(session, nome));
+    }
+
+    /** @see Facade#adicionarComunidade(String, String) */
+    public CompletableFuture<Void> adicionarComunidade(String session, String nome) {
+        return run(() -> facade.adicionarComunidade(session, nome));
+    }
+
+    /** @see Facade#sairComunidade(String, String) */
+    public CompletableFuture<Void> sairComunidade(String session, String nome) {
+        return run(() -> facade.sairComunidade(session, nome));
+    }
+
+    /** @see Facade#listarComunidades(String) */
+    public CompletableFuture<Void> listarComunidades(String session) {
+        return run(() -> facade.listarComunidades(session));
+    }
+
+    /** @see Facade#getDescricaoComunidade(String) */
+    public CompletableFuture<String> getDescricaoComunidade(String nome) {
+        return supply(() -> facade.getDescricaoComunidade(nome));
+    }
+
+    /** @see Facade#getDonoComunidade(String) */
+    public CompletableFuture<String> getDonoComunidade(String nome) {
+        return supply(() -> facade.getDonoComunidade(nome));
+    }
+
+    /** @see Facade#getMembrosComunidade(String) */
+    public CompletableFuture<String> getMembrosComunidade(String nome) {
+        return supply(() -> facade.getMembrosComunidade(nome));
+    }
+
+    /** @see Facade#getComunidades(String) */
+    public CompletableFuture<String> getComunidades(String nome) {
+        return supply(() -> facade.getComunidades(nome));
+    }
+
+    /** @see Facade#enviarMensagem(String, String, String) */
+    public CompletableFuture<Void> enviarMensagem(String id, String comunidade, String mensagem) {
+        return run(() -> facade.enviarMensagem(id, comunidade, mensagem));
+    }
+
+    /** @see Facade#lerMensagem(String) */
+    public CompletableFuture<String> lerMensagem(String id) {
+        return supply(() -> facade.lerMensagem(id));
+    }
+
+    /** @see Facade#adicionarIdolo(String, String) */
+    public CompletableFuture<Void> adicionarIdolo(String id, String idolo) {
+        return run(() -> facade.adicionarIdolo(id, idolo));
+    }
+
+    /** @see Facade#ehFa(String, String) */
+    public CompletableFuture<Boolean> ehFa(String login, String idolo) {
+        return supply(() -> facade.ehFa(login, idolo));
+    }
+
+    /** @see Facade#getFas(String) */
+    public CompletableFuture<String> getFas(String login) {
+        return supply(() -> facade.getFas(login));
+    }
+
+    /** @see Facade#adicionarPaquera(String, String) */
+    public CompletableFuture<Void> adicionarPaquera(String id, String paquera) {
+        return run(() -> facade.adicionarPaquera(id, paquera));
+    }
+
+    /** @see Facade#ehPaquera(String, String) */
+    public CompletableFuture<Boolean> ehPaquera(String id, String paquera) {
+        return supply(() -> facade.ehPaquera(id, paquera));
+    }
+
+    /** @see Facade#getPaqueras(String) */
+    public CompletableFuture<String> getPaqueras(String id) {
+        return supply(() -> facade.getPaqueras(id));
+    }
+
+    /** @see Facade#adicionarInimigo(String, String) */
+    public CompletableFuture<Void> adicionarInimigo(String id, String inimigo) {
+        return run(() -> facade.adicionarInimigo(id, inimigo));
+    }
+
+    /** @see Facade#ehInimigo(String, String) */
+    public CompletableFuture<Boolean> ehInimigo(String id, String inimigo) {
+        return supply(() -> facade.ehInimigo(id, inimigo));
+    }
+
+    /** @see Facade#getInimigos(String) */
+    public CompletableFuture<String> getInimigos(String id) {
+        return supply(() -> facade.getInimigos(id));
+    }
+
+    /** @see Facade#removerUsuario(String) */
+    public CompletableFuture<Void> removerUsuario(String sessionId) {
+        return run(() -> facade.removerUsuario(sessionId));
+    }
+}
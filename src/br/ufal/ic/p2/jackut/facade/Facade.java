@@ -2,11 +2,19 @@ package br.ufal.ic.p2.jackut.facade;
 
 import br.ufal.ic.p2.jackut.exceptions.*;
 import br.ufal.ic.p2.jackut.models.User;
+import br.ufal.ic.p2.jackut.concurrency.StripedLocks;
+import br.ufal.ic.p2.jackut.concurrency.Versions;
+import br.ufal.ic.p2.jackut.concurrency.WriterLoop;
+import br.ufal.ic.p2.jackut.config.JackutConfig;
+import br.ufal.ic.p2.jackut.persistence.Checkpointer;
+import br.ufal.ic.p2.jackut.persistence.CommunityJournal;
 import br.ufal.ic.p2.jackut.repositories.CommunityRepository;
 import br.ufal.ic.p2.jackut.repositories.UserRepository;
 import br.ufal.ic.p2.jackut.services.*;
 
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
 /**
  * Facade que expe as funcionalidades do sistema para os clientes.
@@ -23,17 +31,60 @@ public class Facade {
     private final SystemService systemService;
     private final CommunityService communityService;
     private final RelationshipService relationshipService;
+    // Escritor nico das alteraes; null quando cada thread altera o sistema sob os locks
+    private final WriterLoop writer;
+    // Onde cada alterao  registrada para os checkpoints (a prpria thread, por padro)
+    private final Executor persistence;
 
     public Facade() {
-        this.userRepository = new UserRepository();
-        this.communityRepository = new CommunityRepository();
-        this.communityService = new CommunityService(userRepository, communityRepository);
-        this.systemService = new SystemService(userRepository, communityService);
-        this.userService = new UserService(userRepository, communityRepository, systemService);
-        this.authService = new AuthService(userRepository);
-        this.friendshipService = new FriendshipService(userRepository);
-        this.messageService = new MessageService(userRepository);
-        this.relationshipService = new RelationshipService(userRepository, authService);
+        this(Runnable::run);
+    }
+
+    /**
+     * Cria a Facade registrando as alteraes para os checkpoints no executor dado,
+     * para que a captura de um checkpoint no atrase quem fez a alterao.
+     *
+     * @param persistence o executor dos registros de alterao
+     */
+    Facade(Executor persistence) {
+        this.persistence = persistence;
+        // Cada Facade tem o seu relogio de versoes, compartilhado pelos dois repositorios
+        Versions versions = new Versions();
+        this.userRepository = new UserRepository(versions);
+        this.communityRepository = new CommunityRepository(versions);
+        CommunityJournal journal = new CommunityJournal();
+        StripedLocks locks = new StripedLocks();
+        this.communityService = new CommunityService(userRepository, communityRepository, journal,
+                JackutConfig.getBoolean(JackutConfig.JOURNAL_ENABLED, true), locks);
+        this.systemService = new SystemService(userRepository, communityService,
+                new Checkpointer(userRepository, communityRepository, journal, locks.exclusiveLock()), locks);
+        this.userService = new UserService(userRepository, communityRepository, systemService, locks);
+        this.authService = new AuthService(userRepository, locks);
+        this.friendshipService = new FriendshipService(userRepository, locks);
+        this.messageService = new MessageService(userRepository, locks);
+        this.relationshipService = new RelationshipService(userRepository, authService, locks);
+        this.writer = JackutConfig.getBoolean(WriterLoop.ENABLED, false)
+                ? new WriterLoop(count -> persistence.execute(() -> systemService.recordMutations(count))) : null;
+    }
+
+    /**
+     * Executa uma operao que altera o sistema: na thread do escritor nico,
+     * se ele estiver ativo, ou na thread chamadora.
+     */
+    private void mutate(Runnable operation) {
+        mutate(() -> {
+            operation.run();
+            return null;
+        });
+    }
+
+    private <T> T mutate(Supplier<T> operation) {
+        if (writer != null) {
+            return writer.call(operation);
+        }
+        T result = operation.get();
+        persistence.execute(systemService::recordMutation);
+        return result;
     }
 
     public void zerarSistema() {
@@ -53,7 +104,9 @@ public class Facade {
     public void criarUsuario(String login, String senha, String nome)
               {
 
-        userService.createUser(login, senha, nome);
+        // O hash da senha e calculado antes, fora do escritor unico e dos locks
+        String hash = userService.hashNewPassword(login, senha);
+        mutate(() -> userService.addHashedUser(login, hash, nome));
 
     }
 
@@ -64,14 +117,20 @@ public class Facade {
     }
 
     public String abrirSessao(String login, String senha) {
-        return authService.login(login, senha);
+        // A troca de uma senha antiga pelo hash atual  uma alterao a ser gravada
+        return authService.login(login, senha, () -> persistence.execute(systemService::recordMutation));
 
     }
 
     public void editarPerfil(String id, String atributo, String valor)
            {
 
-        userService.editProfile(id, atributo, valor);
+        if ("senha".equals(atributo)) {
+            String hash = userService.hashPassword(id, valor);
+            mutate(() -> userService.changePassword(id, hash));
+            return;
+        }
+        mutate(() -> userService.editProfile(id, atributo, valor));
 
     }
 
@@ -81,7 +140,7 @@ public class Facade {
 
     public void adicionarAmigo(String id, String amigo){
 
-        friendshipService.addFriend(id, amigo);
+        mutate(() -> friendshipService.addFriend(id, amigo));
 
     }
 
@@ -92,42 +151,41 @@ public class Facade {
 
     public void enviarRecado(String id, String destinatario, String mensagem){
 
-        messageService.sendMessage(id, destinatario, mensagem);
+        mutate(() -> messageService.sendMessage(id, destinatario, mensagem));
 
 
     }
 
     public String lerRecado(String id){
-        return messageService.readMessage(id);
-
+        return mutate(() -> messageService.readMessage(id));
     }
 
     public void criarComunidade(String session, String nome, String descricao){
 
-        communityService.createCommunity(session, nome, descricao);
+        mutate(() -> communityService.createCommunity(session, nome, descricao));
 //        }
     }
 
     public void editarComunidade(String session, String nome, String descricao){
 
-        communityService.editCommunityDescription(session, nome, descricao);
+        mutate(() -> communityService.editCommunityDescription(session, nome, descricao));
 
     }
 
     public void deletarComunidade(String session, String nome){
 
-        communityService.deleteCommunity(session, nome);
+        mutate(() -> communityService.deleteCommunity(session, nome));
 
     }
 
     public void adicionarComunidade(String session, String nome){
-        communityService.joinCommunity(session, nome);
+        mutate(() -> communityService.joinCommunity(session, nome));
 
     }
 
     public void sairComunidade(String session, String nome){
 
-        communityService.leaveCommunity(session, nome);
+        mutate(() -> communityService.leaveCommunity(session, nome));
 
     }
 
@@ -156,11 +214,11 @@ public class Facade {
     }
 
     public void enviarMensagem(String id, String comunidade, String mensagem) {
-        communityService.sendMessage(id, comunidade, mensagem);
+        mutate(() -> communityService.sendMessage(id, comunidade, mensagem));
     }
 
     public String lerMensagem(String id){
-        return communityService.readMessage(id);
+        return mutate(() -> communityService.readMessage(id));
     }
 
     /**
@@ -171,7 +229,7 @@ public class Facade {
      */
     public void adicionarIdolo(String id, String idolo){
 
-        relationshipService.adicionarIdolo(id, idolo);
+        mutate(() -> relationshipService.adicionarIdolo(id, idolo));
     }
 
     /**
@@ -207,7 +265,7 @@ public class Facade {
      */
     public void adicionarPaquera(String id, String paquera){
 
-        relationshipService.adicionarPaquera(id, paquera);
+        mutate(() -> relationshipService.adicionarPaquera(id, paquera));
 
     }
 
@@ -243,7 +301,7 @@ public class Facade {
      * @param inimigo O login do usurio a ser adicionado como inimigo.
      */
     public void adicionarInimigo(String id, String inimigo){
-        relationshipService.adicionarInimigo(id, inimigo);
+        mutate(() -> relationshipService.adicionarInimigo(id, inimigo));
 
     }
 
@@ -277,9 +335,10 @@ public class Facade {
      */
     public void removerUsuario(String sessionId){
 
-        User user = userRepository.getUserBySession(sessionId);
-        String login = user.getLogin();
-        userService.removeUser(login);
+        mutate(() -> {
+            User user = userRepository.getUserBySession(sessionId);
+            userService.removeUser(user.getLogin());
+        });
 
     }
 }
@@ -1,5 +1,8 @@
 package br.ufal.ic.p2.jackut.models;
 
+import br.ufal.ic.p2.jackut.concurrency.VersionChain;
+import br.ufal.ic.p2.jackut.concurrency.Versioned;
+import br.ufal.ic.p2.jackut.concurrency.Versions;
 import br.ufal.ic.p2.jackut.repositories.UserRepository;
 
 import java.io.Serializable;
@@ -11,8 +14,11 @@ import java.util.*;
  * Each community has a name, description, manager (owner), members, and messages.
  *
  * <p>This class implements Serializable to allow persistence of community data.</p>
+ *
+ * <p>Members can be added by users holding only their own lock stripe, so the
+ * member list is guarded by the community's monitor.</p>
  */
-public class Community implements Serializable {
+public class Community implements Serializable, Versioned {
 
     /**
      * Serial version UID for serialization compatibility.
@@ -44,6 +50,21 @@ public class Community implements Serializable {
      */
     private Queue<String> messages;
 
+    /**
+     * Whether the community changed since it was last persisted. Not serialized.
+     */
+    private transient boolean dirty;
+
+    /**
+     * Versions published for snapshot reads. Not serialized.
+     */
+    private transient volatile VersionChain<CommunityView> versions;
+
+    /**
+     * Whether the community was removed from the repository. Not serialized.
+     */
+    private transient boolean removed;
+
     /**
      * Creates a new community with the specified name, description, and manager.
      * The manager is automatically added as a member of the community.
@@ -61,6 +82,26 @@ public class Community implements Serializable {
         this.messages = new LinkedList<>();
     }
 
+    /**
+     * Restores a community exactly as it was persisted.
+     * Unlike the main constructor, the order of the members is kept as given,
+     * since the manager may have changed after the community was created.
+     *
+     * @param name The name of the community
+     * @param description The description of the community
+     * @param manager The login of the current manager
+     * @param members The logins of the members, in the order they joined
+     * @param messages The messages posted to the community
+     */
+    public Community(String name, String description, String manager,
+                     List<String> members, Collection<String> messages) {
+        this.name = name;
+        this.description = description;
+        this.manager = manager;
+        this.members = new ArrayList<>(members);
+        this.messages = new LinkedList<>(messages);
+    }
+
     /**
      * Gets the name of the community.
      *
@@ -86,6 +127,7 @@ public class Community implements Serializable {
      */
     public void setDescription(String description) {
         this.description = description;
+        changed();
     }
 
     /**
@@ -104,6 +146,7 @@ public class Community implements Serializable {
      */
     public void setManager(String manager) {
         this.manager = manager;
+        changed();
     }
 
     /**
@@ -112,7 +155,7 @@ public class Community implements Serializable {
      *
      * @return A set containing the logins of all members
      */
-    public Set<String> getMembers() {
+    public synchronized Set<String> getMembers() {
         return new LinkedHashSet<>(members);
     }
 
@@ -121,7 +164,7 @@ public class Community implements Serializable {
      *
      * @return The member count
      */
-    public int getMemberCount() {
+    public synchronized int getMemberCount() {
         return members.size();
     }
 
@@ -132,11 +175,15 @@ public class Community implements Serializable {
      * @return true if the user was added, false if they were already a member
      */
     public boolean addMember(String login) {
-        if (!members.contains(login)) {
+        synchronized (this) {
+            if (members.contains(login)) {
+                return false;
+            }
             members.add(login);
-            return true;
         }
-        return false;
+        // Fora do monitor: o commit espera a vez dele e nao deve segurar a comunidade
+        changed();
+        return true;
     }
 
     /**
@@ -150,7 +197,13 @@ public class Community implements Serializable {
         if (login.equals(manager)) {
             return false; // Cannot remove the manager
         }
-        return members.remove(login);
+        synchronized (this) {
+            if (!members.remove(login)) {
+                return false;
+            }
+        }
+        changed();
+        return true;
     }
 
     /**
@@ -159,7 +212,7 @@ public class Community implements Serializable {
      * @param login The login of the user to check
      * @return true if the user is a member, false otherwise
      */
-    public boolean isMember(String login) {
+    public synchronized boolean isMember(String login) {
         return members.contains(login);
     }
 
@@ -180,6 +233,112 @@ public class Community implements Serializable {
      */
     public void addMessage(String message) {
         messages.add(message);
+        changed();
+    }
+
+    /**
+     * Marks the community as changed, so that the next save persists it.
+     */
+    public void markDirty() {
+        changed();
+    }
+
+    /**
+     * Checks if the community changed since it was last persisted.
+     *
+     * @return true if the community has unsaved changes
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Marks the community as persisted.
+     */
+    public void clearDirty() {
+        dirty = false;
+    }
+
+    /**
+     * Marks the community as changed and records the change for the next version.
+     */
+    private void changed() {
+        dirty = true;
+        Versions.touch(this);
+    }
+
+    /**
+     * Marks the community as removed from (or back in) the repository, so that
+     * the next published version hides it from readers.
+     *
+     * @param removed true if the community was removed
+     */
+    public void setRemoved(boolean removed) {
+        this.removed = removed;
+        Versions.touch(this);
+    }
+
+    /**
+     * Gets the state of the community visible at a read timestamp.
+     * A community without versions (created outside a lock section) is read directly.
+     *
+     * @param timestamp the read timestamp
+     * @return the immutable view of the community, or null if it did not exist
+     */
+    public CommunityView viewAt(long timestamp) {
+        VersionChain<CommunityView> chain = versions;
+        if (chain == null) {
+            return removed ? null : new CommunityView(this);
+        }
+        return chain.at(timestamp);
+    }
+
+    /**
+     * Gets the newest published version.
+     *
+     * @return the version, or -1 if none was published
+     */
+    @Override
+    public long newestVersion() {
+        VersionChain<CommunityView> chain = versions;
+        return chain == null ? -1 : chain.newestVersion();
+    }
+
+    @Override
+    public Versions owner() {
+        VersionChain<CommunityView> chain = versions;
+        return chain == null ? null : chain.owner();
+    }
+
+    @Override
+    public void startVersions(Versions owner) {
+        if (versions == null) {
+            versions = new VersionChain<>(owner);
+        }
+    }
+
+    @Override
+    public void publish(long version, long oldest) {
+        versions.publish(version, removed ? null : new CommunityView(this), oldest);
+    }
+
+    /**
+     * Gets the members of this community in the order they joined.
+     * Unlike {@link #getMembers()}, no copy is made: a read-only view is returned.
+     *
+     * @return The list of member logins
+     */
+    public List<String> getMemberList() {
+        return Collections.unmodifiableList(members);
+    }
+
+    /**
+     * Gets the queue of messages posted to this community.
+     *
+     * @return The message queue
+     */
+    public Queue<String> getMessages() {
+        return messages;
     }
 
     /**
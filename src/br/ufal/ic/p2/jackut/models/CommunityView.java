@@ -0,0 +1,55 @@
+package br.ufal.ic.p2.jackut.models;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable view of a {@link Community} at one committed version.
+ * Used by snapshot reads, which must not see later changes to the live object.
+ */
+public final class CommunityView {
+
+    private final String name;
+    private final String description;
+    private final String manager;
+    private final List<String> members;
+
+    /**
+     * Copies the current state of a community. The caller must hold the community's lock.
+     *
+     * @param community the community
+     */
+    CommunityView(Community community) {
+        this.name = community.getName();
+        this.description = community.getDescription();
+        this.manager = community.getManager();
+        this.members = Collections.unmodifiableList(new ArrayList<>(community.getMembers()));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public String getManager() {
+        return manager;
+    }
+
+    public List<String> getMembers() {
+        return members;
+    }
+
+    /**
+     * Checks if a user is a member of the community.
+     *
+     * @param login the login of the user
+     * @return true if the user is a member
+     */
+    public boolean isMember(String login) {
+        return members.contains(login);
+    }
+}
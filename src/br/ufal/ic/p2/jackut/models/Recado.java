@@ -1,7 +1,10 @@
 package br.ufal.ic.p2.jackut.models;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serial;
 import java.io.Serializable;
+import java.util.function.Supplier;
 
 /**
  * Classe que representa uma Mensagem enviado de um usurio para outro no sistema Jackut.
@@ -29,6 +32,12 @@ public class Recado implements Serializable {
      */
     private String mensagem;
 
+    /**
+     * Origem do contedo ainda no decodificado (por exemplo, um snapshot mapeado em memria).
+     *  consumida no primeiro acesso a {@link #getMensagem()}.
+     */
+    private transient Supplier<String> mensagemPendente;
+
     /**
      * Construtor que inicializa uma Mensagem com remetente, contedo da mensagem e destinatrio.
      *
@@ -42,6 +51,19 @@ public class Recado implements Serializable {
         this.destinatario = destinatario;
     }
 
+    /**
+     * Construtor em que o contedo s  obtido quando for lido pela primeira vez.
+     *
+     * @param remetente O login do usurio que enviou a Mensagem.
+     * @param mensagem A origem do contedo da Mensagem.
+     * @param destinatario O login do usurio que recebeu a Mensagem.
+     */
+    public Recado(String remetente, Supplier<String> mensagem, String destinatario) {
+        this.remetente = remetente;
+        this.mensagemPendente = mensagem;
+        this.destinatario = destinatario;
+    }
+
     /**
      * Obtm o login do remetente da Mensagem.
      *
@@ -66,6 +88,19 @@ public class Recado implements Serializable {
      * @return A texto da Mensagem.
      */
     public String getMensagem() {
+        if (mensagemPendente != null) {
+            mensagem = mensagemPendente.get();
+            mensagemPendente = null;
+        }
         return mensagem;
     }
+
+    /**
+     * Garante que o contedo seja decodificado antes da serializao padro.
+     */
+    @Serial
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        getMensagem();
+        out.defaultWriteObject();
+    }
 }
\ No newline at end of file
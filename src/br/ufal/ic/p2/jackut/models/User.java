@@ -3,6 +3,13 @@ package br.ufal.ic.p2.jackut.models;
 import br.ufal.ic.p2.jackut.exceptions.NotFilledAttributeException;
 import br.ufal.ic.p2.jackut.exceptions.NotFoundMessageException;
 
+import br.ufal.ic.p2.jackut.concurrency.MpscInbox;
+import br.ufal.ic.p2.jackut.concurrency.VersionChain;
+import br.ufal.ic.p2.jackut.concurrency.Versioned;
+import br.ufal.ic.p2.jackut.concurrency.Versions;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serial;
 import java.io.Serializable;
 import java.util.*;
@@ -10,7 +17,7 @@ import java.util.*;
 /**
  * Classe que representa um usurio no sistema Jackut.
  */
-public class User implements Serializable {
+public class User implements Serializable, Versioned {
 
     @Serial
     private static final long serialVersionUID = 1L;
@@ -27,6 +34,11 @@ public class User implements Serializable {
     public ArrayList<String> idols = new ArrayList<>();
     private ArrayList<String> crushes = new ArrayList<>();
     private ArrayList<String> enemies = new ArrayList<>();
+    // Indica se o usurio mudou desde a ltima gravao (no  serializado)
+    private transient boolean dirty;
+    // Verses publicadas para leituras por snapshot (no so serializadas)
+    private transient volatile VersionChain<UserView> versions;
+    private transient boolean removed;
     /**
 
     /**
@@ -35,9 +47,24 @@ public class User implements Serializable {
     public User() {
         this.friends = new Friends();
         this.attributes = new HashMap<>();
-        this.recados = new LinkedList<>();
+        this.recados = new MpscInbox<>();
         this.communitiesJoined = new ArrayList<>();
-        this.communitiesMessages = new LinkedList<>();
+        this.communitiesMessages = new MpscInbox<>();
+    }
+
+    /**
+     * Restaura um usurio serializado, trocando as filas de verses antigas
+     * (LinkedList) pelas caixas de entrada sem locks.
+     */
+    @Serial
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (!(recados instanceof MpscInbox)) {
+            recados = new MpscInbox<>(recados);
+        }
+        if (!(communitiesMessages instanceof MpscInbox)) {
+            communitiesMessages = new MpscInbox<>(communitiesMessages);
+        }
     }
 
     /**
@@ -57,6 +84,7 @@ public class User implements Serializable {
 
     public void setName(String name) {
         this.name = name;
+        changed();
     }
 
     public String getLogin() {
@@ -65,6 +93,7 @@ public class User implements Serializable {
 
     public void setLogin(String login) {
         this.login = login;
+        changed();
     }
 
     public String getPassword() {
@@ -73,6 +102,7 @@ public class User implements Serializable {
 
     public void setPassword(String password) {
         this.password = password;
+        changed();
     }
 
     public Friends getFriends() {
@@ -97,6 +127,101 @@ public class User implements Serializable {
 
     public void setCommunitiesJoined(ArrayList<String> communitiesJoined) {
         this.communitiesJoined = communitiesJoined;
+        changed();
+    }
+
+    /**
+     * Marca o usurio como alterado, para que a prxima gravao o inclua.
+     * Deve ser chamado por quem altera as listas retornadas pelos getters.
+     */
+    public void markDirty() {
+        changed();
+    }
+
+    /**
+     * Verifica se o usurio mudou desde a ltima gravao.
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Marca o usurio como gravado.
+     */
+    public void clearDirty() {
+        dirty = false;
+    }
+
+    /**
+     * Marca o usurio como alterado e registra a alterao para a prxima verso.
+     */
+    private void changed() {
+        dirty = true;
+        Versions.touch(this);
+    }
+
+    /**
+     * Marca o usurio como alterado por uma caixa de entrada. Recados e mensagens
+     * de comunidades no fazem parte das verses publicadas, e quem os entrega ou
+     * l no segura a faixa do usurio, ento nenhuma verso nova  criada.
+     */
+    private void inboxChanged() {
+        dirty = true;
+    }
+
+    /**
+     * Marca o usurio como removido (ou de volta ao repositrio), para que
+     * a prxima verso publicada o esconda dos leitores.
+     *
+     * @param removed true se o usurio foi removido
+     */
+    public void setRemoved(boolean removed) {
+        this.removed = removed;
+        Versions.touch(this);
+    }
+
+    /**
+     * Obtm o estado do usurio visvel em um instante de leitura.
+     * Um usurio sem verses (criado fora de uma seo de locks)  lido diretamente.
+     *
+     * @param timestamp o instante de leitura
+     * @return a viso imutvel do usurio, ou null se ele no existia
+     */
+    public UserView viewAt(long timestamp) {
+        VersionChain<UserView> chain = versions;
+        if (chain == null) {
+            return removed ? null : new UserView(this);
+        }
+        return chain.at(timestamp);
+    }
+
+    /**
+     * Obtm a verso mais nova publicada.
+     *
+     * @return a verso, ou -1 se nenhuma foi publicada
+     */
+    @Override
+    public long newestVersion() {
+        VersionChain<UserView> chain = versions;
+        return chain == null ? -1 : chain.newestVersion();
+    }
+
+    @Override
+    public Versions owner() {
+        VersionChain<UserView> chain = versions;
+        return chain == null ? null : chain.owner();
+    }
+
+    @Override
+    public void startVersions(Versions owner) {
+        if (versions == null) {
+            versions = new VersionChain<>(owner);
+        }
+    }
+
+    @Override
+    public void publish(long version, long oldest) {
+        versions.publish(version, removed ? null : new UserView(this), oldest);
     }
 
     // Mtodos funcionais
@@ -106,6 +231,7 @@ public class User implements Serializable {
      */
     public void setAttributeExtra(String attribute, String content) {
         attributes.put(attribute, content);
+        changed();
     }
 
     /**
@@ -125,6 +251,20 @@ public class User implements Serializable {
      */
     public void incomingMessage(Recado message) {
         recados.add(message);
+        inboxChanged();
+    }
+
+    /**
+     * Retira o recado mais antigo da fila de mensagens recebidas.
+     *
+     * @return o recado, ou null se no houver recados
+     */
+    public Recado pollMessage() {
+        Recado recado = recados.poll();
+        if (recado != null) {
+            inboxChanged();
+        }
+        return recado;
     }
 
     /**
@@ -146,6 +286,7 @@ public class User implements Serializable {
      */
     public void addFriend(String friendLogin) {
         friends.addFriend(friendLogin);
+        changed();
     }
 
     /**
@@ -168,6 +309,7 @@ public class User implements Serializable {
      */
     public void addFriendSolicitation(String login) {
         friends.addFriendSolicitation(login);
+        changed();
     }
 
     public void removeFriendSolicitation(String login) {}
@@ -175,9 +317,12 @@ public class User implements Serializable {
     public void removeFriend(String friendLogin) {}
     public void  addCommunity(String name) {
         communitiesJoined.add(name);
+        changed();
     }
     public void removeCommunity(String name) {
-        communitiesJoined.remove(name);
+        if (communitiesJoined.remove(name)) {
+            changed();
+        }
     }
 
     public ArrayList<String> getCommunitiesJoined() {
@@ -185,16 +330,27 @@ public class User implements Serializable {
     }
 
     public String readCommunitiesMessages()  {
-
-        if (communitiesMessages.isEmpty() || communitiesMessages.peek() == null) {
+        String message = communitiesMessages.poll();
+        if (message == null) {
              throw new NotFoundMessageException("community");
 
         }
-        return communitiesMessages.poll();
+        inboxChanged();
+        return message;
     }
 
     public void addCommunityMessage(String message) {
         communitiesMessages.add(message);
+        inboxChanged();
+    }
+
+    /**
+     * Obtm a fila de mensagens de comunidades ainda no lidas.
+     *
+     * @return A fila de mensagens de comunidades.
+     */
+    public Queue<String> getCommunitiesMessages() {
+        return communitiesMessages;
     }
 
     /**
@@ -204,6 +360,7 @@ public class User implements Serializable {
      */
     public void addMessage(Recado message) {
         this.recados.add(message);
+        inboxChanged();
     }
 
     /**
@@ -223,7 +380,8 @@ public class User implements Serializable {
      * @param messages the new messages queue
      */
     public void setMessages(Queue<Recado> messages) {
-        this.recados = messages;
+        this.recados = messages instanceof MpscInbox ? messages : new MpscInbox<>(messages);
+        inboxChanged();
     }
 
     /**
@@ -234,6 +392,7 @@ public class User implements Serializable {
     public void addIdol(String idolLogin) {
         if (!idols.contains(idolLogin)) {
             idols.add(idolLogin);
+            changed();
         }
     }
 
@@ -245,6 +404,7 @@ public class User implements Serializable {
     public void addFan(String fanLogin) {
         if (!fans.contains(fanLogin)) {
             fans.add(fanLogin);
+            changed();
         }
     }
 
@@ -256,6 +416,7 @@ public class User implements Serializable {
     public void addCrush(String crushLogin) {
         if (!crushes.contains(crushLogin)) {
             crushes.add(crushLogin);
+            changed();
         }
     }
 
@@ -267,6 +428,7 @@ public class User implements Serializable {
     public void addEnemy(String enemyLogin) {
         if (!enemies.contains(enemyLogin)) {
             enemies.add(enemyLogin);
+            changed();
         }
     }
 
@@ -0,0 +1,82 @@
+package br.ufal.ic.p2.jackut.models;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable view of the relationships of a {@link User} at one committed version.
+ * Used by snapshot reads, which must not see later changes to the live object.
+ */
+public final class UserView {
+
+    private final String login;
+    private final String name;
+    private final List<String> friends;
+    private final List<String> friendRequests;
+    private final List<String> communities;
+    private final List<String> fans;
+    private final List<String> idols;
+    private final List<String> crushes;
+    private final List<String> enemies;
+
+    /**
+     * Copies the current state of a user. The caller must hold the user's lock.
+     *
+     * @param user the user
+     */
+    UserView(User user) {
+        this.login = user.getLogin();
+        this.name = user.getName();
+        this.friends = copy(user.getFriendsList());
+        this.friendRequests = copy(user.getFriendSolicitations());
+        this.communities = copy(user.getCommunitiesJoined());
+        this.fans = copy(user.getFans());
+        this.idols = copy(user.getIdols());
+        this.crushes = copy(user.getCrushes());
+        this.enemies = copy(user.getEnemies());
+    }
+
+    private static List<String> copy(Collection<String> values) {
+        return values == null || values.isEmpty()
+                ? Collections.emptyList()
+                : Collections.unmodifiableList(new ArrayList<>(values));
+    }
+
+    public String getLogin() {
+        return login;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<String> getFriends() {
+        return friends;
+    }
+
+    public List<String> getFriendRequests() {
+        return friendRequests;
+    }
+
+    public List<String> getCommunities() {
+        return communities;
+    }
+
+    public List<String> getFans() {
+        return fans;
+    }
+
+    public List<String> getIdols() {
+        return idols;
+    }
+
+    public List<String> getCrushes() {
+        return crushes;
+    }
+
+    public List<String> getEnemies() {
+        return enemies;
+    }
+}
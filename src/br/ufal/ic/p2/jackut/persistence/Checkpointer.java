@@ -0,0 +1,233 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.config.JackutConfig;
+import br.ufal.ic.p2.jackut.repositories.CommunityRepository;
+import br.ufal.ic.p2.jackut.repositories.UserRepository;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Writes periodic snapshots of both repositories in the background.
+ *
+ * <p>Every mutating Facade call is reported through {@link #recordMutation()}.
+ * When the configured number of mutations or the configured time has elapsed
+ * since the last checkpoint, the state of both repositories is captured in
+ * memory at that call boundary (so users and communities are consistent with
+ * each other and with the journal) and the disk writes are handed to the
+ * {@link SnapshotStore} writer thread. The Facade never waits for the disk during
+ * a checkpoint. Each checkpoint only writes the users and communities changed
+ * since the previous one, unless a store decides to compact into a full snapshot.</p>
+ *
+ * <p>Only one checkpoint is written at a time; triggers that fire while a write
+ * is still running are coalesced into the next one.</p>
+ *
+ * <p>With a multi-threaded Facade the capture must not interleave with other
+ * mutations, so it is taken while holding the given barrier lock (the exclusive
+ * system lock). Callers of {@link #checkpointNow()} and {@link #reset()} must
+ * already hold it; {@link #recordMutation()} must be called without any lock held.</p>
+ */
+public class Checkpointer {
+
+    /** Enables background checkpoints. */
+    public static final String ENABLED = "jackut.checkpoint.enabled";
+    /** Maximum time, in milliseconds, between two checkpoints of a changed system (0 disables). */
+    public static final String INTERVAL_MILLIS = "jackut.checkpoint.intervalMillis";
+    /** Number of mutations that triggers a checkpoint (0 disables). */
+    public static final String MUTATION_THRESHOLD = "jackut.checkpoint.mutations";
+
+    private final UserRepository userRepository;
+    private final CommunityRepository communityRepository;
+    private final CommunityJournal journal;
+    private final boolean enabled;
+    private final long intervalMillis;
+    private final int mutationThreshold;
+    private final Lock barrier;
+
+    private int pendingMutations;
+    private long lastCheckpoint = System.currentTimeMillis();
+    private Future<?> inFlight;
+    private boolean capturing;
+
+    /**
+     * Creates a checkpointer configured from the system properties.
+     *
+     * @param userRepository the repository of users
+     * @param communityRepository the repository of communities
+     * @param journal the community journal covered by the snapshots
+     * @param barrier the lock that excludes every mutation while a checkpoint is captured
+     */
+    public Checkpointer(UserRepository userRepository, CommunityRepository communityRepository,
+                        CommunityJournal journal, Lock barrier) {
+        this(userRepository, communityRepository, journal, barrier,
+                JackutConfig.getBoolean(ENABLED, true),
+                JackutConfig.getLong(INTERVAL_MILLIS, 30_000L),
+                JackutConfig.getInt(MUTATION_THRESHOLD, 1_000));
+    }
+
+    /**
+     * Creates a checkpointer with explicit triggers.
+     *
+     * @param userRepository the repository of users
+     * @param communityRepository the repository of communities
+     * @param journal the community journal covered by the snapshots
+     * @param barrier the lock that excludes every mutation while a checkpoint is captured
+     * @param enabled false to only write snapshots when {@link #checkpointNow()} is called
+     * @param intervalMillis maximum time between checkpoints of a changed system, or 0
+     * @param mutationThreshold number of mutations that triggers a checkpoint, or 0
+     */
+    public Checkpointer(UserRepository userRepository, CommunityRepository communityRepository,
+                        CommunityJournal journal, Lock barrier, boolean enabled, long intervalMillis,
+                        int mutationThreshold) {
+        this.userRepository = userRepository;
+        this.communityRepository = communityRepository;
+        this.journal = journal;
+        this.barrier = barrier;
+        this.enabled = enabled;
+        this.intervalMillis = intervalMillis;
+        this.mutationThreshold = mutationThreshold;
+    }
+
+    /**
+     * Reports that a mutation was applied, starting a background checkpoint if a trigger fired.
+     */
+    public void recordMutation() {
+        recordMutations(1);
+    }
+
+    /**
+     * Reports that a batch of mutations was applied, e.g. by the single writer
+     * thread, checking the triggers once for the whole batch.
+     *
+     * @param count the number of mutations in the batch
+     */
+    public void recordMutations(int count) {
+        if (!triggered(count)) {
+            return;
+        }
+
+        // A barreira e obtida fora do monitor, na mesma ordem usada por checkpointNow
+        barrier.lock();
+        try {
+            synchronized (this) {
+                try {
+                    inFlight = capture();
+                } finally {
+                    capturing = false;
+                }
+            }
+        } finally {
+            barrier.unlock();
+        }
+    }
+
+    /**
+     * Counts a mutation and checks whether it should start a checkpoint,
+     * claiming the capture if so.
+     */
+    private synchronized boolean triggered(int count) {
+        pendingMutations += count;
+        if (!enabled || capturing || isWriting()) {
+            return false;
+        }
+
+        boolean countReached = mutationThreshold > 0 && pendingMutations >= mutationThreshold;
+        boolean timeElapsed = intervalMillis > 0
+                && System.currentTimeMillis() - lastCheckpoint >= intervalMillis;
+        capturing = countReached || timeElapsed;
+        return capturing;
+    }
+
+    /**
+     * Writes a checkpoint synchronously, e.g. on {@code encerrarSistema}.
+     * The journal queue is drained and synced first. If nothing changed since the
+     * last checkpoint, only waits for the one in progress.
+     */
+    public synchronized void checkpointNow() {
+        checkpointNow(false);
+    }
+
+    /**
+     * Writes a checkpoint synchronously, even if no mutation was reported yet when
+     * {@code force} is true, e.g. for a mutation still running under the barrier
+     * that must be on disk before it returns. The journal prefix the checkpoint
+     * covers is discarded, as for any other checkpoint.
+     *
+     * @param force true to write the checkpoint even if nothing seems to have changed
+     */
+    public synchronized void checkpointNow(boolean force) {
+        journal.flush();
+        awaitIdle();
+        if (!force && pendingMutations == 0 && !journalHasRecords()) {
+            return;
+        }
+        inFlight = capture();
+        awaitIdle();
+    }
+
+    /**
+     * Waits for the checkpoint currently being written, if any.
+     */
+    public synchronized void awaitIdle() {
+        if (inFlight == null) {
+            return;
+        }
+        try {
+            SnapshotStore.await(inFlight);
+        } finally {
+            inFlight = null;
+        }
+    }
+
+    /**
+     * Forgets the pending mutations, e.g. after the system was reset or reloaded.
+     */
+    public synchronized void reset() {
+        awaitIdle();
+        pendingMutations = 0;
+        lastCheckpoint = System.currentTimeMillis();
+    }
+
+    /**
+     * Gets the number of mutations not yet covered by a checkpoint.
+     *
+     * @return the pending mutation count
+     */
+    public synchronized int getPendingMutations() {
+        return pendingMutations;
+    }
+
+    private boolean isWriting() {
+        if (inFlight != null && inFlight.isDone()) {
+            awaitIdle(); // Propaga uma falha do checkpoint anterior
+        }
+        return inFlight != null;
+    }
+
+    private boolean journalHasRecords() {
+        return journal.size() > 0;
+    }
+
+    /**
+     * Captures the changes of both repositories and the journal position at this
+     * call boundary and schedules their writes.
+     *
+     * @return the pending checkpoint, done once the journal prefix it covers is discarded
+     */
+    private Future<?> capture() {
+        Future<?> users = userRepository.saveChanges();
+        Future<?> communities = communityRepository.saveChanges();
+        long journalPosition = journal.size();
+        pendingMutations = 0;
+        lastCheckpoint = System.currentTimeMillis();
+
+        // Executa depois das duas gravacoes, e so descarta o log se ambas deram certo
+        // e ja estao no disco
+        return SnapshotStore.submit(() -> {
+            SnapshotStore.await(users);
+            SnapshotStore.await(communities);
+            SnapshotStore.syncPending();
+            journal.discardPrefix(journalPosition);
+        });
+    }
+}
@@ -0,0 +1,669 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.config.JackutConfig;
+import br.ufal.ic.p2.jackut.exceptions.SystemOperationException;
+import br.ufal.ic.p2.jackut.models.Community;
+import br.ufal.ic.p2.jackut.models.User;
+import br.ufal.ic.p2.jackut.repositories.CommunityRepository;
+import br.ufal.ic.p2.jackut.repositories.UserRepository;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead log for community mutations.
+ *
+ * <p>Instead of rewriting {@code comunidades.ser} and {@code usuarios.ser} after
+ * every change, each mutation appends a small framed record to {@code comunidades.log}.
+ * When the system is loaded, the log is replayed over the last snapshot; when a
+ * new snapshot is written, the log is truncated.</p>
+ *
+ * <p>Each frame is {@code [int length][int crc32][payload]}. A torn or corrupted
+ * frame at the end of the file (e.g. after a crash) stops the replay, so only
+ * fully written records are ever applied.</p>
+ *
+ * <p>Appending does not touch the disk: records are queued and a background
+ * flusher writes every queued record in a single write, then calls {@code fsync}
+ * according to the {@link FsyncPolicy}. A burst of mutations therefore costs one
+ * write and one sync instead of one of each per mutation. {@link #flush()} drains
+ * the queue synchronously and is called when the system is closed.</p>
+ *
+ * <p>When a checkpoint discards the start of the log, the rest is copied to a new
+ * file that replaces the old one. Like a snapshot, the new file and the directory
+ * entry are forced to the device before the journal relies on them, unless both
+ * the fsync policy and the snapshot {@link Durability} were set to never sync.</p>
+ */
+public class CommunityJournal {
+
+    // Nome do arquivo de log das comunidades
+    private static final String LOG_FILE = "comunidades.log";
+
+    // Limite de tamanho de um registro, usado para detectar frames corrompidos
+    private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+
+    private final File file;
+    private final FsyncPolicy fsyncPolicy;
+    private final long flushIntervalMillis;
+    private final Durability durability;
+
+    // Fila do flusher, guardada pelo monitor do journal
+    private final List<byte[]> queue = new ArrayList<>();
+    private long firstQueuedAt;
+    private long appended;
+    private long pendingSync;
+    private long synced;
+    private long logicalSize = -1;
+    private IOException failure;
+    private long retryAt;
+    private Thread flusher;
+
+    // Guarda o arquivo; quando os dois locks sao necessarios, este e adquirido primeiro
+    private final Object fileLock = new Object();
+    private FileChannel channel;
+
+    /**
+     * Creates a journal backed by the default log file.
+     */
+    public CommunityJournal() {
+        this(new File(LOG_FILE));
+    }
+
+    /**
+     * Creates a journal backed by the given file, with the configured fsync policy.
+     *
+     * @param file the log file
+     */
+    public CommunityJournal(File file) {
+        this(file, FsyncPolicy.configured(), JackutConfig.getLong(FsyncPolicy.FLUSH_INTERVAL_MILLIS, 100L));
+    }
+
+    /**
+     * Creates a journal backed by the given file.
+     *
+     * @param file the log file
+     * @param fsyncPolicy when records are synced to the device
+     * @param flushIntervalMillis how long a record may wait in the queue, unless the policy is {@link FsyncPolicy#ALWAYS}
+     */
+    public CommunityJournal(File file, FsyncPolicy fsyncPolicy, long flushIntervalMillis) {
+        this(file, fsyncPolicy, flushIntervalMillis, Durability.configured());
+    }
+
+    /**
+     * Creates a journal backed by the given file, with an explicit durability for
+     * the rewrites of the file.
+     *
+     * @param file the log file
+     * @param fsyncPolicy when records are synced to the device
+     * @param flushIntervalMillis how long a record may wait in the queue, unless the policy is {@link FsyncPolicy#ALWAYS}
+     * @param durability whether truncations and compactions are forced to the device
+     */
+    public CommunityJournal(File file, FsyncPolicy fsyncPolicy, long flushIntervalMillis, Durability durability) {
+        this.file = file;
+        this.fsyncPolicy = fsyncPolicy;
+        this.flushIntervalMillis = Math.max(0, flushIntervalMillis);
+        this.durability = durability;
+    }
+
+    /**
+     * Queues a record to be appended to the end of the log.
+     * With {@link FsyncPolicy#ALWAYS}, waits until the record is written and synced.
+     *
+     * @param record the mutation to persist
+     * @throws SystemOperationException if the record cannot be written
+     */
+    public void append(JournalRecord record) {
+        byte[] frame = encode(record);
+        long ticket;
+        synchronized (this) {
+            if (queue.isEmpty()) {
+                firstQueuedAt = System.currentTimeMillis();
+            }
+            queue.add(frame);
+            logicalSize = currentSize() + frame.length;
+            ticket = ++appended;
+            startFlusher();
+            notifyAll();
+        }
+        if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+            awaitSynced(ticket);
+        }
+    }
+
+    /**
+     * Writes every queued record and syncs the log, e.g. on {@code encerrarSistema}.
+     *
+     * @throws SystemOperationException if the records cannot be written
+     */
+    public void flush() {
+        synchronized (fileLock) {
+            try {
+                writeQueued();
+                sync();
+            } catch (IOException e) {
+                System.err.println("Erro ao gravar o log de comunidades: " + e.getMessage());
+                throw new SystemOperationException(e);
+            }
+        }
+    }
+
+    /**
+     * Reads every complete record of the log, in the order they were written.
+     * Queued records are written first.
+     *
+     * @return the records found in the log
+     */
+    public List<JournalRecord> readAll() {
+        synchronized (fileLock) {
+            List<JournalRecord> records = new ArrayList<>();
+            try {
+                writeQueued();
+                closeChannel();
+            } catch (IOException e) {
+                System.err.println("Erro ao gravar o log de comunidades: " + e.getMessage());
+                throw new SystemOperationException(e);
+            }
+            try {
+                SnapshotFiles.recover(file.toPath());
+            } catch (IOException e) {
+                System.err.println("Erro ao ler o log de comunidades: " + e.getMessage());
+                throw new SystemOperationException(e);
+            }
+            if (!file.exists()) {
+                return records;
+            }
+
+            long validLength = 0;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                while (true) {
+                    JournalRecord record = readFrame(in);
+                    if (record == null) {
+                        break;
+                    }
+                    records.add(record);
+                    validLength += 8 + encodedLength(record);
+                }
+            } catch (IOException e) {
+                System.err.println("Erro ao ler o log de comunidades: " + e.getMessage());
+                throw new SystemOperationException(e);
+            }
+
+            // Descarta um registro incompleto no final, para que os proximos sejam alcancaveis
+            if (validLength < file.length()) {
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    raf.setLength(validLength);
+                } catch (IOException e) {
+                    throw new SystemOperationException(e);
+                }
+            }
+            synchronized (this) {
+                logicalSize = validLength + queuedBytes();
+            }
+            return records;
+        }
+    }
+
+    /**
+     * Replays the log over the repositories loaded from the last snapshot.
+     * The users must already be loaded, since membership is mirrored in {@link User}.
+     * Applying a record twice has no additional effect.
+     *
+     * @param userRepository the repository of users
+     * @param communityRepository the repository of communities
+     * @return the number of records replayed
+     */
+    public int replay(UserRepository userRepository, CommunityRepository communityRepository) {
+        List<JournalRecord> records = readAll();
+        for (JournalRecord record : records) {
+            apply(record, userRepository, communityRepository);
+        }
+        return records.size();
+    }
+
+    /**
+     * Discards all records, including the queued ones, e.g. when the system is reset.
+     * Callers waiting for a queued record are released.
+     */
+    public void truncate() {
+        synchronized (fileLock) {
+            dropQueue();
+            closeChannel();
+            if (!file.exists()) {
+                return;
+            }
+            try {
+                empty();
+            } catch (IOException e) {
+                System.err.println("Erro ao truncar o log de comunidades: " + e.getMessage());
+                throw new SystemOperationException(e);
+            }
+        }
+    }
+
+    /**
+     * Discards the records written before the given position, keeping the ones
+     * appended afterwards. Used when a snapshot that covers the first
+     * {@code position} bytes of the log has been written in the background.
+     *
+     * @param position the log size observed when the snapshot was captured
+     */
+    public void discardPrefix(long position) {
+        synchronized (fileLock) {
+            try {
+                writeQueued();
+                closeChannel();
+            } catch (IOException e) {
+                System.err.println("Erro ao gravar o log de comunidades: " + e.getMessage());
+                throw new SystemOperationException(e);
+            }
+            if (!file.exists() || position <= 0) {
+                return;
+            }
+            long length = file.length();
+            if (position >= length) {
+                truncateWritten();
+                return;
+            }
+
+            // Copia os registros restantes para um arquivo novo e troca os arquivos de uma vez
+            boolean force = forceRewrites();
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                byte[] tail = new byte[(int) (length - position)];
+                raf.seek(position);
+                raf.readFully(tail);
+                SnapshotFiles.replace(file.toPath(), tail, force);
+                if (force) {
+                    SnapshotFiles.sync(directory());
+                }
+            } catch (IOException e) {
+                System.err.println("Erro ao compactar o log de comunidades: " + e.getMessage());
+                throw new SystemOperationException(e);
+            }
+            synchronized (this) {
+                if (force) {
+                    // O arquivo novo ja esta no disco, com os registros gravados ate aqui
+                    synced = Math.max(synced, pendingSync);
+                    notifyAll();
+                }
+                logicalSize = length - position + queuedBytes();
+            }
+        }
+    }
+
+    /**
+     * Empties the log file, which the snapshot covers entirely, keeping the records
+     * queued since. Must hold {@link #fileLock}, with the queue written up to the snapshot.
+     */
+    private void truncateWritten() {
+        try {
+            empty();
+        } catch (IOException e) {
+            System.err.println("Erro ao truncar o log de comunidades: " + e.getMessage());
+            throw new SystemOperationException(e);
+        }
+        synchronized (this) {
+            // Os registros ja gravados estao no snapshot, que ja foi sincronizado
+            synced = Math.max(synced, pendingSync);
+            logicalSize = queuedBytes();
+            notifyAll();
+        }
+    }
+
+    /**
+     * Empties the log file, forcing the truncation to the device unless rewrites
+     * are not synced. Must hold {@link #fileLock}, with the channel closed.
+     */
+    private void empty() throws IOException {
+        try (FileChannel truncated = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            truncated.truncate(0);
+            if (forceRewrites()) {
+                truncated.force(true);
+            }
+        }
+    }
+
+    /**
+     * Checks whether truncations and compactions of the file must be forced to the
+     * device: always, unless neither the journal nor the snapshots are ever synced.
+     */
+    private boolean forceRewrites() {
+        return fsyncPolicy != FsyncPolicy.SHUTDOWN || durability != Durability.NONE;
+    }
+
+    private Path directory() {
+        return file.getAbsoluteFile().toPath().getParent();
+    }
+
+    /**
+     * Deletes the log file from disk, discarding the queued records.
+     *
+     * @return true if the file was deleted or did not exist
+     */
+    public boolean deleteLogFile() {
+        synchronized (fileLock) {
+            dropQueue();
+            closeChannel();
+            return !file.exists() || file.delete();
+        }
+    }
+
+    /**
+     * Gets the size of the log in bytes, counting the records still queued.
+     *
+     * @return the size the log file will have once the queue is written
+     */
+    public synchronized long size() {
+        return currentSize();
+    }
+
+    /**
+     * Gets the size of the log, reading the file length the first time.
+     * Must be called while holding the monitor.
+     */
+    private long currentSize() {
+        if (logicalSize < 0) {
+            logicalSize = file.length();
+        }
+        return logicalSize;
+    }
+
+    private long queuedBytes() {
+        long bytes = 0;
+        for (byte[] frame : queue) {
+            bytes += frame.length;
+        }
+        return bytes;
+    }
+
+    private void startFlusher() {
+        if (flusher == null) {
+            flusher = new Thread(this::runFlusher, "jackut-journal-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+    }
+
+    /**
+     * Loop of the flusher thread: waits until the oldest queued record is due,
+     * then writes the whole queue at once.
+     */
+    private void runFlusher() {
+        while (true) {
+            try {
+                synchronized (this) {
+                    long delay = flushDelay();
+                    while (delay != 0) {
+                        wait(Math.max(0, delay)); // delay < 0: fila vazia, espera sem prazo
+                        delay = flushDelay();
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            synchronized (fileLock) {
+                try {
+                    writeQueued();
+                    if (fsyncPolicy != FsyncPolicy.SHUTDOWN) {
+                        sync();
+                    }
+                } catch (IOException e) {
+                    System.err.println("Erro ao gravar o log de comunidades: " + e.getMessage());
+                    synchronized (this) {
+                        failure = e;
+                        retryAt = System.currentTimeMillis() + Math.max(flushIntervalMillis, 100);
+                        notifyAll();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets how long the flusher must still wait: -1 if the queue is empty,
+     * 0 if it must write now.
+     */
+    private long flushDelay() {
+        if (queue.isEmpty()) {
+            return -1;
+        }
+        long now = System.currentTimeMillis();
+        if (failure != null && now < retryAt) {
+            return retryAt - now; // Apos uma falha, tenta de novo mais tarde
+        }
+        if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+            return 0;
+        }
+        long remaining = firstQueuedAt + flushIntervalMillis - now;
+        return remaining <= 0 ? 0 : remaining;
+    }
+
+    /**
+     * Writes every queued record with a single gathering write. Must hold {@link #fileLock}.
+     * If the write fails, the records go back to the front of the queue.
+     */
+    private void writeQueued() throws IOException {
+        List<byte[]> batch;
+        long batchEnd;
+        synchronized (this) {
+            if (queue.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(queue);
+            batchEnd = appended;
+            queue.clear();
+        }
+
+        try {
+            if (channel == null) {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+            long remaining = 0;
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = ByteBuffer.wrap(batch.get(i));
+                remaining += buffers[i].remaining();
+            }
+            while (remaining > 0) {
+                remaining -= channel.write(buffers);
+            }
+        } catch (IOException e) {
+            closeChannel();
+            synchronized (this) {
+                queue.addAll(0, batch);
+            }
+            throw e;
+        }
+
+        synchronized (this) {
+            failure = null;
+            pendingSync = batchEnd;
+        }
+    }
+
+    /**
+     * Forces the written records to the device. Must hold {@link #fileLock}.
+     */
+    private void sync() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+        }
+        synchronized (this) {
+            synced = Math.max(synced, pendingSync);
+            notifyAll();
+        }
+    }
+
+    private synchronized void awaitSynced(long ticket) {
+        try {
+            while (synced < ticket) {
+                if (failure != null) {
+                    throw new SystemOperationException(failure);
+                }
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SystemOperationException(e);
+        }
+    }
+
+    /**
+     * Forgets the queued records. Waiting callers are released, since the
+     * records were covered by a snapshot or the log is being deleted.
+     */
+    private synchronized void dropQueue() {
+        queue.clear();
+        synced = appended;
+        pendingSync = appended;
+        logicalSize = 0;
+        notifyAll();
+    }
+
+    private void closeChannel() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Erro ao fechar o log de comunidades: " + e.getMessage());
+        }
+        channel = null;
+    }
+
+    /**
+     * Applies one record to the in-memory repositories, mirroring what
+     * {@code CommunityService} did when the record was written.
+     */
+    static void apply(JournalRecord record, UserRepository userRepository,
+                      CommunityRepository communityRepository) {
+        String name = record.getField(0);
+        Community community = communityRepository.getCommunityByName(name);
+
+        switch (record.getType()) {
+            case CREATE_COMMUNITY -> {
+                if (community == null) {
+                    communityRepository.addCommunity(new Community(name, record.getField(1), record.getField(2)));
+                }
+                joinUser(userRepository.getUserByLogin(record.getField(2)), name);
+            }
+            case JOIN_COMMUNITY -> {
+                if (community != null) {
+                    community.addMember(record.getField(1));
+                }
+                joinUser(userRepository.getUserByLogin(record.getField(1)), name);
+            }
+            case LEAVE_COMMUNITY -> {
+                if (community != null) {
+                    community.removeMember(record.getField(1));
+                }
+                User user = userRepository.getUserByLogin(record.getField(1));
+                if (user != null) {
+                    user.removeCommunity(name);
+                }
+            }
+            case EDIT_DESCRIPTION -> {
+                if (community != null) {
+                    community.setDescription(record.getField(1));
+                }
+            }
+            case TRANSFER_MANAGEMENT -> {
+                if (community != null) {
+                    community.setManager(record.getField(1));
+                }
+            }
+            case DELETE_COMMUNITY -> communityRepository.removeCommunity(name);
+        }
+    }
+
+    private static void joinUser(User user, String name) {
+        if (user != null && !user.getCommunitiesJoined().contains(name)) {
+            user.addCommunity(name);
+        }
+    }
+
+    /**
+     * Serializes a record into a complete frame.
+     *
+     * @param record the record
+     * @return the frame, as written to the log
+     */
+    public static byte[] encode(JournalRecord record) {
+        try {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(payload);
+            data.writeByte(record.getType().getCode());
+            data.writeByte(record.getFieldCount());
+            for (int i = 0; i < record.getFieldCount(); i++) {
+                byte[] bytes = record.getField(i).getBytes(StandardCharsets.UTF_8);
+                data.writeInt(bytes.length);
+                data.write(bytes);
+            }
+            byte[] body = payload.toByteArray();
+
+            CRC32 crc = new CRC32();
+            crc.update(body);
+
+            ByteArrayOutputStream frame = new ByteArrayOutputStream(body.length + 8);
+            DataOutputStream out = new DataOutputStream(frame);
+            out.writeInt(body.length);
+            out.writeInt((int) crc.getValue());
+            out.write(body);
+            return frame.toByteArray();
+        } catch (IOException e) {
+            throw new SystemOperationException(e);
+        }
+    }
+
+    private static int encodedLength(JournalRecord record) {
+        int length = 2;
+        for (int i = 0; i < record.getFieldCount(); i++) {
+            length += 4 + record.getField(i).getBytes(StandardCharsets.UTF_8).length;
+        }
+        return length;
+    }
+
+    /**
+     * Reads the next frame, or returns null at the end of the log or at a torn frame.
+     */
+    private static JournalRecord readFrame(DataInputStream in) throws IOException {
+        int length;
+        int checksum;
+        byte[] body;
+        try {
+            length = in.readInt();
+            checksum = in.readInt();
+            if (length < 2 || length > MAX_RECORD_SIZE) {
+                return null;
+            }
+            body = new byte[length];
+            in.readFully(body);
+        } catch (EOFException e) {
+            return null; // Registro incompleto: fim do log
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        if ((int) crc.getValue() != checksum) {
+            return null; // Registro corrompido: ignora o restante
+        }
+
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(body));
+        JournalRecord.Type type = JournalRecord.Type.fromCode(data.readUnsignedByte());
+        String[] fields = new String[data.readUnsignedByte()];
+        for (int i = 0; i < fields.length; i++) {
+            byte[] bytes = new byte[data.readInt()];
+            data.readFully(bytes);
+            fields[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return new JournalRecord(type, fields);
+    }
+}
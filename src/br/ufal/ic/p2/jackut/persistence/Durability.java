@@ -0,0 +1,49 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.config.JackutConfig;
+
+/**
+ * How much the snapshot writes of {@link SnapshotStore} pay to survive a crash
+ * of the machine. Snapshots are always written to a temporary file that is
+ * then renamed over the old one, so a crash of the process never leaves a
+ * half-written snapshot; the modes only differ in when data is forced to the device.
+ */
+public enum Durability {
+
+    /**
+     * Nothing is forced. Intended for benchmarks and tests: a power loss may
+     * lose recent saves or leave an empty snapshot behind the rename.
+     */
+    NONE,
+
+    /**
+     * A new snapshot is forced before it is renamed, so the rename can only
+     * expose complete contents. Change sets and directory entries are synced
+     * together whenever the writer thread runs out of work, and always before a
+     * checkpoint trims the community journal.
+     */
+    BATCH,
+
+    /**
+     * Every snapshot, change set and rename is forced before the write is
+     * reported as done.
+     */
+    STRICT;
+
+    /** Name of the property that selects the mode. */
+    public static final String PROPERTY = "jackut.persistence.durability";
+
+    /**
+     * Gets the configured mode.
+     *
+     * @return the configured mode, {@link #BATCH} by default
+     */
+    public static Durability configured() {
+        String value = JackutConfig.getString(PROPERTY, BATCH.name());
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return BATCH;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.config.JackutConfig;
+
+/**
+ * When the community journal forces its writes to the storage device.
+ * Records are always queued and written by a background flusher; the policy
+ * only decides how long a record may stay in the queue and when {@code fsync}
+ * is called.
+ */
+public enum FsyncPolicy {
+
+    /**
+     * Every mutation waits until its record is written and synced. Records
+     * queued by concurrent callers while a sync is running share the next one.
+     */
+    ALWAYS,
+
+    /**
+     * Records are written and synced in one batch at most every
+     * {@code jackut.persistence.flushIntervalMillis} milliseconds.
+     */
+    INTERVAL,
+
+    /**
+     * Records are written in batches like {@link #INTERVAL}, but only synced
+     * when the journal is drained, e.g. by {@code encerrarSistema}.
+     */
+    SHUTDOWN;
+
+    /** Name of the property that selects the policy. */
+    public static final String PROPERTY = "jackut.persistence.fsync";
+
+    /** Name of the property with the batching interval, in milliseconds. */
+    public static final String FLUSH_INTERVAL_MILLIS = "jackut.persistence.flushIntervalMillis";
+
+    /**
+     * Gets the configured policy.
+     *
+     * @return the configured policy, {@link #INTERVAL} by default
+     */
+    public static FsyncPolicy configured() {
+        String value = JackutConfig.getString(PROPERTY, INTERVAL.name());
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return INTERVAL;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import java.util.Arrays;
+
+/**
+ * A single entry of the community journal.
+ * Each record describes one mutation with only the data needed to redo it,
+ * so its size depends on the change and not on the size of the network.
+ */
+public final class JournalRecord {
+
+    /**
+     * The kinds of mutation that can be journaled.
+     * The code of each type is written to disk and must never change.
+     */
+    public enum Type {
+        CREATE_COMMUNITY(1),
+        JOIN_COMMUNITY(2),
+        LEAVE_COMMUNITY(3),
+        EDIT_DESCRIPTION(4),
+        TRANSFER_MANAGEMENT(5),
+        DELETE_COMMUNITY(6);
+
+        private final int code;
+
+        Type(int code) {
+            this.code = code;
+        }
+
+        /**
+         * Gets the code persisted for this type.
+         *
+         * @return the type code
+         */
+        public int getCode() {
+            return code;
+        }
+
+        /**
+         * Finds the type associated with a persisted code.
+         *
+         * @param code the persisted code
+         * @return the matching type
+         * @throws IllegalArgumentException if the code is unknown
+         */
+        public static Type fromCode(int code) {
+            for (Type type : values()) {
+                if (type.code == code) {
+                    return type;
+                }
+            }
+            throw new IllegalArgumentException("Tipo de registro desconhecido: " + code);
+        }
+    }
+
+    private final Type type;
+    private final String[] fields;
+
+    /**
+     * Creates a record of the given type.
+     *
+     * @param type the kind of mutation
+     * @param fields the arguments of the mutation, in the order expected by the type
+     */
+    public JournalRecord(Type type, String... fields) {
+        this.type = type;
+        this.fields = fields;
+    }
+
+    /** Record for {@code createCommunity}. */
+    public static JournalRecord createCommunity(String name, String description, String manager) {
+        return new JournalRecord(Type.CREATE_COMMUNITY, name, description, manager);
+    }
+
+    /** Record for {@code joinCommunity}. */
+    public static JournalRecord joinCommunity(String name, String login) {
+        return new JournalRecord(Type.JOIN_COMMUNITY, name, login);
+    }
+
+    /** Record for {@code leaveCommunity}. */
+    public static JournalRecord leaveCommunity(String name, String login) {
+        return new JournalRecord(Type.LEAVE_COMMUNITY, name, login);
+    }
+
+    /** Record for {@code editCommunityDescription}. */
+    public static JournalRecord editDescription(String name, String description) {
+        return new JournalRecord(Type.EDIT_DESCRIPTION, name, description);
+    }
+
+    /** Record for {@code transferManagement}. */
+    public static JournalRecord transferManagement(String name, String newManager) {
+        return new JournalRecord(Type.TRANSFER_MANAGEMENT, name, newManager);
+    }
+
+    /** Record for {@code deleteCommunity}. */
+    public static JournalRecord deleteCommunity(String name) {
+        return new JournalRecord(Type.DELETE_COMMUNITY, name);
+    }
+
+    /**
+     * Gets the kind of mutation.
+     *
+     * @return the record type
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Gets one of the arguments of the mutation.
+     *
+     * @param index the position of the argument
+     * @return the argument value
+     */
+    public String getField(int index) {
+        return fields[index];
+    }
+
+    /**
+     * Gets the number of arguments of the mutation.
+     *
+     * @return the argument count
+     */
+    public int getFieldCount() {
+        return fields.length;
+    }
+
+    @Override
+    public String toString() {
+        return "JournalRecord{" + type + ", " + Arrays.toString(fields) + '}';
+    }
+}
@@ -0,0 +1,42 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+/**
+ * UTF-8 text that is still stored in a snapshot buffer.
+ * The bytes are only decoded into a {@link String} when the text is requested,
+ * so message bodies of a memory-mapped snapshot stay in the page cache until read.
+ */
+public final class MappedText implements Supplier<String> {
+
+    private final ByteBuffer buffer;
+    private final int offset;
+    private final int length;
+
+    /**
+     * Creates a reference to text stored in a buffer.
+     *
+     * @param buffer the buffer holding the snapshot
+     * @param offset the absolute offset of the first byte of the text
+     * @param length the number of UTF-8 bytes
+     */
+    public MappedText(ByteBuffer buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Decodes the text.
+     *
+     * @return the text
+     */
+    @Override
+    public String get() {
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes); // Leitura absoluta: nao altera a posicao do buffer compartilhado
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,46 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A decoded change set: the records removed and the records written again
+ * by one incremental save. Removals are applied before the changed records,
+ * so a key that was removed and created again ends up present.
+ *
+ * @param <T> the type of record (users or communities)
+ */
+public final class SnapshotChanges<T> {
+
+    private final List<String> removed;
+    private final Map<String, T> changed;
+
+    /**
+     * Creates a change set.
+     *
+     * @param removed the keys of the removed records
+     * @param changed the changed records indexed by key
+     */
+    public SnapshotChanges(List<String> removed, Map<String, T> changed) {
+        this.removed = removed;
+        this.changed = changed;
+    }
+
+    /**
+     * Gets the keys of the removed records.
+     *
+     * @return the removed keys
+     */
+    public List<String> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * Gets the records changed or created since the previous save.
+     *
+     * @return the changed records indexed by key
+     */
+    public Map<String, T> getChanged() {
+        return changed;
+    }
+}
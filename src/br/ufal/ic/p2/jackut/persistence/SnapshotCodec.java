@@ -0,0 +1,510 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.models.Community;
+import br.ufal.ic.p2.jackut.models.Recado;
+import br.ufal.ic.p2.jackut.models.User;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Purpose-built binary codec for the user and community snapshots.
+ *
+ * <p>Layout of a snapshot:</p>
+ * <pre>
+ * [int magic][byte version]
+ * [int generation]                 identifies the snapshot (users v3, communities v2)
+ * [varint n] n x [string]          string table (logins and community names)
+ * [varint m]                       number of records
+ * m x [varint login][varint size]  record index (user snapshots, version 2 only)
+ * m x [record]                     users or communities
+ * </pre>
+ *
+ * <p>The record index lets a user snapshot be opened as a {@link UserIndex}
+ * without decoding any user, so users can be hydrated one at a time.</p>
+ *
+ * <p>Logins and community names appear many times (friend, fan and idol lists,
+ * members, senders), so records refer to them by their varint index in the
+ * string table. Free text (names, descriptions, messages) is written inline as
+ * length-prefixed UTF-8.</p>
+ *
+ * <p>Decoding works on any {@link ByteBuffer}. When decoding a memory-mapped
+ * file, recado bodies can be left in the mapping and decoded on first read.</p>
+ *
+ * <p>Incremental saves are encoded as change sets: the keys removed since the
+ * last save followed by a snapshot (generation 0) holding only the changed
+ * records. See {@link SnapshotStore}.</p>
+ */
+public final class SnapshotCodec {
+
+    /** Magic number of a user snapshot ("JKUS"). */
+    public static final int USERS_MAGIC = 0x4A4B5553;
+    /** Magic number of a community snapshot ("JKCM"). */
+    public static final int COMMUNITIES_MAGIC = 0x4A4B434D;
+    /** Current version of the user snapshot format. */
+    public static final int USERS_VERSION = 3;
+    /** Current version of the community snapshot format. */
+    public static final int COMMUNITIES_VERSION = 2;
+
+    private SnapshotCodec() {
+    }
+
+    /**
+     * Encodes the map of users.
+     *
+     * @param users the users indexed by login
+     * @return the encoded snapshot
+     */
+    public static byte[] encodeUsers(Map<String, User> users) {
+        return encodeUsers(users.values(), null, 0);
+    }
+
+    /**
+     * Encodes resident users together with the users that were never hydrated
+     * from a previous snapshot. The records of the latter are copied byte for byte:
+     * the string table of the previous snapshot is kept as the prefix of the new
+     * one, so their login indexes remain valid.
+     *
+     * @param resident the users held in memory
+     * @param cold the users still stored in the previous snapshot, or null
+     * @param generation the generation stamped in the header
+     * @return the encoded snapshot
+     */
+    public static byte[] encodeUsers(Collection<User> resident, UserIndex cold, int generation) {
+        StringTable table = cold == null ? new StringTable() : new StringTable(cold.table());
+        SnapshotWriter index = new SnapshotWriter();
+        SnapshotWriter body = new SnapshotWriter();
+
+        for (User user : resident) {
+            int start = body.size();
+            writeUser(body, table, user);
+            index.writeVarInt(table.indexOf(user.getLogin()));
+            index.writeVarInt(body.size() - start);
+        }
+        int count = resident.size();
+        if (cold != null) {
+            count += cold.copyRecords(index, body);
+        }
+
+        SnapshotWriter out = header(USERS_MAGIC, USERS_VERSION, generation, table, index.size() + body.size());
+        out.writeVarInt(count);
+        out.writeBytes(index);
+        out.writeBytes(body);
+        return out.toByteArray();
+    }
+
+    /**
+     * Opens a user snapshot without decoding any user.
+     *
+     * @param buffer the encoded snapshot, positioned at its first byte; it must stay
+     *               valid while users are hydrated from the index
+     * @return the index of the users, or null if the snapshot predates the record index
+     * @throws IllegalStateException if the data is not a supported user snapshot
+     */
+    public static UserIndex openUsers(ByteBuffer buffer) {
+        SnapshotReader in = new SnapshotReader(buffer);
+        int version = readVersion(in, USERS_MAGIC, USERS_VERSION);
+        if (version < 2) {
+            return null;
+        }
+        skipGeneration(in, version >= 3);
+        return readIndex(in, readTable(in), true);
+    }
+
+    /**
+     * Reads the record index that follows the string table of a user snapshot.
+     */
+    private static UserIndex readIndex(SnapshotReader in, String[] table, boolean lazyMessages) {
+        int count = in.readVarInt();
+        int[] logins = new int[count];
+        int[] sizes = new int[count];
+        for (int i = 0; i < count; i++) {
+            logins[i] = in.readVarInt();
+            sizes[i] = in.readVarInt();
+        }
+        return new UserIndex(in.buffer(), table, logins, sizes, in.position(), lazyMessages);
+    }
+
+    /**
+     * Decodes a map of users.
+     *
+     * @param bytes the encoded snapshot
+     * @return the users indexed by login
+     * @throws IllegalStateException if the data is not a supported user snapshot
+     */
+    public static Map<String, User> decodeUsers(byte[] bytes) {
+        return decodeUsers(ByteBuffer.wrap(bytes), false);
+    }
+
+    /**
+     * Decodes a map of users from a buffer.
+     * Snapshots with a record index are decoded in parallel chunks (see
+     * {@link UserIndex#hydrateAll()}).
+     *
+     * @param buffer the encoded snapshot, positioned at its first byte
+     * @param lazyMessages true to keep recado bodies in the buffer until they are read;
+     *                     the buffer must then stay valid for the lifetime of the users
+     * @return the users indexed by login
+     * @throws IllegalStateException if the data is not a supported user snapshot
+     */
+    public static Map<String, User> decodeUsers(ByteBuffer buffer, boolean lazyMessages) {
+        SnapshotReader in = new SnapshotReader(buffer);
+        int version = readVersion(in, USERS_MAGIC, USERS_VERSION);
+        skipGeneration(in, version >= 3);
+        String[] table = readTable(in);
+
+        if (version >= 2) {
+            // O indice da a posicao de cada registro, entao eles podem ser decodificados em paralelo
+            List<User> decoded = readIndex(in, table, lazyMessages).hydrateAll();
+            Map<String, User> users = new HashMap<>(Math.max(16, decoded.size() * 4 / 3 + 1));
+            for (User user : decoded) {
+                users.put(user.getLogin(), user);
+            }
+            return users;
+        }
+
+        int count = in.readVarInt();
+        Map<String, User> users = new HashMap<>(Math.max(16, count * 4 / 3 + 1));
+        for (int i = 0; i < count; i++) {
+            User user = readUser(in, table, lazyMessages);
+            users.put(user.getLogin(), user);
+        }
+        return users;
+    }
+
+    /**
+     * Encodes the map of communities.
+     *
+     * @param communities the communities indexed by name
+     * @return the encoded snapshot
+     */
+    public static byte[] encodeCommunities(Map<String, Community> communities) {
+        return encodeCommunities(communities.values(), 0);
+    }
+
+    /**
+     * Encodes communities, keeping the iteration order of the collection.
+     *
+     * @param communities the communities to encode
+     * @param generation the generation stamped in the header
+     * @return the encoded snapshot
+     */
+    public static byte[] encodeCommunities(Collection<Community> communities, int generation) {
+        StringTable table = new StringTable();
+        SnapshotWriter body = new SnapshotWriter();
+
+        body.writeVarInt(communities.size());
+        for (Community community : communities) {
+            body.writeVarInt(table.indexOf(community.getName()));
+            body.writeString(community.getDescription());
+            body.writeVarInt(table.indexOf(community.getManager()));
+            writeIndexes(body, table, community.getMemberList());
+            writeStrings(body, community.getMessages());
+        }
+
+        SnapshotWriter out = header(COMMUNITIES_MAGIC, COMMUNITIES_VERSION, generation, table, body.size());
+        out.writeBytes(body);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a map of communities, keeping their original order.
+     *
+     * @param bytes the encoded snapshot
+     * @return the communities indexed by name
+     * @throws IllegalStateException if the data is not a supported community snapshot
+     */
+    public static Map<String, Community> decodeCommunities(byte[] bytes) {
+        return decodeCommunities(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Decodes a map of communities from a buffer, keeping their original order.
+     *
+     * @param buffer the encoded snapshot, positioned at its first byte
+     * @return the communities indexed by name
+     * @throws IllegalStateException if the data is not a supported community snapshot
+     */
+    public static Map<String, Community> decodeCommunities(ByteBuffer buffer) {
+        SnapshotReader in = new SnapshotReader(buffer);
+        int version = readVersion(in, COMMUNITIES_MAGIC, COMMUNITIES_VERSION);
+        skipGeneration(in, version >= 2);
+        String[] table = readTable(in);
+
+        int count = in.readVarInt();
+        Map<String, Community> communities = new LinkedHashMap<>(Math.max(16, count * 4 / 3 + 1));
+        for (int i = 0; i < count; i++) {
+            String name = table[in.readVarInt()];
+            String description = in.readString();
+            String manager = table[in.readVarInt()];
+            List<String> members = readIndexes(in, table);
+            List<String> messages = readStrings(in);
+            communities.put(name, new Community(name, description, manager, members, messages));
+        }
+        return communities;
+    }
+
+    /**
+     * Reads the generation of a binary snapshot without moving the buffer position.
+     *
+     * @param buffer the encoded snapshot, positioned at its first byte
+     * @return the generation, or 0 if the snapshot predates generations
+     * @throws IllegalStateException if the data is not a supported snapshot
+     */
+    public static int generation(ByteBuffer buffer) {
+        SnapshotReader in = new SnapshotReader(buffer.duplicate());
+        int magic = in.readInt();
+        int version = in.readByte();
+        if (magic == USERS_MAGIC) {
+            return version >= 3 ? in.readInt() : 0;
+        }
+        if (magic == COMMUNITIES_MAGIC) {
+            return version >= 2 ? in.readInt() : 0;
+        }
+        throw new IllegalStateException("Arquivo de snapshot invlido.");
+    }
+
+    /**
+     * Encodes the users changed and removed since the last save.
+     *
+     * @param changed the users to write again
+     * @param removed the logins of the removed users
+     * @return the encoded change set
+     */
+    public static byte[] encodeUserChanges(Collection<User> changed, Collection<String> removed) {
+        return changes(removed, encodeUsers(changed, null, 0));
+    }
+
+    /**
+     * Decodes a change set written by {@link #encodeUserChanges(Collection, Collection)}.
+     *
+     * @param buffer the encoded change set, positioned at its first byte
+     * @return the removed logins and the changed users
+     */
+    public static SnapshotChanges<User> decodeUserChanges(ByteBuffer buffer) {
+        SnapshotReader in = new SnapshotReader(buffer);
+        List<String> removed = readStrings(in);
+        return new SnapshotChanges<>(removed, decodeUsers(in.buffer(), false));
+    }
+
+    /**
+     * Encodes the communities changed and removed since the last save.
+     *
+     * @param changed the communities to write again
+     * @param removed the names of the removed communities
+     * @return the encoded change set
+     */
+    public static byte[] encodeCommunityChanges(Collection<Community> changed, Collection<String> removed) {
+        return changes(removed, encodeCommunities(changed, 0));
+    }
+
+    /**
+     * Decodes a change set written by {@link #encodeCommunityChanges(Collection, Collection)}.
+     *
+     * @param buffer the encoded change set, positioned at its first byte
+     * @return the removed names and the changed communities
+     */
+    public static SnapshotChanges<Community> decodeCommunityChanges(ByteBuffer buffer) {
+        SnapshotReader in = new SnapshotReader(buffer);
+        List<String> removed = readStrings(in);
+        return new SnapshotChanges<>(removed, decodeCommunities(in.buffer()));
+    }
+
+    private static byte[] changes(Collection<String> removed, byte[] snapshot) {
+        SnapshotWriter out = new SnapshotWriter(snapshot.length + removed.size() * 16 + 8);
+        writeStrings(out, removed);
+        out.writeBytes(snapshot);
+        return out.toByteArray();
+    }
+
+
+    private static void writeUser(SnapshotWriter out, StringTable table, User user) {
+        out.writeVarInt(table.indexOf(user.getLogin()));
+        out.writeString(user.getName());
+        out.writeString(user.getPassword());
+        writeIndexes(out, table, user.getFriendsList());
+        writeIndexes(out, table, user.getFriendSolicitations());
+
+        out.writeVarInt(user.getAttributes().size());
+        for (Map.Entry<String, String> attribute : user.getAttributes().entrySet()) {
+            out.writeString(attribute.getKey());
+            out.writeString(attribute.getValue());
+        }
+
+        out.writeVarInt(user.getRecados().size());
+        for (Recado recado : user.getRecados()) {
+            out.writeVarInt(table.indexOf(recado.getRemetente()));
+            out.writeVarInt(table.indexOf(recado.getDestinatario()));
+            out.writeString(recado.getMensagem());
+        }
+
+        writeIndexes(out, table, user.getCommunitiesJoined());
+        writeStrings(out, user.getCommunitiesMessages());
+        writeIndexes(out, table, user.getFans());
+        writeIndexes(out, table, user.getIdols());
+        writeIndexes(out, table, user.getCrushes());
+        writeIndexes(out, table, user.getEnemies());
+    }
+
+    static User readUser(SnapshotReader in, String[] table, boolean lazyMessages) {
+        String login = table[in.readVarInt()];
+        String name = in.readString();
+        String password = in.readString();
+        User user = new User(name, login, password);
+
+        readIndexes(in, table, user.getFriendsList());
+        readIndexes(in, table, user.getFriendSolicitations());
+
+        int attributes = in.readVarInt();
+        for (int i = 0; i < attributes; i++) {
+            user.getAttributes().put(in.readString(), in.readString());
+        }
+
+        int recados = in.readVarInt();
+        for (int i = 0; i < recados; i++) {
+            String remetente = table[in.readVarInt()];
+            String destinatario = table[in.readVarInt()];
+            user.getRecados().add(lazyMessages
+                    ? new Recado(remetente, readMappedText(in), destinatario)
+                    : new Recado(remetente, in.readString(), destinatario));
+        }
+
+        readIndexes(in, table, user.getCommunitiesJoined());
+        int communityMessages = in.readVarInt();
+        for (int i = 0; i < communityMessages; i++) {
+            user.addCommunityMessage(in.readString());
+        }
+        readIndexes(in, table, user.getFans());
+        readIndexes(in, table, user.getIdols());
+        readIndexes(in, table, user.getCrushes());
+        readIndexes(in, table, user.getEnemies());
+        user.clearDirty(); // Acabou de ser lido: nada a gravar
+        return user;
+    }
+
+    /**
+     * Skips over a string, returning a reference to its bytes instead of decoding it.
+     */
+    private static MappedText readMappedText(SnapshotReader in) {
+        int length = in.readVarInt() - 1;
+        if (length < 0) {
+            return null;
+        }
+        int offset = in.position();
+        in.position(offset + length);
+        return new MappedText(in.buffer(), offset, length);
+    }
+
+    /**
+     * Starts a snapshot with its magic number, version, generation and string table.
+     */
+    private static SnapshotWriter header(int magic, int version, int generation, StringTable table, int bodySize) {
+        SnapshotWriter out = new SnapshotWriter(bodySize + table.estimatedSize() + 16);
+        out.writeInt(magic);
+        out.writeByte(version);
+        out.writeInt(generation);
+        out.writeVarInt(table.strings.size());
+        for (String value : table.strings) {
+            out.writeString(value);
+        }
+        return out;
+    }
+
+    private static int readVersion(SnapshotReader in, int expectedMagic, int currentVersion) {
+        if (in.readInt() != expectedMagic) {
+            throw new IllegalStateException("Arquivo de snapshot invlido.");
+        }
+        int version = in.readByte();
+        if (version < 1 || version > currentVersion) {
+            throw new IllegalStateException("Verso de snapshot no suportada: " + version);
+        }
+        return version;
+    }
+
+    private static void skipGeneration(SnapshotReader in, boolean stamped) {
+        if (stamped) {
+            in.readInt();
+        }
+    }
+
+
+    private static String[] readTable(SnapshotReader in) {
+        String[] table = new String[in.readVarInt()];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = in.readString();
+        }
+        return table;
+    }
+
+    private static void writeIndexes(SnapshotWriter out, StringTable table, Collection<String> values) {
+        out.writeVarInt(values.size());
+        for (String value : values) {
+            out.writeVarInt(table.indexOf(value));
+        }
+    }
+
+    private static List<String> readIndexes(SnapshotReader in, String[] table) {
+        List<String> values = new ArrayList<>();
+        readIndexes(in, table, values);
+        return values;
+    }
+
+    private static void readIndexes(SnapshotReader in, String[] table, Collection<String> target) {
+        int count = in.readVarInt();
+        for (int i = 0; i < count; i++) {
+            target.add(table[in.readVarInt()]);
+        }
+    }
+
+    private static void writeStrings(SnapshotWriter out, Collection<String> values) {
+        out.writeVarInt(values.size());
+        for (String value : values) {
+            out.writeString(value);
+        }
+    }
+
+    private static List<String> readStrings(SnapshotReader in) {
+        int count = in.readVarInt();
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(in.readString());
+        }
+        return values;
+    }
+
+    /**
+     * Interns logins and community names, assigning each distinct value an index.
+     */
+    private static final class StringTable {
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        private int estimatedSize;
+
+        StringTable() {
+        }
+
+        /**
+         * Creates a table whose first entries are the given strings, at the same indexes.
+         */
+        StringTable(String[] initial) {
+            for (String value : initial) {
+                indexOf(value);
+            }
+        }
+
+        int indexOf(String value) {
+            Integer index = indexes.get(value);
+            if (index == null) {
+                index = strings.size();
+                indexes.put(value, index);
+                strings.add(value);
+                estimatedSize += (value == null ? 0 : value.length()) + 2;
+            }
+            return index;
+        }
+
+        int estimatedSize() {
+            return estimatedSize;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.config.JackutConfig;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Optional compression of the snapshot files written by {@link SnapshotStore}.
+ *
+ * <p>A compressed snapshot is framed as
+ * {@code [int magic "JKZP"][byte codec][int uncompressed size][data]}; files
+ * without the frame are read as they are, so compression can be switched on or
+ * off at any time. The codec is chosen with {@code jackut.persistence.compression}
+ * and its level with {@code jackut.persistence.compressionLevel}.</p>
+ *
+ * <p>A compressed snapshot is inflated into the heap when it is opened, so it
+ * cannot be memory-mapped: it trades the mapping for less disk usage and I/O,
+ * which pays off on slow volumes. Change sets are small and are never compressed.</p>
+ */
+public enum SnapshotCompression {
+
+    /** Snapshots are written as they are encoded (the default). */
+    NONE(0) {
+        @Override
+        byte[] compress(byte[] data, int level) {
+            return data;
+        }
+
+        @Override
+        void decompress(ByteBuffer data, byte[] target) {
+            data.get(target);
+        }
+    },
+
+    /** Snapshots are compressed with raw DEFLATE from {@code java.util.zip}. */
+    DEFLATE(1) {
+        @Override
+        byte[] compress(byte[] data, int level) {
+            Deflater deflater = new Deflater(level, true);
+            try {
+                deflater.setInput(data);
+                deflater.finish();
+                ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+                byte[] block = new byte[BLOCK_SIZE];
+                while (!deflater.finished()) {
+                    out.write(block, 0, deflater.deflate(block));
+                }
+                return out.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        @Override
+        void decompress(ByteBuffer data, byte[] target) throws DataFormatException {
+            Inflater inflater = new Inflater(true);
+            try {
+                // Le direto do arquivo mapeado, sem copiar os dados comprimidos para o heap
+                inflater.setInput(data);
+                int filled = 0;
+                while (filled < target.length) {
+                    int inflated = inflater.inflate(target, filled, target.length - filled);
+                    if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                        throw new DataFormatException("Snapshot comprimido truncado.");
+                    }
+                    filled += inflated;
+                }
+            } finally {
+                inflater.end();
+            }
+        }
+    };
+
+    /** Name of the property that selects the codec used when saving. */
+    public static final String PROPERTY = "jackut.persistence.compression";
+
+    /** Name of the property with the compression level (1 = fastest, 9 = smallest). */
+    public static final String LEVEL = "jackut.persistence.compressionLevel";
+
+    /** Magic number of a compressed snapshot ("JKZP"). */
+    public static final int MAGIC = 0x4A4B5A50;
+
+    private static final int HEADER_SIZE = 9;
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private final int id;
+
+    SnapshotCompression(int id) {
+        this.id = id;
+    }
+
+    /**
+     * Gets the codec configured for new snapshots.
+     *
+     * @return the configured codec, {@link #NONE} by default
+     */
+    public static SnapshotCompression configured() {
+        String value = JackutConfig.getString(PROPERTY, NONE.name());
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return NONE;
+        }
+    }
+
+    /**
+     * Gets the configured compression level.
+     *
+     * @return the configured level, {@link Deflater#BEST_SPEED} by default
+     */
+    public static int configuredLevel() {
+        int level = JackutConfig.getInt(LEVEL, Deflater.BEST_SPEED);
+        return Math.max(Deflater.BEST_SPEED, Math.min(Deflater.BEST_COMPRESSION, level));
+    }
+
+    /**
+     * Compresses an encoded snapshot and frames it.
+     *
+     * @param snapshot the encoded snapshot
+     * @param level the compression level
+     * @return the contents of the snapshot file; the snapshot itself with {@link #NONE}
+     */
+    public byte[] encode(byte[] snapshot, int level) {
+        if (this == NONE) {
+            return snapshot;
+        }
+        byte[] data = compress(snapshot, level);
+        ByteBuffer framed = ByteBuffer.allocate(HEADER_SIZE + data.length);
+        framed.putInt(MAGIC);
+        framed.put((byte) id);
+        framed.putInt(snapshot.length);
+        framed.put(data);
+        return framed.array();
+    }
+
+    /**
+     * Gets the encoded snapshot stored in a snapshot file, inflating it if it is compressed.
+     *
+     * @param file the contents of the snapshot file, positioned at its first byte
+     * @return the file itself if it is not compressed, or a heap buffer with the inflated snapshot
+     * @throws IllegalStateException if the file is compressed with an unknown codec or is corrupted
+     */
+    public static ByteBuffer decode(ByteBuffer file) {
+        int start = file.position();
+        if (file.remaining() < HEADER_SIZE || file.getInt(start) != MAGIC) {
+            return file;
+        }
+
+        SnapshotCompression codec = byId(file.get(start + 4));
+        int size = file.getInt(start + 5);
+        if (size < 0) {
+            throw new IllegalStateException("Snapshot comprimido invlido.");
+        }
+        ByteBuffer data = file.duplicate();
+        data.position(start + HEADER_SIZE);
+        byte[] snapshot = new byte[size];
+        try {
+            codec.decompress(data, snapshot);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Snapshot comprimido corrompido: " + e.getMessage(), e);
+        }
+        return ByteBuffer.wrap(snapshot);
+    }
+
+    private static SnapshotCompression byId(int id) {
+        for (SnapshotCompression codec : values()) {
+            if (codec.id == id) {
+                return codec;
+            }
+        }
+        throw new IllegalStateException("Compresso de snapshot no suportada: " + id);
+    }
+
+    /**
+     * Compresses the whole snapshot.
+     */
+    abstract byte[] compress(byte[] data, int level);
+
+    /**
+     * Fills the target with the uncompressed snapshot.
+     */
+    abstract void decompress(ByteBuffer data, byte[] target) throws DataFormatException;
+}
@@ -0,0 +1,248 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.config.JackutConfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * File helpers shared by the repositories to read and write snapshot files.
+ *
+ * <p>Snapshots are read through a read-only memory mapping, so decoding works
+ * directly on the page cache instead of first copying the file into the heap.
+ * Because decoded objects may keep referring to the mapping (see
+ * {@link MappedText}), a snapshot file is never rewritten in place: new
+ * snapshots are written to a temporary file that then replaces the old one.
+ * The old mapping keeps pointing to the previous file contents.</p>
+ *
+ * <p>That relies on POSIX rename semantics. Windows refuses to replace or
+ * delete a file while it is mapped, so there the old file is first renamed
+ * aside (which it allows) and removed once its mapping is gone; see
+ * {@link #replace(Path, byte[], boolean)} and {@link #recover(Path)}.</p>
+ */
+public final class SnapshotFiles {
+
+    /** Enables memory-mapped loading; when false the file is read into the heap. */
+    public static final String MMAP_ENABLED = "jackut.persistence.mmap";
+
+    /** Marks the old files renamed aside because they could not be replaced while mapped. */
+    private static final String RETIRED = ".old-";
+
+    // So procura arquivos afastados depois que algum foi afastado nesta execucao
+    private static volatile boolean retiredAny;
+
+    private SnapshotFiles() {
+    }
+
+    /**
+     * Checks whether snapshots should be loaded through a memory mapping.
+     *
+     * @return true if memory-mapped loading is enabled (the default)
+     */
+    public static boolean mmapEnabled() {
+        return JackutConfig.getBoolean(MMAP_ENABLED, true);
+    }
+
+    /**
+     * Opens a snapshot file for decoding.
+     *
+     * @param path the snapshot file
+     * @return a buffer positioned at the start of the file, memory-mapped when enabled
+     * @throws IOException if the file cannot be read
+     */
+    public static ByteBuffer open(Path path) throws IOException {
+        if (!mmapEnabled()) {
+            return ByteBuffer.wrap(Files.readAllBytes(path));
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // O mapeamento continua valido depois que o canal e fechado
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Reads a snapshot buffer as a stream, e.g. to deserialize a Java-serialized snapshot.
+     *
+     * @param buffer the snapshot, positioned at its first byte; its position is not changed
+     * @return a stream over the remaining bytes of the buffer
+     */
+    public static InputStream stream(ByteBuffer buffer) {
+        ByteBuffer data = buffer.duplicate();
+        return new InputStream() {
+            @Override
+            public int read() {
+                return data.hasRemaining() ? data.get() & 0xFF : -1;
+            }
+
+            @Override
+            public int read(byte[] target, int offset, int length) {
+                if (length == 0) {
+                    return 0;
+                }
+                if (!data.hasRemaining()) {
+                    return -1;
+                }
+                int count = Math.min(length, data.remaining());
+                data.get(target, offset, count);
+                return count;
+            }
+        };
+    }
+
+    /**
+     * Replaces a snapshot file with new contents without modifying the old file,
+     * so that existing mappings of it stay valid.
+     *
+     * @param path the snapshot file
+     * @param contents the new contents
+     * @throws IOException if the file cannot be written
+     */
+    public static void replace(Path path, byte[] contents) throws IOException {
+        replace(path, contents, false);
+    }
+
+    /**
+     * Replaces a snapshot file with new contents: they are written to a temporary
+     * file that is atomically renamed over the old one.
+     *
+     * <p>If the old file cannot be replaced because it is still mapped (Windows),
+     * the complete new contents are renamed to {@code <path>.new}, the old file is
+     * renamed aside and the new one takes its place. A crash in between leaves the
+     * {@code .new} file, which {@link #recover(Path)} puts in place. Old files
+     * renamed aside are deleted as soon as nothing maps them anymore.</p>
+     *
+     * @param path the snapshot file
+     * @param contents the new contents
+     * @param force true to force the temporary file to the device before the rename,
+     *              so the rename can never expose incomplete contents after a power loss
+     * @throws IOException if the file cannot be written
+     */
+    public static void replace(Path path, byte[] contents, boolean force) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(contents);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (force) {
+                channel.force(true);
+            }
+        }
+        try {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            throw e;
+        } catch (FileSystemException e) {
+            if (!Files.exists(path)) {
+                throw e;
+            }
+            // No Windows o arquivo mapeado nao pode ser substituido, mas pode ser renomeado
+            Path next = path.resolveSibling(path.getFileName() + ".new");
+            Files.move(temporary, next, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            retire(path);
+            Files.move(next, path, StandardCopyOption.ATOMIC_MOVE);
+        }
+        if (retiredAny) {
+            deleteRetired(path);
+        }
+    }
+
+    /**
+     * Deletes a snapshot file. A file that cannot be deleted because it is still
+     * mapped (Windows) is renamed aside and deleted later.
+     *
+     * @param path the snapshot file
+     * @throws IOException if the file can be neither deleted nor renamed
+     */
+    public static void delete(Path path) throws IOException {
+        try {
+            Files.deleteIfExists(path);
+        } catch (FileSystemException e) {
+            retire(path);
+        }
+        if (retiredAny) {
+            deleteRetired(path);
+        }
+    }
+
+    /**
+     * Finishes a replacement interrupted by a crash (see
+     * {@link #replace(Path, byte[], boolean)}) and deletes the old files that are
+     * no longer mapped. Must be called before the file is opened.
+     *
+     * @param path the snapshot file
+     * @throws IOException if the replacement cannot be finished
+     */
+    public static void recover(Path path) throws IOException {
+        Path next = path.resolveSibling(path.getFileName() + ".new");
+        if (Files.exists(next)) {
+            // Nada mapeia o arquivo antes da carga, entao a troca direta funciona em qualquer sistema
+            Files.move(next, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        deleteRetired(path);
+    }
+
+    private static void retire(Path path) throws IOException {
+        retiredAny = true;
+        Files.move(path, path.resolveSibling(path.getFileName() + RETIRED + System.nanoTime()),
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void deleteRetired(Path path) throws IOException {
+        for (Path retired : retired(path)) {
+            try {
+                Files.deleteIfExists(retired);
+            } catch (FileSystemException e) {
+                // Ainda mapeado: sera apagado numa proxima substituicao
+            }
+        }
+    }
+
+    private static List<Path> retired(Path path) throws IOException {
+        List<Path> files = new ArrayList<>();
+        Path directory = path.toAbsolutePath().getParent();
+        String prefix = path.getFileName() + RETIRED;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory,
+                entry -> entry.getFileName().toString().startsWith(prefix))) {
+            for (Path entry : entries) {
+                files.add(entry);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Forces a file, or the entries of a directory, to the device.
+     * Directories cannot be synced on every platform; there the call does nothing.
+     *
+     * @param path the file or directory
+     * @throws IOException if a file cannot be synced
+     */
+    public static void sync(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                channel.force(true);
+            } catch (IOException e) {
+                // Sistemas como o Windows nao permitem abrir diretorios
+            }
+            return;
+        }
+        if (Files.exists(path)) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+        }
+    }
+}
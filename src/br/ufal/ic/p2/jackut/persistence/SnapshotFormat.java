@@ -0,0 +1,66 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.config.JackutConfig;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The on-disk formats supported for the snapshot files.
+ * Loading detects the format from the first bytes of the file, so files
+ * written in either format can always be read back.
+ */
+public enum SnapshotFormat {
+
+    /** Default Java serialization of the whole map (the original format). */
+    JAVA,
+
+    /** Compact versioned binary format written by {@link SnapshotCodec}. */
+    BINARY;
+
+    /** Name of the property that selects the format used when saving. */
+    public static final String PROPERTY = "jackut.persistence.format";
+
+    private static final int JAVA_STREAM_MAGIC = 0xACED;
+
+    /**
+     * Gets the format configured for new snapshots.
+     *
+     * @return the configured format, {@link #BINARY} by default
+     */
+    public static SnapshotFormat configured() {
+        String value = JackutConfig.getString(PROPERTY, BINARY.name());
+        try {
+            return valueOf(value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return BINARY;
+        }
+    }
+
+    /**
+     * Detects the format of an encoded snapshot.
+     *
+     * @param bytes the first bytes of the snapshot (at least 4)
+     * @return the detected format
+     */
+    public static SnapshotFormat detect(byte[] bytes) {
+        if (bytes.length >= 2 && ((bytes[0] & 0xFF) << 8 | (bytes[1] & 0xFF)) == JAVA_STREAM_MAGIC) {
+            return JAVA;
+        }
+        return BINARY;
+    }
+
+    /**
+     * Detects the format of an encoded snapshot without moving the buffer position.
+     *
+     * @param buffer the snapshot, positioned at its first byte
+     * @return the detected format
+     */
+    public static SnapshotFormat detect(ByteBuffer buffer) {
+        int start = buffer.position();
+        if (buffer.remaining() >= 2
+                && ((buffer.get(start) & 0xFF) << 8 | (buffer.get(start + 1) & 0xFF)) == JAVA_STREAM_MAGIC) {
+            return JAVA;
+        }
+        return BINARY;
+    }
+}
@@ -0,0 +1,125 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes the primitives written by {@link SnapshotWriter}.
+ * Works over any {@link ByteBuffer}, so the same decoder serves
+ * heap arrays and memory-mapped files.
+ */
+public class SnapshotReader {
+
+    private final ByteBuffer buffer;
+
+    /**
+     * Creates a reader over a byte array.
+     *
+     * @param bytes the encoded snapshot
+     */
+    public SnapshotReader(byte[] bytes) {
+        this(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Creates a reader over a buffer, starting at its current position.
+     *
+     * @param buffer the encoded snapshot
+     */
+    public SnapshotReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Reads a single unsigned byte.
+     *
+     * @return the byte value
+     */
+    public int readByte() {
+        return buffer.get() & 0xFF;
+    }
+
+    /**
+     * Reads a big-endian 32-bit integer.
+     *
+     * @return the value read
+     */
+    public int readInt() {
+        return buffer.getInt();
+    }
+
+    /**
+     * Reads an unsigned varint.
+     *
+     * @return the value read
+     * @throws IllegalStateException if the varint is longer than 5 bytes
+     */
+    public int readVarInt() {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Varint malformado no snapshot.");
+    }
+
+    /**
+     * Reads a nullable length-prefixed UTF-8 string.
+     *
+     * @return the string, or null
+     */
+    public String readString() {
+        int length = readVarInt() - 1;
+        if (length < 0) {
+            return null;
+        }
+        if (buffer.hasArray()) {
+            int offset = buffer.arrayOffset() + buffer.position();
+            buffer.position(buffer.position() + length);
+            return new String(buffer.array(), offset, length, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Skips a string without decoding it.
+     */
+    public void skipString() {
+        int length = readVarInt() - 1;
+        if (length > 0) {
+            buffer.position(buffer.position() + length);
+        }
+    }
+
+    /**
+     * Gets the current offset in the buffer.
+     *
+     * @return the read position
+     */
+    public int position() {
+        return buffer.position();
+    }
+
+    /**
+     * Moves to the given offset in the buffer.
+     *
+     * @param position the new read position
+     */
+    public void position(int position) {
+        buffer.position(position);
+    }
+
+    /**
+     * Gets the underlying buffer.
+     *
+     * @return the buffer being read
+     */
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+}
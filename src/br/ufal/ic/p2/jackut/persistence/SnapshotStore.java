@@ -0,0 +1,378 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.config.JackutConfig;
+import br.ufal.ic.p2.jackut.exceptions.SystemOperationException;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Updatable on-disk storage of one repository: a full snapshot plus an
+ * append-only file of change sets.
+ *
+ * <p>A save normally appends only the records that changed since the previous
+ * save (see {@link SnapshotCodec#encodeUserChanges}), so its cost depends on the
+ * edits made and not on the size of the repository. When the change file grows
+ * past {@value #DEFAULT_COMPACT_PERCENT}% of the snapshot (configurable with
+ * {@code jackut.persistence.compactPercent}), the next save writes a full
+ * snapshot instead and the change file is deleted.</p>
+ *
+ * <p>Every full snapshot gets a new random generation, stamped in its header
+ * and in each change set appended after it. Change sets of another generation
+ * are ignored on load, so a change file left behind by a crash between
+ * replacing the snapshot and deleting the file is never applied to the newer
+ * snapshot. Each change frame is {@code [int length][int crc32][int generation][changes]};
+ * a torn frame at the end of the file is discarded.</p>
+ *
+ * <p>The decision between a change set and a full snapshot is taken on the
+ * calling thread, but the disk writes of every store are executed in order on a
+ * single background thread. Synchronous saves simply wait for their write, so
+ * they can never be overtaken by an older checkpoint still being written.</p>
+ *
+ * <p>When the writes are forced to the device is selected with
+ * {@code jackut.persistence.durability} (see {@link Durability}). In
+ * {@link Durability#BATCH} mode the files written since the last sync are
+ * forced together once the writer thread has no more queued work, so a burst of
+ * saves shares a single sync.</p>
+ *
+ * <p>Full snapshots may be compressed (see {@link SnapshotCompression}); the
+ * compression runs on the writer thread, so it never delays the caller.</p>
+ */
+public final class SnapshotStore {
+
+    /** Size of the change file, in percent of the snapshot, that triggers a full snapshot. */
+    public static final String COMPACT_PERCENT = "jackut.persistence.compactPercent";
+
+    private static final int DEFAULT_COMPACT_PERCENT = 50;
+
+    // Limite de tamanho de um conjunto de alteracoes, usado para detectar frames corrompidos
+    private static final int MAX_FRAME_SIZE = 256 * 1024 * 1024;
+
+    // Arquivos e diretorios gravados no modo BATCH e ainda nao sincronizados (so na thread de escrita)
+    private static final Set<Path> UNSYNCED = new LinkedHashSet<>();
+
+    private static final ThreadPoolExecutor WRITER = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(), runnable -> {
+        Thread thread = new Thread(runnable, "jackut-snapshot-writer");
+        thread.setDaemon(true);
+        return thread;
+    }) {
+        @Override
+        protected void afterExecute(Runnable task, Throwable failure) {
+            if (getQueue().isEmpty()) {
+                try {
+                    syncPending();
+                } catch (SystemOperationException e) {
+                    // Os arquivos continuam pendentes e serao sincronizados na proxima vez
+                }
+            }
+        }
+    };
+
+    private final Path snapshotFile;
+    private final Path changesFile;
+    private final Path directory;
+    private final int compactPercent;
+    private final Durability durability;
+    private final SnapshotCompression compression;
+    private final int compressionLevel;
+
+    // Estado do disco apos a ultima gravacao capturada (atualizado na thread que salva)
+    private int generation;
+    private long snapshotSize;
+    private long changesSize;
+    private volatile boolean writeFailed;
+
+    /**
+     * Creates a store backed by the given files.
+     *
+     * @param snapshotFile the full snapshot
+     * @param changesFile the append-only file of change sets
+     */
+    public SnapshotStore(String snapshotFile, String changesFile) {
+        this(snapshotFile, changesFile, Durability.configured());
+    }
+
+    /**
+     * Creates a store backed by the given files with an explicit durability mode.
+     *
+     * @param snapshotFile the full snapshot
+     * @param changesFile the append-only file of change sets
+     * @param durability when the writes are forced to the device
+     */
+    public SnapshotStore(String snapshotFile, String changesFile, Durability durability) {
+        this.snapshotFile = Paths.get(snapshotFile);
+        this.changesFile = Paths.get(changesFile);
+        this.directory = this.snapshotFile.toAbsolutePath().getParent();
+        this.compactPercent = JackutConfig.getInt(COMPACT_PERCENT, DEFAULT_COMPACT_PERCENT);
+        this.durability = durability;
+        this.compression = SnapshotCompression.configured();
+        this.compressionLevel = SnapshotCompression.configuredLevel();
+    }
+
+    /**
+     * Opens the snapshot for decoding.
+     *
+     * @return the snapshot (see {@link SnapshotFiles#open(Path)}), inflated into the heap
+     *         if it is compressed, or null if there is none
+     * @throws IOException if the file cannot be read
+     */
+    public ByteBuffer open() throws IOException {
+        generation = 0;
+        snapshotSize = 0;
+        changesSize = Files.exists(changesFile) ? Files.size(changesFile) : 0;
+        writeFailed = false;
+        SnapshotFiles.recover(snapshotFile);
+        if (!Files.exists(snapshotFile)) {
+            return null;
+        }
+
+        ByteBuffer snapshot = SnapshotCompression.decode(SnapshotFiles.open(snapshotFile));
+        snapshotSize = snapshot.remaining();
+        if (SnapshotFormat.detect(snapshot) == SnapshotFormat.BINARY) {
+            generation = SnapshotCodec.generation(snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Reads the change sets written after the snapshot returned by {@link #open()}, in order.
+     *
+     * @return the encoded change sets
+     * @throws IOException if the file cannot be read
+     */
+    public List<ByteBuffer> readChanges() throws IOException {
+        List<ByteBuffer> changes = new ArrayList<>();
+        if (!Files.exists(changesFile)) {
+            return changes;
+        }
+
+        byte[] bytes = Files.readAllBytes(changesFile);
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        CRC32 crc = new CRC32();
+        while (in.remaining() >= 12) {
+            int start = in.position();
+            int length = in.getInt();
+            int checksum = in.getInt();
+            if (length < 4 || length > MAX_FRAME_SIZE || length > in.remaining()) {
+                in.position(start);
+                break;
+            }
+            crc.reset();
+            crc.update(bytes, in.position(), length);
+            if ((int) crc.getValue() != checksum) {
+                in.position(start);
+                break;
+            }
+
+            int frameGeneration = in.getInt();
+            if (generation != 0 && frameGeneration == generation) {
+                changes.add(ByteBuffer.wrap(bytes, in.position(), length - 4).slice());
+            }
+            in.position(in.position() + length - 4);
+        }
+
+        // Descarta um frame incompleto no final, para que os proximos sejam alcancaveis
+        int validLength = in.position();
+        if (validLength < bytes.length) {
+            try (RandomAccessFile raf = new RandomAccessFile(changesFile.toFile(), "rw")) {
+                raf.setLength(validLength);
+            }
+        }
+        changesSize = validLength;
+        return changes;
+    }
+
+    /**
+     * Checks if the next save must write a full snapshot instead of a change set.
+     *
+     * @param changeSize the size of the pending change set
+     * @return true if there is no binary snapshot to append to, a previous write
+     *         failed, or the change file would grow too large
+     */
+    public boolean needsSnapshot(int changeSize) {
+        return generation == 0 || writeFailed
+                || (changesSize + changeSize) * 100 > snapshotSize * compactPercent;
+    }
+
+    /**
+     * Creates the generation of a new full snapshot.
+     *
+     * @return a non-zero generation different from the current one
+     */
+    public int newGeneration() {
+        int next;
+        do {
+            next = ThreadLocalRandom.current().nextInt();
+        } while (next == 0 || next == generation);
+        return next;
+    }
+
+    /**
+     * Schedules the replacement of the snapshot and the removal of the change file.
+     *
+     * @param snapshot the encoded snapshot
+     * @param snapshotGeneration the generation stamped in it, or 0 for a Java-serialized snapshot
+     * @return the pending write
+     */
+    public Future<?> writeSnapshot(byte[] snapshot, int snapshotGeneration) {
+        generation = snapshotGeneration;
+        snapshotSize = snapshot.length;
+        changesSize = 0;
+        writeFailed = false;
+        return WRITER.submit(() -> {
+            try {
+                SnapshotFiles.replace(snapshotFile, compression.encode(snapshot, compressionLevel),
+                        durability != Durability.NONE);
+                Files.deleteIfExists(changesFile);
+                synced(directory);
+            } catch (IOException e) {
+                writeFailed = true;
+                System.err.println("Erro ao salvar os dados no arquivo serializado: " + e.getMessage());
+                throw new SystemOperationException(e);
+            }
+        });
+    }
+
+    /**
+     * Schedules the append of a change set after the current snapshot.
+     *
+     * @param changes the encoded change set
+     * @return the pending write
+     */
+    public Future<?> appendChanges(byte[] changes) {
+        ByteBuffer frame = ByteBuffer.allocate(12 + changes.length);
+        frame.putInt(4 + changes.length);
+        frame.putInt(0);
+        frame.putInt(generation);
+        frame.put(changes);
+        CRC32 crc = new CRC32();
+        crc.update(frame.array(), 8, 4 + changes.length);
+        frame.putInt(4, (int) crc.getValue());
+        changesSize += frame.capacity();
+
+        return WRITER.submit(() -> {
+            boolean created = !Files.exists(changesFile);
+            try (FileChannel channel = FileChannel.open(changesFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                ByteBuffer buffer = ByteBuffer.wrap(frame.array());
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                if (durability == Durability.STRICT) {
+                    channel.force(false);
+                }
+                if (created) {
+                    // A entrada do novo arquivo no diretorio tambem precisa ir para o disco
+                    synced(directory);
+                }
+            } catch (IOException e) {
+                writeFailed = true;
+                System.err.println("Erro ao gravar as alteraes no arquivo: " + e.getMessage());
+                throw new SystemOperationException(e);
+            }
+            if (durability == Durability.BATCH) {
+                UNSYNCED.add(changesFile);
+            }
+        });
+    }
+
+    /**
+     * Syncs a path written by this store according to its durability mode:
+     * immediately when strict, or with the next batch.
+     */
+    private void synced(Path path) throws IOException {
+        if (durability == Durability.STRICT) {
+            SnapshotFiles.sync(path);
+        } else if (durability == Durability.BATCH) {
+            UNSYNCED.add(path);
+        }
+    }
+
+    /**
+     * Forces every file written in {@link Durability#BATCH} mode since the last sync.
+     * Must run on the writer thread, e.g. before a checkpoint trims the journal.
+     *
+     * @throws SystemOperationException if a file cannot be synced
+     */
+    static void syncPending() {
+        Iterator<Path> paths = UNSYNCED.iterator();
+        while (paths.hasNext()) {
+            Path path = paths.next();
+            try {
+                SnapshotFiles.sync(path);
+            } catch (IOException e) {
+                System.err.println("Erro ao sincronizar o arquivo " + path + ": " + e.getMessage());
+                throw new SystemOperationException(e);
+            }
+            paths.remove();
+        }
+    }
+
+    /**
+     * Deletes the snapshot and the change file, after the pending writes finish.
+     *
+     * @return true if both files were deleted or did not exist
+     */
+    public boolean delete() {
+        await(WRITER.submit(() -> { }));
+        generation = 0;
+        snapshotSize = 0;
+        changesSize = 0;
+        try {
+            Files.deleteIfExists(changesFile);
+            SnapshotFiles.delete(snapshotFile);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Runs a task on the writer thread after every write scheduled so far.
+     *
+     * @param task the task
+     * @return the pending task
+     */
+    static Future<?> submit(Runnable task) {
+        return WRITER.submit(task);
+    }
+
+    /**
+     * Waits for a scheduled write, rethrowing its failure.
+     *
+     * @param write the pending write
+     * @throws SystemOperationException if the write failed or the wait was interrupted
+     */
+    public static void await(Future<?> write) {
+        try {
+            write.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SystemOperationException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new SystemOperationException(e.getCause());
+        }
+    }
+}
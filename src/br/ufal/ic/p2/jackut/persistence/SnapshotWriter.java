@@ -0,0 +1,157 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer used to encode binary snapshots.
+ * Counts and indexes are written as unsigned varints and strings as
+ * length-prefixed UTF-8.
+ */
+public class SnapshotWriter {
+
+    private byte[] buffer;
+    private int size;
+
+    /**
+     * Creates a writer with a default initial capacity.
+     */
+    public SnapshotWriter() {
+        this(4096);
+    }
+
+    /**
+     * Creates a writer with the given initial capacity.
+     *
+     * @param capacity the initial capacity in bytes
+     */
+    public SnapshotWriter(int capacity) {
+        this.buffer = new byte[Math.max(16, capacity)];
+    }
+
+    /**
+     * Writes a single byte.
+     *
+     * @param value the byte to write
+     */
+    public void writeByte(int value) {
+        ensureCapacity(1);
+        buffer[size++] = (byte) value;
+    }
+
+    /**
+     * Writes a big-endian 32-bit integer.
+     *
+     * @param value the value to write
+     */
+    public void writeInt(int value) {
+        ensureCapacity(4);
+        buffer[size++] = (byte) (value >>> 24);
+        buffer[size++] = (byte) (value >>> 16);
+        buffer[size++] = (byte) (value >>> 8);
+        buffer[size++] = (byte) value;
+    }
+
+    /**
+     * Writes a non-negative integer using 1 to 5 bytes.
+     *
+     * @param value the value to write
+     */
+    public void writeVarInt(int value) {
+        ensureCapacity(5);
+        while ((value & ~0x7F) != 0) {
+            buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[size++] = (byte) value;
+    }
+
+    /**
+     * Writes a nullable string as a varint of {@code length + 1} (0 for null)
+     * followed by its UTF-8 bytes.
+     *
+     * @param value the string to write, may be null
+     */
+    public void writeString(String value) {
+        if (value == null) {
+            writeVarInt(0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(bytes.length + 1);
+        writeBytes(bytes);
+    }
+
+    /**
+     * Writes raw bytes.
+     *
+     * @param bytes the bytes to write
+     */
+    public void writeBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    /**
+     * Appends everything written so far to another writer to this one.
+     *
+     * @param other the writer whose contents are appended
+     */
+    public void writeBytes(SnapshotWriter other) {
+        ensureCapacity(other.size);
+        System.arraycopy(other.buffer, 0, buffer, size, other.size);
+        size += other.size;
+    }
+
+    /**
+     * Copies bytes from a buffer without changing its position.
+     *
+     * @param source the buffer to copy from
+     * @param offset the absolute offset of the first byte
+     * @param length the number of bytes to copy
+     */
+    public void writeBytes(ByteBuffer source, int offset, int length) {
+        ensureCapacity(length);
+        source.get(offset, buffer, size, length);
+        size += length;
+    }
+
+    /**
+     * Overwrites a 32-bit integer previously written at the given position.
+     *
+     * @param position the offset of the integer
+     * @param value the new value
+     */
+    public void patchInt(int position, int value) {
+        buffer[position] = (byte) (value >>> 24);
+        buffer[position + 1] = (byte) (value >>> 16);
+        buffer[position + 2] = (byte) (value >>> 8);
+        buffer[position + 3] = (byte) value;
+    }
+
+    /**
+     * Gets the number of bytes written so far.
+     *
+     * @return the current size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns a copy of the bytes written so far.
+     *
+     * @return the encoded bytes
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+        }
+    }
+}
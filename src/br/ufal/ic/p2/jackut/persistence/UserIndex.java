@@ -0,0 +1,181 @@
+package br.ufal.ic.p2.jackut.persistence;
+
+import br.ufal.ic.p2.jackut.config.JackutConfig;
+import br.ufal.ic.p2.jackut.models.User;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Users of a snapshot that have not been decoded yet.
+ *
+ * <p>Opening a snapshot only reads its string table and its record index, so
+ * the cost of a load depends on the number of users and not on the size of
+ * their friend lists and messages. Each user is decoded ("hydrated") the first
+ * time it is requested and then leaves the index; users that are never
+ * requested are never decoded.</p>
+ *
+ * <p>The snapshot buffer must not change while the index is in use. Snapshot
+ * files are always replaced, never rewritten, so a memory mapping stays valid.</p>
+ *
+ * <p>Since the index knows where every record starts, {@link #hydrateAll()}
+ * splits large snapshots into chunks decoded in parallel on the common
+ * fork/join pool (disable with {@code -Djackut.startup.parallel=false}).</p>
+ *
+ * <p>The index is safe for use by several threads.</p>
+ */
+public final class UserIndex {
+
+    // Quantidade minima de registros por tarefa na decodificacao paralela
+    private static final int CHUNK_SIZE = 512;
+
+    private final ByteBuffer buffer;
+    private final String[] table;
+    private final int[] logins;
+    private final int[] offsets;
+    private final int[] sizes;
+    private final Map<String, Integer> slots;
+    private final boolean lazyMessages;
+
+    /**
+     * Creates the index of a snapshot. Built by {@link SnapshotCodec#openUsers(ByteBuffer)}.
+     *
+     * @param buffer the snapshot
+     * @param table the string table of the snapshot
+     * @param logins the string-table index of the login of each record
+     * @param sizes the size in bytes of each record
+     * @param firstRecord the offset of the first record
+     * @param lazyMessages true to leave recado bodies in the buffer until they are read
+     */
+    UserIndex(ByteBuffer buffer, String[] table, int[] logins, int[] sizes, int firstRecord,
+              boolean lazyMessages) {
+        this.buffer = buffer;
+        this.table = table;
+        this.logins = logins;
+        this.sizes = sizes;
+        this.lazyMessages = lazyMessages;
+        this.offsets = new int[logins.length];
+        this.slots = new HashMap<>(Math.max(16, logins.length * 4 / 3 + 1));
+
+        int offset = firstRecord;
+        for (int i = 0; i < logins.length; i++) {
+            offsets[i] = offset;
+            offset += sizes[i];
+            slots.put(table[logins[i]], i);
+        }
+    }
+
+    /**
+     * Checks if a user is still waiting to be hydrated.
+     *
+     * @param login the login of the user
+     * @return true if the user is in the index
+     */
+    public synchronized boolean contains(String login) {
+        return slots.containsKey(login);
+    }
+
+    /**
+     * Decodes a user and removes it from the index.
+     *
+     * @param login the login of the user
+     * @return the decoded user, or null if the user is not in the index
+     */
+    public synchronized User hydrate(String login) {
+        Integer slot = slots.remove(login);
+        if (slot == null) {
+            return null;
+        }
+        return decode(slot);
+    }
+
+    /**
+     * Decodes every remaining user and empties the index.
+     *
+     * @return the decoded users
+     */
+    public synchronized List<User> hydrateAll() {
+        int[] remaining = new int[slots.size()];
+        int next = 0;
+        for (int slot : slots.values()) {
+            remaining[next++] = slot;
+        }
+        slots.clear();
+
+        User[] users = new User[remaining.length];
+        int chunks = (remaining.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        if (chunks > 1 && JackutConfig.getBoolean(JackutConfig.PARALLEL_STARTUP, true)) {
+            // Cada registro tem posicao conhecida, entao os blocos sao independentes
+            IntStream.range(0, chunks).parallel().forEach(chunk -> {
+                int end = Math.min(remaining.length, (chunk + 1) * CHUNK_SIZE);
+                for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+                    users[i] = decode(remaining[i]);
+                }
+            });
+        } else {
+            for (int i = 0; i < remaining.length; i++) {
+                users[i] = decode(remaining[i]);
+            }
+        }
+        return Arrays.asList(users);
+    }
+
+    /**
+     * Forgets a user without decoding it.
+     *
+     * @param login the login of the user
+     */
+    public synchronized void remove(String login) {
+        slots.remove(login);
+    }
+
+    /**
+     * Gets the number of users not hydrated yet.
+     *
+     * @return the number of users in the index
+     */
+    public synchronized int size() {
+        return slots.size();
+    }
+
+    /**
+     * Checks if every user has been hydrated or removed.
+     *
+     * @return true if the index is empty
+     */
+    public synchronized boolean isEmpty() {
+        return slots.isEmpty();
+    }
+
+    /**
+     * Gets the string table of the snapshot.
+     */
+    String[] table() {
+        return table;
+    }
+
+    /**
+     * Copies the raw records of the remaining users to a new snapshot whose
+     * string table starts with {@link #table()}.
+     *
+     * @return the number of records copied
+     */
+    synchronized int copyRecords(SnapshotWriter index, SnapshotWriter body) {
+        for (int slot : slots.values()) {
+            index.writeVarInt(logins[slot]);
+            index.writeVarInt(sizes[slot]);
+            body.writeBytes(buffer, offsets[slot], sizes[slot]);
+        }
+        return slots.size();
+    }
+
+    private User decode(int slot) {
+        SnapshotReader in = new SnapshotReader(buffer.duplicate());
+        in.position(offsets[slot]);
+        return SnapshotCodec.readUser(in, table, lazyMessages);
+    }
+}
@@ -1,24 +1,73 @@
 package br.ufal.ic.p2.jackut.repositories;
 
+import br.ufal.ic.p2.jackut.concurrency.Versions;
 import br.ufal.ic.p2.jackut.models.Community;
+import br.ufal.ic.p2.jackut.models.CommunityView;
+import br.ufal.ic.p2.jackut.persistence.SnapshotCodec;
+import br.ufal.ic.p2.jackut.persistence.SnapshotChanges;
+import br.ufal.ic.p2.jackut.persistence.SnapshotFiles;
+import br.ufal.ic.p2.jackut.persistence.SnapshotFormat;
+import br.ufal.ic.p2.jackut.persistence.SnapshotStore;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 /**
  * Repositrio em memria + persistncia via serializao de comunidades.
+ * O mapa  sincronizado (mantendo a ordem de criao), para que vrias threads
+ * possam consult-lo; percorr-lo exige segurar o seu monitor.
  */
 public class CommunityRepository {
     // Armazenamento em memria
-    private Map<String, Community> communities = new LinkedHashMap<>();
+    private volatile Map<String, Community> communities = Collections.synchronizedMap(new LinkedHashMap<>());
 
     // Nome do arquivo onde serializamos o mapa de comunidades
     private static final String DATA_FILE = "comunidades.ser";
 
+    // Formato usado ao gravar os snapshots (a leitura detecta o formato do arquivo)
+    private final SnapshotFormat format = SnapshotFormat.configured();
+
+    // Arquivo onde as gravaes incrementais anexam as comunidades alteradas
+    private static final String CHANGES_FILE = "comunidades.delta";
+
+    private final SnapshotStore store = new SnapshotStore(DATA_FILE, CHANGES_FILE);
+
+    // Nomes das comunidades removidas desde a ltima gravao
+    private final Set<String> removedNames = ConcurrentHashMap.newKeySet();
+
+    // Comunidades removidas que snapshots abertos ainda podem ler
+    private final Map<String, Community> retired = new ConcurrentHashMap<>();
+
+    // Verses em que as comunidades so publicadas, compartilhadas com o repositrio de usurios
+    private final Versions versions;
+
+    /** Cria um repositrio com as suas prprias verses. */
+    public CommunityRepository() {
+        this(new Versions());
+    }
+
+    /**
+     * Cria um repositrio que publica as comunidades nas verses dadas.
+     *
+     * @param versions as verses, compartilhadas com o repositrio de usurios
+     */
+    public CommunityRepository(Versions versions) {
+        this.versions = versions;
+    }
+
     /** Adiciona uma nova comunidade ao repositrio. */
     public void addCommunity(Community community) {
+        removedNames.remove(community.getName());
+        retired.remove(community.getName(), community);
+        community.setRemoved(false);
+        community.markDirty();
         communities.put(community.getName(), community);
+        versions.attach(community);
     }
 
     /**
@@ -31,7 +80,62 @@ public class CommunityRepository {
      * @return true if the community was removed, false if it didn't exist
      */
     public boolean removeCommunity(String name) {
-        return communities.remove(name) != null;
+        Community community = communities.remove(name);
+        if (community == null) {
+            return false;
+        }
+        removedNames.add(name);
+        community.setRemoved(true);
+
+        // Esquece as comunidades removidas que nenhum snapshot aberto enxerga mais
+        long oldest = versions.oldestInUse();
+        retired.values().removeIf(old -> old.newestVersion() <= oldest && old.viewAt(Long.MAX_VALUE) == null);
+        retired.put(name, community);
+        return true;
+    }
+
+    /**
+     * Obtm uma comunidade como ela era em um instante de leitura.
+     *
+     * @param name o nome da comunidade
+     * @param timestamp o instante de leitura, de {@link Versions.Snapshot#timestamp()}
+     * @return a viso da comunidade, ou null se ela no existia
+     */
+    public CommunityView communityAt(String name, long timestamp) {
+        if (name == null) {
+            return null;
+        }
+        Community community = communities.get(name);
+        CommunityView view = community == null ? null : community.viewAt(timestamp);
+        if (view == null) {
+            community = retired.get(name);
+            view = community == null ? null : community.viewAt(timestamp);
+        }
+        return view;
+    }
+
+    /**
+     * Obtm todas as comunidades existentes em um instante de leitura, na ordem de criao.
+     *
+     * @param timestamp o instante de leitura
+     * @return as vises das comunidades
+     */
+    public List<CommunityView> communitiesAt(long timestamp) {
+        List<Community> candidates;
+        Map<String, Community> current = communities;
+        synchronized (current) {
+            candidates = new ArrayList<>(current.values());
+        }
+        candidates.addAll(retired.values());
+
+        List<CommunityView> views = new ArrayList<>();
+        for (Community community : candidates) {
+            CommunityView view = community.viewAt(timestamp);
+            if (view != null) {
+                views.add(view);
+            }
+        }
+        return views;
     }
 
     /** Verifica se comunidade existe. */
@@ -51,51 +155,132 @@ public class CommunityRepository {
         }
 
     public List<String> listCommunitiesByUser(String login) {
-        return communities.values().stream()
-                .filter(community -> community.getMembers().contains(login))
-                .map(Community::getName)
-                .collect(Collectors.toList());
+        Map<String, Community> current = communities;
+        synchronized (current) {
+            return current.values().stream()
+                    .filter(community -> community.isMember(login))
+                    .map(Community::getName)
+                    .collect(Collectors.toList());
+        }
     }
 
 
     public List<String> listCommunities() {
-            return new ArrayList<>(getCommunities().keySet());
+        Map<String, Community> current = communities;
+        synchronized (current) {
+            return new ArrayList<>(current.keySet());
         }
-        /** Persiste o mapa de comunidades em disco. */
+    }
+    /** Persiste em disco as comunidades alteradas desde a ltima gravao. */
     public void saveData() {
-        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(DATA_FILE))) {
-            out.writeObject(communities);
+        SnapshotStore.await(saveChanges());
+    }
+
+    /**
+     * Captura as comunidades alteradas ou removidas desde a ltima gravao e agenda a
+     * gravao delas, sem esperar pelo disco.
+     * Quando o arquivo de alteraes cresce demais (ou no h snapshot binrio), um
+     * snapshot completo  gravado no lugar.
+     *
+     * No pode haver outras threads alterando o repositrio durante a captura
+     * (ver {@link br.ufal.ic.p2.jackut.concurrency.StripedLocks#lockAll()}).
+     *
+     * @return a gravao pendente
+     */
+    public Future<?> saveChanges() {
+        if (format != SnapshotFormat.BINARY) {
+            byte[] snapshot = exportSnapshot(0);
+            markAllClean();
+            return store.writeSnapshot(snapshot, 0);
+        }
+
+        List<Community> changed = communities.values().stream()
+                .filter(Community::isDirty)
+                .collect(Collectors.toList());
+        if (changed.isEmpty() && removedNames.isEmpty() && !store.needsSnapshot(0)) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        byte[] changes = SnapshotCodec.encodeCommunityChanges(changed, removedNames);
+        Future<?> write;
+        if (store.needsSnapshot(changes.length)) {
+            int generation = store.newGeneration();
+            write = store.writeSnapshot(exportSnapshot(generation), generation);
+            markAllClean();
+        } else {
+            write = store.appendChanges(changes);
+            changed.forEach(Community::clearDirty);
+        }
+        removedNames.clear();
+        return write;
+    }
+
+    /**
+     * Serializa o mapa de comunidades em memria, sem tocar no disco.
+     *
+     * @param generation a gerao gravada no cabealho de um snapshot binrio
+     */
+    private byte[] exportSnapshot(int generation) {
+        if (format == SnapshotFormat.BINARY) {
+            return SnapshotCodec.encodeCommunities(communities.values(), generation);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(new LinkedHashMap<>(communities));
         } catch (IOException e) {
-            System.err.println("Erro ao salvar os dados no arquivo serializado: " + e.getMessage());
+            System.err.println("Erro ao serializar as comunidades: " + e.getMessage());
             throw new RuntimeException("Erro ao encerrar o sistema.", e);
         }
+        return bytes.toByteArray();
+    }
+
+    private void markAllClean() {
+        communities.values().forEach(Community::clearDirty);
+        removedNames.clear();
     }
 
-    /** Carrega o mapa de comunidades do disco (se existir). */
+    /**
+     * Carrega o mapa de comunidades do disco (se existir) e aplica as alteraes
+     * gravadas depois do snapshot.
+     */
     @SuppressWarnings("unchecked")
     public  void loadData() {
-        File f = new File(DATA_FILE);
-        if (!f.exists()) {
-            communities = new HashMap<>();
-            return;
-        }
+        removedNames.clear();
+        Map<String, Community> loaded = new LinkedHashMap<>();
+
+        try {
+            ByteBuffer snapshot = store.open();
+            if (snapshot != null && SnapshotFormat.detect(snapshot) == SnapshotFormat.BINARY) {
+                loaded = SnapshotCodec.decodeCommunities(snapshot);
+            } else if (snapshot != null) {
+                try (ObjectInputStream in = new ObjectInputStream(SnapshotFiles.stream(snapshot))) {
+                    loaded = (Map<String, Community>) in.readObject();
+                }
+            }
 
-        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(f))) {
-            communities = (Map<String, Community>) in.readObject();
-        } catch (IOException | ClassNotFoundException e) {
+            for (ByteBuffer change : store.readChanges()) {
+                SnapshotChanges<Community> changes = SnapshotCodec.decodeCommunityChanges(change);
+                changes.getRemoved().forEach(loaded::remove);
+                loaded.putAll(changes.getChanged());
+            }
+            loaded.values().forEach(versions::publishLoaded);
+            retired.clear();
+            communities = Collections.synchronizedMap(loaded);
+        } catch (IOException | ClassNotFoundException | RuntimeException e) {
             System.err.println("Erro ao carregar dados do arquivo serializado: " + e.getMessage());
             throw new RuntimeException("Falha ao carregar o sistema.", e);
         }
     }
 
-    /** Deleta o arquivo de dados do disco. */
+    /** Deleta os arquivos de dados do disco. */
     public boolean deleteDataFile() {
-        File f = new File(DATA_FILE);
-        return !f.exists() || f.delete();
+        return store.delete();
     }
 
     /** Limpa todo o repositrio de comunidades. */
     public void clearAll() {
         communities.clear();
+        removedNames.clear();
+        retired.clear();
     }
 }
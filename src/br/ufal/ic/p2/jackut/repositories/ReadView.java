@@ -0,0 +1,93 @@
+package br.ufal.ic.p2.jackut.repositories;
+
+import br.ufal.ic.p2.jackut.concurrency.Versions;
+import br.ufal.ic.p2.jackut.models.CommunityView;
+import br.ufal.ic.p2.jackut.models.UserView;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A consistent, point-in-time view of both repositories.
+ *
+ * <p>Every read through the same view sees the users and communities as they
+ * were at the commit that was current when the view was opened, even while other
+ * threads keep changing them. No lock is taken, so long reads (reports, analytics)
+ * never block writers. Must be closed, so that old versions can be dropped:</p>
+ * <pre>
+ * try (ReadView view = new ReadView(users, communities)) {
+ *     ...
+ * }
+ * </pre>
+ */
+public final class ReadView implements AutoCloseable {
+
+    private final UserRepository users;
+    private final CommunityRepository communities;
+    private final Versions.Snapshot snapshot;
+
+    /**
+     * Opens a view of the last committed version.
+     * Both repositories must share their {@link Versions}, as those of a Facade do.
+     *
+     * @param users the user repository
+     * @param communities the community repository
+     */
+    public ReadView(UserRepository users, CommunityRepository communities) {
+        this.users = users;
+        this.communities = communities;
+        this.snapshot = users.getVersions().open();
+    }
+
+    /**
+     * Gets the version this view reads.
+     *
+     * @return the read timestamp
+     */
+    public long timestamp() {
+        return snapshot.timestamp();
+    }
+
+    /**
+     * Gets a user.
+     *
+     * @param login the login
+     * @return the user, or null if no user had that login
+     */
+    public UserView user(String login) {
+        return users.userAt(login, snapshot.timestamp());
+    }
+
+    /**
+     * Gets every user.
+     *
+     * @return the users, by login
+     */
+    public Map<String, UserView> users() {
+        return users.usersAt(snapshot.timestamp());
+    }
+
+    /**
+     * Gets a community.
+     *
+     * @param name the community name
+     * @return the community, or null if it did not exist
+     */
+    public CommunityView community(String name) {
+        return communities.communityAt(name, snapshot.timestamp());
+    }
+
+    /**
+     * Gets every community, in creation order.
+     *
+     * @return the communities
+     */
+    public List<CommunityView> communities() {
+        return communities.communitiesAt(snapshot.timestamp());
+    }
+
+    @Override
+    public void close() {
+        snapshot.close();
+    }
+}
@@ -0,0 +1,303 @@
+package br.ufal.ic.p2.jackut.repositories;
+
+import br.ufal.ic.p2.jackut.concurrency.TimingWheel;
+import br.ufal.ic.p2.jackut.config.JackutConfig;
+import br.ufal.ic.p2.jackut.models.User;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Sesses abertas, indexadas pelo ID e pelo login do usurio.
+ *
+ * <p>Alm do mapa ID -> sesso consultado a cada operao, o ndice login ->
+ * IDs permite revogar todas as sesses de um usurio (na remoo, na troca de
+ * login ou de senha) em tempo proporcional s sesses dele, e no a todas as
+ * sesses do sistema. Cada login mantm no mximo {@link #MAX_PER_USER}
+ * sesses; ao abrir mais uma, a mais antiga  descartada.</p>
+ *
+ * <p>Uma sesso expira depois de {@link #IDLE_TIMEOUT} segundos sem uso ou
+ * {@link #MAX_LIFETIME} segundos depois de aberta, o que vier antes. Cada
+ * sesso fica agendada numa {@link TimingWheel} pelo prazo que tinha ao ser
+ * agendada; usar a sesso s anota o segundo do ltimo acesso, e quando o
+ * prazo antigo vence a sesso  reagendada pelo novo em vez de encerrada.
+ * A roda avana nas prprias chamadas, sem thread prpria e sem varrer as
+ * sesses: a primeira chamada de cada segundo recolhe as vencidas.</p>
+ *
+ * <p>Os IDs so os de {@link SessionTokens}; a tabela de sesses  indexada
+ * pelos 128 bits decodificados do ID ({@link SessionTable}), ento resolver a
+ * sesso de cada chamada no calcula hash de string nem aloca memria.</p>
+ *
+ * <p>A tabela e o ndice so alterados juntos dentro do {@code compute} do ndice,
+ * ento uma revogao nunca deixa para trs uma sesso aberta ao mesmo tempo.</p>
+ */
+public final class SessionStore {
+
+    /** Nmero mximo de sesses abertas por login (padro: 64). */
+    public static final String MAX_PER_USER = "jackut.sessions.maxPerUser";
+
+    /** Segundos sem uso at uma sesso expirar (padro: 1800; 0 desativa). */
+    public static final String IDLE_TIMEOUT = "jackut.sessions.idleTimeout";
+
+    /** Segundos desde a abertura at uma sesso expirar (padro: 86400; 0 desativa). */
+    public static final String MAX_LIFETIME = "jackut.sessions.maxLifetime";
+
+    /**
+     * Uma sesso aberta, que tambm  o seu agendamento na roda.
+     */
+    private static final class Session extends TimingWheel.Timer {
+        final long high;
+        final long low;
+        final User user;
+        final long opened;
+        // Segundo do ltimo uso; escrito s quando muda
+        volatile long lastAccess;
+
+        Session(long high, long low, User user, long now) {
+            this.high = high;
+            this.low = low;
+            this.user = user;
+            this.opened = now;
+            this.lastAccess = now;
+        }
+    }
+
+    private final SessionTable<Session> byId = new SessionTable<>();
+    // Sesses de cada login, da mais antiga para a mais nova
+    private final Map<String, Set<Session>> byLogin = new ConcurrentHashMap<>();
+    private final int maxPerUser;
+    private final long idleTimeout;
+    private final long maxLifetime;
+    private final LongSupplier clock;
+    private final TimingWheel wheel;
+
+    /**
+     * Cria o repositrio de sesses com os limites configurados.
+     */
+    public SessionStore() {
+        this(JackutConfig.getInt(MAX_PER_USER, 64));
+    }
+
+    /**
+     * Cria o repositrio de sesses com um limite explcito de sesses por login
+     * e os prazos configurados.
+     *
+     * @param maxPerUser o nmero mximo de sesses por login
+     */
+    public SessionStore(int maxPerUser) {
+        this(maxPerUser, JackutConfig.getLong(IDLE_TIMEOUT, 1800), JackutConfig.getLong(MAX_LIFETIME, 86400),
+                SessionStore::seconds);
+    }
+
+    /**
+     * Cria o repositrio de sesses com limites e relgio explcitos.
+     *
+     * @param maxPerUser o nmero mximo de sesses por login
+     * @param idleTimeout segundos sem uso at expirar, ou 0 para no expirar por inatividade
+     * @param maxLifetime segundos desde a abertura at expirar, ou 0 para no ter limite
+     * @param clock o relgio, em segundos
+     */
+    public SessionStore(int maxPerUser, long idleTimeout, long maxLifetime, LongSupplier clock) {
+        this.maxPerUser = Math.max(1, maxPerUser);
+        this.idleTimeout = Math.max(0, idleTimeout);
+        this.maxLifetime = Math.max(0, maxLifetime);
+        this.clock = clock;
+        this.wheel = new TimingWheel(clock.getAsLong());
+    }
+
+    private static long seconds() {
+        return System.nanoTime() / 1_000_000_000L;
+    }
+
+    /**
+     * Associa uma sesso a um usurio, descartando a mais antiga dele se o limite for atingido.
+     *
+     * @param sessionId o ID da sesso, gerado por {@link SessionTokens#generate()}
+     * @param user o usurio
+     * @throws IllegalArgumentException se o ID no tiver o formato de {@link SessionTokens}
+     */
+    public void add(String sessionId, User user) {
+        if (!SessionTokens.isValid(sessionId)) {
+            throw new IllegalArgumentException("ID de sesso invlido: " + sessionId);
+        }
+        long now = clock.getAsLong();
+        expire(now);
+        Session session = new Session(SessionTokens.high(sessionId), SessionTokens.low(sessionId), user, now);
+        byLogin.compute(user.getLogin(), (login, open) -> {
+            if (open == null) {
+                open = new LinkedHashSet<>();
+            }
+            Session previous = byId.put(session.high, session.low, session);
+            if (previous != null) {
+                // Mesmo ID aberto de novo: a sesso antiga deixa de existir
+                cancel(previous);
+                open.remove(previous);
+            }
+            open.add(session);
+            schedule(session);
+            if (open.size() > maxPerUser) {
+                Iterator<Session> oldest = open.iterator();
+                close(oldest.next());
+                oldest.remove();
+            }
+            return open;
+        });
+    }
+
+    /**
+     * Obtm o usurio de uma sesso e renova o prazo de inatividade dela.
+     *
+     * @param sessionId o ID da sesso
+     * @return o usurio, ou null se a sesso no existir ou tiver expirado
+     */
+    public User get(String sessionId) {
+        long now = clock.getAsLong();
+        if (now != wheel.currentTick()) {
+            expire(now);
+        }
+        if (!SessionTokens.isValid(sessionId)) {
+            return null;
+        }
+        Session session = byId.get(SessionTokens.high(sessionId), SessionTokens.low(sessionId));
+        if (session == null || expiresAt(session) <= now) {
+            return null;
+        }
+        // Uma escrita por segundo no mximo, para no disputar a linha de cache
+        if (session.lastAccess != now) {
+            session.lastAccess = now;
+        }
+        return session.user;
+    }
+
+    /**
+     * Encerra uma sesso.
+     *
+     * @param sessionId o ID da sesso
+     */
+    public void remove(String sessionId) {
+        if (!SessionTokens.isValid(sessionId)) {
+            return;
+        }
+        Session session = byId.get(SessionTokens.high(sessionId), SessionTokens.low(sessionId));
+        if (session == null) {
+            return;
+        }
+        byLogin.computeIfPresent(session.user.getLogin(), (login, open) -> {
+            if (open.remove(session)) {
+                close(session);
+            }
+            return open.isEmpty() ? null : open;
+        });
+    }
+
+    /**
+     * Revoga todas as sesses de um login.
+     *
+     * @param login o login
+     * @return quantas sesses foram revogadas
+     */
+    public int revokeAll(String login) {
+        return revokeAllExcept(login, null);
+    }
+
+    /**
+     * Revoga todas as sesses de um login menos uma, por exemplo a que trocou a senha.
+     *
+     * @param login o login
+     * @param keptSessionId a sesso mantida, ou null para revogar todas
+     * @return quantas sesses foram revogadas
+     */
+    public int revokeAllExcept(String login, String keptSessionId) {
+        boolean keep = SessionTokens.isValid(keptSessionId);
+        long keptHigh = keep ? SessionTokens.high(keptSessionId) : 0;
+        long keptLow = keep ? SessionTokens.low(keptSessionId) : 0;
+        int[] revoked = {0};
+        byLogin.computeIfPresent(login, (key, open) -> {
+            for (Iterator<Session> it = open.iterator(); it.hasNext(); ) {
+                Session session = it.next();
+                if (!keep || session.high != keptHigh || session.low != keptLow) {
+                    close(session);
+                    it.remove();
+                    revoked[0]++;
+                }
+            }
+            return open.isEmpty() ? null : open;
+        });
+        return revoked[0];
+    }
+
+    /**
+     * Conta as sesses guardadas, incluindo as vencidas que ainda no foram recolhidas.
+     *
+     * @return o nmero de sesses
+     */
+    public int size() {
+        return byId.size();
+    }
+
+    /**
+     * Encerra todas as sesses.
+     */
+    public void clear() {
+        byLogin.clear();
+        byId.clear();
+        wheel.clear();
+    }
+
+    /**
+     * Recolhe as sesses vencidas at agora, se nenhuma outra thread j o estiver fazendo.
+     */
+    private void expire(long now) {
+        for (TimingWheel.Timer timer : wheel.tryAdvance(now)) {
+            Session session = (Session) timer;
+            byLogin.computeIfPresent(session.user.getLogin(), (login, open) -> {
+                if (!open.contains(session)) {
+                    return open; // J encerrada
+                }
+                long deadline = expiresAt(session);
+                if (deadline > now) {
+                    // Usada depois do agendamento: ganha um novo prazo
+                    wheel.schedule(session, deadline);
+                    return open;
+                }
+                byId.remove(session.high, session.low, session);
+                open.remove(session);
+                return open.isEmpty() ? null : open;
+            });
+        }
+    }
+
+    private long expiresAt(Session session) {
+        long deadline = Long.MAX_VALUE;
+        if (idleTimeout > 0) {
+            deadline = session.lastAccess + idleTimeout;
+        }
+        if (maxLifetime > 0) {
+            deadline = Math.min(deadline, session.opened + maxLifetime);
+        }
+        return deadline;
+    }
+
+    private void schedule(Session session) {
+        long deadline = expiresAt(session);
+        if (deadline != Long.MAX_VALUE) {
+            wheel.schedule(session, deadline);
+        }
+    }
+
+    /**
+     * Tira uma sesso da tabela e da roda; o chamador a tira do ndice.
+     */
+    private void close(Session session) {
+        byId.remove(session.high, session.low, session);
+        wheel.cancel(session);
+    }
+
+    private void cancel(Session session) {
+        wheel.cancel(session);
+    }
+}
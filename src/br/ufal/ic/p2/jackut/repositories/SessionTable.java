@@ -0,0 +1,236 @@
+package br.ufal.ic.p2.jackut.repositories;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Tabela de sesses indexada pelos 128 bits de um ID, guardados como dois {@code long}.
+ *
+ * <p>Os IDs j so aleatrios, ento os prprios bits escolhem a faixa (os 6
+ * mais altos da metade baixa) e o slot (os mais baixos), sem funo de hash.
+ * Cada faixa  uma tabela de endereamento aberto com sondagem linear; as
+ * buscas so leituras otimistas de um {@link StampedLock}, sem alocar nem
+ * travar, e s repetem sob o lock de leitura se uma escrita na mesma faixa
+ * as sobreps. As remoes deslocam as entradas seguintes para trs, ento a
+ * tabela no acumula lpides.</p>
+ *
+ * @param <V> o tipo dos valores
+ */
+final class SessionTable<V> {
+
+    private static final int STRIPE_BITS = 6;
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Arrays de uma faixa, trocados juntos quando ela cresce.
+     */
+    private static final class Slots {
+        // Metade alta e metade baixa de cada chave, lado a lado
+        final long[] keys;
+        final Object[] values;
+        final int mask;
+
+        Slots(int capacity) {
+            this.keys = new long[capacity * 2];
+            this.values = new Object[capacity];
+            this.mask = capacity - 1;
+        }
+    }
+
+    private static final class Stripe {
+        final StampedLock lock = new StampedLock();
+        Slots slots = new Slots(INITIAL_CAPACITY);
+        int size;
+    }
+
+    private final Stripe[] stripes = new Stripe[1 << STRIPE_BITS];
+
+    SessionTable() {
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Procura o valor de uma chave.
+     *
+     * @return o valor, ou null
+     */
+    V get(long high, long low) {
+        Stripe stripe = stripe(low);
+        long stamp = stripe.lock.tryOptimisticRead();
+        if (stamp != 0) {
+            Object value = find(stripe.slots, high, low);
+            if (stripe.lock.validate(stamp)) {
+                return cast(value);
+            }
+        }
+        stamp = stripe.lock.readLock();
+        try {
+            return cast(find(stripe.slots, high, low));
+        } finally {
+            stripe.lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Associa um valor a uma chave.
+     *
+     * @return o valor anterior, ou null
+     */
+    V put(long high, long low, V value) {
+        Stripe stripe = stripe(low);
+        long stamp = stripe.lock.writeLock();
+        try {
+            Slots slots = stripe.slots;
+            int index = indexOf(slots, high, low);
+            if (slots.values[index] != null) {
+                Object previous = slots.values[index];
+                slots.values[index] = value;
+                return cast(previous);
+            }
+            if ((stripe.size + 1) * 2 > slots.values.length) {
+                slots = grow(stripe);
+                index = indexOf(slots, high, low);
+            }
+            slots.keys[2 * index] = high;
+            slots.keys[2 * index + 1] = low;
+            slots.values[index] = value;
+            stripe.size++;
+            return null;
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Remove uma chave, se ela ainda estiver associada ao valor esperado.
+     *
+     * @return true se a chave foi removida
+     */
+    boolean remove(long high, long low, V expected) {
+        Stripe stripe = stripe(low);
+        long stamp = stripe.lock.writeLock();
+        try {
+            Slots slots = stripe.slots;
+            int index = indexOf(slots, high, low);
+            if (slots.values[index] == null || slots.values[index] != expected) {
+                return false;
+            }
+            delete(slots, index);
+            stripe.size--;
+            return true;
+        } finally {
+            stripe.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Conta as entradas; o valor pode estar defasado se houver escritas ao mesmo tempo.
+     */
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            long stamp = stripe.lock.readLock();
+            try {
+                size += stripe.size;
+            } finally {
+                stripe.lock.unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+
+    void clear() {
+        for (Stripe stripe : stripes) {
+            long stamp = stripe.lock.writeLock();
+            try {
+                stripe.slots = new Slots(INITIAL_CAPACITY);
+                stripe.size = 0;
+            } finally {
+                stripe.lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    private Stripe stripe(long low) {
+        return stripes[(int) (low >>> (Long.SIZE - STRIPE_BITS))];
+    }
+
+    /**
+     * Busca tolerante a escritas simultneas: o resultado s vale se a leitura
+     * otimista for validada, e a sondagem nunca passa do tamanho da tabela.
+     */
+    private static Object find(Slots slots, long high, long low) {
+        int index = (int) low & slots.mask;
+        for (int probes = 0; probes <= slots.mask; probes++) {
+            Object value = slots.values[index];
+            if (value == null) {
+                return null;
+            }
+            if (slots.keys[2 * index] == high && slots.keys[2 * index + 1] == low) {
+                return value;
+            }
+            index = (index + 1) & slots.mask;
+        }
+        return null;
+    }
+
+    /**
+     * Encontra o slot da chave ou o slot vazio onde ela entraria; s com o lock de escrita.
+     */
+    private static int indexOf(Slots slots, long high, long low) {
+        int index = (int) low & slots.mask;
+        while (slots.values[index] != null
+                && (slots.keys[2 * index] != high || slots.keys[2 * index + 1] != low)) {
+            index = (index + 1) & slots.mask;
+        }
+        return index;
+    }
+
+    private static Slots grow(Stripe stripe) {
+        Slots old = stripe.slots;
+        Slots slots = new Slots(old.values.length * 2);
+        for (int i = 0; i < old.values.length; i++) {
+            if (old.values[i] != null) {
+                int index = indexOf(slots, old.keys[2 * i], old.keys[2 * i + 1]);
+                slots.keys[2 * index] = old.keys[2 * i];
+                slots.keys[2 * index + 1] = old.keys[2 * i + 1];
+                slots.values[index] = old.values[i];
+            }
+        }
+        stripe.slots = slots;
+        return slots;
+    }
+
+    /**
+     * Esvazia um slot e traz de volta as entradas seguintes que ficariam
+     * inalcanveis pela sondagem.
+     */
+    private static void delete(Slots slots, int hole) {
+        slots.values[hole] = null;
+        int index = hole;
+        while (true) {
+            index = (index + 1) & slots.mask;
+            if (slots.values[index] == null) {
+                return;
+            }
+            int home = (int) slots.keys[2 * index + 1] & slots.mask;
+            // A entrada fica se o seu slot de origem estiver entre o buraco e ela
+            boolean stays = hole <= index
+                    ? hole < home && home <= index
+                    : hole < home || home <= index;
+            if (!stays) {
+                slots.keys[2 * hole] = slots.keys[2 * index];
+                slots.keys[2 * hole + 1] = slots.keys[2 * index + 1];
+                slots.values[hole] = slots.values[index];
+                slots.values[index] = null;
+                hole = index;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> V cast(Object value) {
+        return (V) value;
+    }
+}
@@ -0,0 +1,102 @@
+package br.ufal.ic.p2.jackut.repositories;
+
+import java.security.SecureRandom;
+
+/**
+ * Gera e decodifica os IDs de sesso.
+ *
+ * <p>Um ID so 128 bits aleatrios de um {@link SecureRandom}, escritos como
+ * {@value #LENGTH} caracteres do alfabeto base64 para URLs: 11 para cada
+ * metade de 64 bits, dos bits mais altos para os mais baixos. Como os IDs tm
+ * tamanho fixo e no dependem do login nem do relgio, duas sesses nunca
+ * colidem na prtica, e o {@link SessionStore} os procura pelos dois
+ * {@code long} decodificados, sem calcular o hash da string.</p>
+ */
+public final class SessionTokens {
+
+    /** Nmero de caracteres de um ID de sesso. */
+    public static final int LENGTH = 22;
+
+    private static final int HALF = LENGTH / 2;
+    private static final char[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        java.util.Arrays.fill(VALUES, (byte) -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            VALUES[ALPHABET[i]] = (byte) i;
+        }
+    }
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private SessionTokens() {
+    }
+
+    /**
+     * Gera um ID de sesso aleatrio.
+     *
+     * @return o ID, com {@value #LENGTH} caracteres
+     */
+    public static String generate() {
+        char[] token = new char[LENGTH];
+        encode(RANDOM.nextLong(), token, 0);
+        encode(RANDOM.nextLong(), token, HALF);
+        return new String(token);
+    }
+
+    /**
+     * Verifica se uma string tem o formato de um ID de sesso.
+     *
+     * @param token a string
+     * @return true se ela puder ser decodificada
+     */
+    public static boolean isValid(String token) {
+        if (token == null || token.length() != LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < LENGTH; i++) {
+            char c = token.charAt(i);
+            if (c >= VALUES.length || VALUES[c] < 0) {
+                return false;
+            }
+        }
+        // O primeiro caractere de cada metade s carrega 4 bits
+        return VALUES[token.charAt(0)] < 16 && VALUES[token.charAt(HALF)] < 16;
+    }
+
+    /**
+     * Decodifica os 64 bits mais altos de um ID vlido.
+     *
+     * @param token um ID aceito por {@link #isValid(String)}
+     * @return a metade alta
+     */
+    public static long high(String token) {
+        return decode(token, 0);
+    }
+
+    /**
+     * Decodifica os 64 bits mais baixos de um ID vlido.
+     *
+     * @param token um ID aceito por {@link #isValid(String)}
+     * @return a metade baixa
+     */
+    public static long low(String token) {
+        return decode(token, HALF);
+    }
+
+    private static void encode(long value, char[] token, int offset) {
+        for (int i = 0; i < HALF; i++) {
+            token[offset + i] = ALPHABET[(int) (value >>> (60 - 6 * i)) & 63];
+        }
+    }
+
+    private static long decode(String token, int offset) {
+        long value = 0;
+        for (int i = 0; i < HALF; i++) {
+            value = (value << 6) | VALUES[token.charAt(offset + i)];
+        }
+        return value;
+    }
+}
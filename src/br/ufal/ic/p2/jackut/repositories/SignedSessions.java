@@ -0,0 +1,308 @@
+package br.ufal.ic.p2.jackut.repositories;
+
+import br.ufal.ic.p2.jackut.config.JackutConfig;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Sesses sem estado: o ID devolvido por {@code abrirSessao}  um token
+ * assinado com HMAC-SHA256 que carrega o login e o prazo da sesso.
+ *
+ * <p>Validar um token  s conferir a assinatura e o prazo, sem consultar
+ * nenhuma tabela de sesses, ento o nmero de sesses abertas no ocupa
+ * memria nem exige coordenao entre threads. O que precisa de estado so
+ * as revogaes, que ficam em duas listas pequenas: os tokens encerrados um a
+ * um, guardados at o prazo deles vencer, e os logins cujas sesses foram
+ * todas revogadas (remoo, troca de login ou de senha).</p>
+ *
+ * <p>Cada token carrega a gerao em que foi emitido, tirada de um contador
+ * global que s cresce; revogar as sesses de um login anota a gerao
+ * seguinte, e os tokens desse login emitidos antes dela deixam de valer. Uma
+ * anotao  descartada quando todos os tokens que ela revoga j venceram.</p>
+ *
+ * <p>As revogaes ficam s na memria, ento um token s vale na execuo que
+ * o emitiu: cada execuo sorteia um identificador que vai assinado no token, e
+ * tokens de uma execuo anterior so recusados mesmo com a mesma chave
+ * ({@link #KEY}). Assim uma sesso revogada antes de reiniciar no volta a
+ * valer, nem passa para um novo usurio que registre o mesmo login.</p>
+ *
+ * <p>Os tokens vencem {@link SessionStore#MAX_LIFETIME} segundos depois de
+ * emitidos; sem uma tabela no h como contar inatividade, ento
+ * {@link SessionStore#IDLE_TIMEOUT} e {@link SessionStore#MAX_PER_USER} no
+ * se aplicam a este modo.</p>
+ */
+public final class SignedSessions {
+
+    /** Ativa as sesses assinadas no lugar do {@link SessionStore} (padro: desativado). */
+    public static final String ENABLED = "jackut.sessions.signed";
+
+    /**
+     * Chave do HMAC, em Base64. Sem ela, cada execuo sorteia uma chave; com ou
+     * sem ela, os tokens emitidos antes de reiniciar deixam de valer.
+     */
+    public static final String KEY = "jackut.sessions.key";
+
+    private static final String ALGORITHM = "HmacSHA256";
+    // Bytes da assinatura mantidos no token
+    private static final int MAC_BYTES = 16;
+    private static final int MAX_LENGTH = 1024;
+    private static final int MIN_SWEEP = 1024;
+
+    /**
+     * Revogao de todas as sesses de um login.
+     */
+    private static final class Revocation {
+        final long generation;
+        final long at;
+        // Sesso mantida pela revogao, ou 0
+        final long keptNonce;
+
+        Revocation(long generation, long at, long keptNonce) {
+            this.generation = generation;
+            this.at = at;
+            this.keptNonce = keptNonce;
+        }
+    }
+
+    /**
+     * Campos de um token com assinatura vlida.
+     */
+    private static final class Claims {
+        final String login;
+        final long run;
+        final long generation;
+        final long expiry;
+        final long nonce;
+
+        Claims(String login, long run, long generation, long expiry, long nonce) {
+            this.login = login;
+            this.run = run;
+            this.generation = generation;
+            this.expiry = expiry;
+            this.nonce = nonce;
+        }
+    }
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final SecretKeySpec key;
+    private final ThreadLocal<Mac> macs;
+    private final long lifetime;
+    private final LongSupplier clock;
+    // Execuo que emitiu os tokens aceitos
+    private final long run = RANDOM.nextLong();
+    private final AtomicLong generations = new AtomicLong();
+    // Tokens emitidos antes desta gerao no valem (zerarSistema)
+    private volatile long floor;
+    // Tokens encerrados um a um: nonce -> prazo
+    private final Map<Long, Long> closed = new ConcurrentHashMap<>();
+    private final Map<String, Revocation> revoked = new ConcurrentHashMap<>();
+    private final AtomicLong sweepAt = new AtomicLong(MIN_SWEEP);
+
+    /**
+     * Cria as sesses assinadas com a chave e o prazo configurados.
+     */
+    public SignedSessions() {
+        this(configuredKey(), JackutConfig.getLong(SessionStore.MAX_LIFETIME, 86400),
+                () -> System.currentTimeMillis() / 1000);
+    }
+
+    /**
+     * Cria as sesses assinadas com chave, prazo e relgio explcitos.
+     *
+     * @param key a chave do HMAC
+     * @param lifetime segundos at um token vencer, ou 0 para no vencer
+     * @param clock o relgio de parede, em segundos
+     */
+    public SignedSessions(byte[] key, long lifetime, LongSupplier clock) {
+        this.key = new SecretKeySpec(key.clone(), ALGORITHM);
+        this.lifetime = Math.max(0, lifetime);
+        this.clock = clock;
+        this.macs = ThreadLocal.withInitial(this::newMac);
+    }
+
+    private static byte[] configuredKey() {
+        String configured = JackutConfig.getString(KEY, null);
+        if (configured != null) {
+            return Base64.getDecoder().decode(configured.trim());
+        }
+        byte[] key = new byte[32];
+        RANDOM.nextBytes(key);
+        return key;
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC indisponvel", e);
+        }
+    }
+
+    /**
+     * Emite um token para um login.
+     *
+     * @param login o login
+     * @return o token, que  tambm o ID da sesso
+     */
+    public String issue(String login) {
+        long expiry = lifetime == 0 ? Long.MAX_VALUE : clock.getAsLong() + lifetime;
+        long nonce = RANDOM.nextLong();
+        if (nonce == 0) {
+            nonce = 1; // 0 marca a ausncia de sesso mantida
+        }
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        String body = encoder.encodeToString(login.getBytes(StandardCharsets.UTF_8))
+                + '.' + Long.toString(run, 36)
+                + '.' + Long.toString(generations.get(), 36)
+                + '.' + Long.toString(expiry, 36)
+                + '.' + Long.toString(nonce, 36);
+        byte[] mac = macs.get().doFinal(body.getBytes(StandardCharsets.US_ASCII));
+        return body + '.' + encoder.encodeToString(Arrays.copyOf(mac, MAC_BYTES));
+    }
+
+    /**
+     * Valida um token.
+     *
+     * @param token o token
+     * @return o login da sesso, ou null se o token for invlido, tiver vencido ou sido revogado
+     */
+    public String verify(String token) {
+        Claims claims = claims(token);
+        if (claims == null || claims.run != run || claims.expiry <= clock.getAsLong()
+                || claims.generation < floor) {
+            return null;
+        }
+        Revocation revocation = revoked.get(claims.login);
+        if (revocation != null && claims.generation < revocation.generation
+                && claims.nonce != revocation.keptNonce) {
+            return null;
+        }
+        if (!closed.isEmpty() && closed.containsKey(claims.nonce)) {
+            return null;
+        }
+        return claims.login;
+    }
+
+    /**
+     * Encerra uma sesso.
+     *
+     * @param token o token da sesso
+     */
+    public void remove(String token) {
+        Claims claims = claims(token);
+        if (claims != null) {
+            closed.put(claims.nonce, claims.expiry);
+            sweep();
+        }
+    }
+
+    /**
+     * Revoga todas as sesses de um login.
+     *
+     * @param login o login
+     */
+    public void revokeAll(String login) {
+        revokeAllExcept(login, null);
+    }
+
+    /**
+     * Revoga todas as sesses de um login menos uma.
+     *
+     * @param login o login
+     * @param keptToken o token mantido, ou null para revogar todos
+     */
+    public void revokeAllExcept(String login, String keptToken) {
+        Claims kept = claims(keptToken);
+        long keptNonce = kept != null && kept.login.equals(login) ? kept.nonce : 0;
+        long now = clock.getAsLong();
+        revoked.compute(login, (key, previous) -> new Revocation(generations.incrementAndGet(), now, keptNonce));
+        sweep();
+    }
+
+    /**
+     * Conta as revogaes guardadas.
+     *
+     * @return o nmero de tokens encerrados e de logins revogados ainda anotados
+     */
+    public int size() {
+        return closed.size() + revoked.size();
+    }
+
+    /**
+     * Invalida todos os tokens emitidos at agora.
+     */
+    public void clear() {
+        floor = generations.incrementAndGet();
+        closed.clear();
+        revoked.clear();
+    }
+
+    /**
+     * Descarta as revogaes cujos tokens j venceram, quando as listas dobram de tamanho.
+     */
+    private void sweep() {
+        long limit = sweepAt.get();
+        if (closed.size() + revoked.size() < limit || !sweepAt.compareAndSet(limit, Long.MAX_VALUE)) {
+            return;
+        }
+        long now = clock.getAsLong();
+        closed.values().removeIf(expiry -> expiry <= now);
+        if (lifetime > 0) {
+            revoked.values().removeIf(revocation -> revocation.at + lifetime <= now);
+        }
+        sweepAt.set(Math.max(MIN_SWEEP, 2L * (closed.size() + revoked.size())));
+    }
+
+    /**
+     * Confere a assinatura de um token e separa os campos dele.
+     *
+     * @return os campos, ou null se o token estiver malformado ou adulterado
+     */
+    private Claims claims(String token) {
+        if (token == null || token.length() > MAX_LENGTH) {
+            return null;
+        }
+        int signature = token.lastIndexOf('.');
+        if (signature < 0) {
+            return null;
+        }
+        try {
+            byte[] expected = Base64.getUrlDecoder().decode(token.substring(signature + 1));
+            byte[] mac = macs.get().doFinal(token.substring(0, signature).getBytes(StandardCharsets.US_ASCII));
+            if (expected.length != MAC_BYTES
+                    || !MessageDigest.isEqual(expected, Arrays.copyOf(mac, MAC_BYTES))) {
+                return null;
+            }
+            // login.execucao.geracao.prazo.nonce, sem recortar os campos numricos
+            int run = token.indexOf('.');
+            int generation = run < 0 ? -1 : token.indexOf('.', run + 1);
+            int expiry = generation < 0 ? -1 : token.indexOf('.', generation + 1);
+            int nonce = expiry < 0 ? -1 : token.indexOf('.', expiry + 1);
+            if (nonce < 0 || nonce >= signature) {
+                return null;
+            }
+            return new Claims(
+                    new String(Base64.getUrlDecoder().decode(token.substring(0, run)), StandardCharsets.UTF_8),
+                    Long.parseLong(token, run + 1, generation, 36),
+                    Long.parseLong(token, generation + 1, expiry, 36),
+                    Long.parseLong(token, expiry + 1, nonce, 36),
+                    Long.parseLong(token, nonce + 1, signature, 36));
+        } catch (IllegalArgumentException e) {
+            return null; // Base64 ou nmero malformado
+        }
+    }
+}
@@ -1,27 +1,120 @@
 package br.ufal.ic.p2.jackut.repositories;
 
+import br.ufal.ic.p2.jackut.concurrency.MpscInbox;
+import br.ufal.ic.p2.jackut.concurrency.Versions;
 import br.ufal.ic.p2.jackut.models.Recado;
 import br.ufal.ic.p2.jackut.models.User;
+import br.ufal.ic.p2.jackut.models.UserView;
+import br.ufal.ic.p2.jackut.config.JackutConfig;
 import br.ufal.ic.p2.jackut.exceptions.NotFoundUserException;
+import br.ufal.ic.p2.jackut.persistence.SnapshotCodec;
+import br.ufal.ic.p2.jackut.persistence.SnapshotChanges;
+import br.ufal.ic.p2.jackut.persistence.SnapshotFiles;
+import br.ufal.ic.p2.jackut.persistence.SnapshotFormat;
+import br.ufal.ic.p2.jackut.persistence.SnapshotStore;
+import br.ufal.ic.p2.jackut.persistence.UserIndex;
 
 import javax.security.auth.login.LoginException;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
 
 /**
  * Repositrio em memria + persistncia via serializao de usurios e sesses.
+ * Os mapas so concorrentes, para que vrias threads possam consultar o
+ * repositrio; a excluso entre operaes sobre o mesmo usurio  feita pelos
+ * servios com {@link br.ufal.ic.p2.jackut.concurrency.StripedLocks}.
+ * Leituras consistentes de vrios usurios usam as verses publicadas em
+ * {@link Versions}, com {@link #userAt(String, long)} e {@link #usersAt(long)}.
  */
 public class UserRepository {
     // Armazenamento em memria
-    private Map<String, User> users = new HashMap<>();
-    private Map<String, User> sessions = new HashMap<>();
+    private volatile Map<String, User> users = new ConcurrentHashMap<>();
+    private final SessionStore sessions = new SessionStore();
+    // Sesses assinadas, que substituem o SessionStore quando ativadas
+    private final SignedSessions signed =
+            JackutConfig.getBoolean(SignedSessions.ENABLED, false) ? new SignedSessions() : null;
 
     // Nome do arquivo onde serializamos o mapa de usurios
     private static final String DATA_FILE = "usuarios.ser";
+    // Arquivo onde as gravaes incrementais anexam os usurios alterados
+    private static final String CHANGES_FILE = "usuarios.delta";
+
+    private final SnapshotStore store = new SnapshotStore(DATA_FILE, CHANGES_FILE);
+
+    // Logins removidos desde a ltima gravao
+    private final Set<String> removedLogins = ConcurrentHashMap.newKeySet();
+
+    // Usurios removidos (ou renomeados) que snapshots abertos ainda podem ler pelo login antigo
+    private final Map<String, User> retired = new ConcurrentHashMap<>();
+
+    // Formato usado ao gravar os snapshots (a leitura detecta o formato do arquivo)
+    private final SnapshotFormat format = SnapshotFormat.configured();
+
+    /** Propriedade que ativa o carregamento preguioso de usurios (padro: ativado). */
+    public static final String LAZY_USERS = "jackut.persistence.lazyUsers";
+
+    // Usurios do ltimo snapshot ainda no decodificados (null quando todos esto em memria)
+    private volatile UserIndex coldUsers;
+    private final boolean lazyUsers = JackutConfig.getBoolean(LAZY_USERS, true);
+
+    // Verses em que os usurios so publicados, compartilhadas com o repositrio de comunidades
+    private final Versions versions;
+
+    /** Cria um repositrio com as suas prprias verses. */
+    public UserRepository() {
+        this(new Versions());
+    }
+
+    /**
+     * Cria um repositrio que publica os usurios nas verses dadas.
+     *
+     * @param versions as verses, compartilhadas com o repositrio de comunidades
+     */
+    public UserRepository(Versions versions) {
+        this.versions = versions;
+    }
+
+    /**
+     * Obtm as verses em que os usurios so publicados.
+     *
+     * @return as verses do repositrio
+     */
+    public Versions getVersions() {
+        return versions;
+    }
 
     /** Adiciona um novo usurio ao repositrio. */
     public void addUser(User user) {
+        UserIndex cold = coldUsers;
+        if (cold != null) {
+            cold.remove(user.getLogin());
+        }
+        removedLogins.remove(user.getLogin());
+        retired.remove(user.getLogin(), user);
+        user.setRemoved(false);
+        user.markDirty();
         users.put(user.getLogin(), user);
+        versions.attach(user);
+    }
+
+    /**
+     * Decodifica todos os usurios que ainda esto apenas no snapshot.
+     * Necessrio antes de qualquer operao que percorra todos os usurios.
+     */
+    private synchronized void hydrateAll() {
+        UserIndex cold = coldUsers;
+        if (cold == null) {
+            return;
+        }
+        for (User user : cold.hydrateAll()) {
+            versions.publishLoaded(user);
+            users.put(user.getLogin(), user);
+        }
+        coldUsers = null;
     }
 
     /**
@@ -36,6 +129,9 @@ public class UserRepository {
             return false;
         }
 
+        // Any user may reference the removed one, so all of them must be in memory
+        hydrateAll();
+
         // Get the communities owned by this user before removing them
         List<String> ownedCommunities = new ArrayList<>();
         if (user.getCommunitiesJoined() != null) {
@@ -44,41 +140,46 @@ public class UserRepository {
 
         // Remove user from all friend lists, fan lists, idol lists, etc.
         for (User otherUser : users.values()) {
+            // Only users that actually referenced the removed one are saved again
+            boolean changed = false;
+
             // Remove from friends
             if (otherUser.getFriends() != null) {
-                otherUser.getFriends().getFriendsList().remove(login);
-                otherUser.getFriends().getFriendSolicitations().remove(login);
+                changed |= otherUser.getFriends().getFriendsList().remove(login);
+                changed |= otherUser.getFriends().getFriendSolicitations().remove(login);
             }
 
             // Remove from fans
             if (otherUser.getFans() != null) {
-                otherUser.getFans().remove(login);
+                changed |= otherUser.getFans().remove(login);
             }
 
             // Remove from idols
             if (otherUser.getIdols() != null) {
-                otherUser.getIdols().remove(login);
+                changed |= otherUser.getIdols().remove(login);
             }
 
             // Remove from crushes
             if (otherUser.getCrushes() != null) {
-                otherUser.getCrushes().remove(login);
+                changed |= otherUser.getCrushes().remove(login);
             }
 
             // Remove from enemies
             if (otherUser.getEnemies() != null) {
-                otherUser.getEnemies().remove(login);
+                changed |= otherUser.getEnemies().remove(login);
             }
 
             // Remove any messages from this user
             if (otherUser.getMessages() != null) {
-                Queue<Recado> updatedMessages = new LinkedList<>();
+                Queue<Recado> updatedMessages = new MpscInbox<>();
                 for (Recado recado : otherUser.getMessages()) {
                     if (!recado.getRemetente().equals(login)) {
                         updatedMessages.add(recado);
                     }
                 }
-                otherUser.setMessages(updatedMessages);
+                if (updatedMessages.size() != otherUser.getMessages().size()) {
+                    otherUser.setMessages(updatedMessages);
+                }
             }
 
             // Remove user from communities joined by other users
@@ -89,21 +190,21 @@ public class UserRepository {
                     // If this community was owned by the deleted user, remove it from the joined list
                     if (ownedCommunities.contains(communityName)) {
                         otherUser.getCommunitiesJoined().remove(communityName);
+                        changed = true;
                     }
                 }
             }
-        }
 
-        // Remove user's sessions
-        List<String> sessionsToRemove = new ArrayList<>();
-        for (Map.Entry<String, User> entry : sessions.entrySet()) {
-            if (entry.getValue().getLogin().equals(login)) {
-                sessionsToRemove.add(entry.getKey());
+            if (changed) {
+                otherUser.markDirty();
             }
         }
 
-        for (String sessionId : sessionsToRemove) {
-            sessions.remove(sessionId);
+        // Remove user's sessions
+        if (signed != null) {
+            signed.revokeAll(login);
+        } else {
+            sessions.revokeAll(login);
         }
 
         // Remove communities owned by this user
@@ -112,42 +213,176 @@ public class UserRepository {
             // communityRepository.removeCommunity(communityName);
         }
 
-        // Finally remove the user
+        // Finally remove the user; the caller persists the removal
         users.remove(login);
-        saveData();
+        removedLogins.add(login);
+        user.setRemoved(true);
+        retire(login, user);
         return true;
     }
 
+    /**
+     * Keeps a removed user readable by the snapshots opened before the removal,
+     * and forgets the removed users that no open snapshot can see anymore.
+     */
+    private void retire(String login, User user) {
+        long oldest = versions.oldestInUse();
+        retired.entrySet().removeIf(entry -> {
+            User old = entry.getValue();
+            UserView newest = old.viewAt(Long.MAX_VALUE);
+            return old.newestVersion() <= oldest
+                    && (newest == null || !newest.getLogin().equals(entry.getKey()));
+        });
+        retired.put(login, user);
+    }
+
+    /**
+     * Obtm um usurio como ele era em um instante de leitura.
+     *
+     * @param login o login do usurio
+     * @param timestamp o instante de leitura, de {@link Versions.Snapshot#timestamp()}
+     * @return a viso do usurio, ou null se no havia usurio com esse login
+     */
+    public UserView userAt(String login, long timestamp) {
+        UserView view = visibleAt(getUserByLogin(login), login, timestamp);
+        return view != null ? view : visibleAt(login == null ? null : retired.get(login), login, timestamp);
+    }
+
+    /**
+     * Obtm todos os usurios existentes em um instante de leitura.
+     *
+     * @param timestamp o instante de leitura
+     * @return as vises dos usurios, por login
+     */
+    public Map<String, UserView> usersAt(long timestamp) {
+        hydrateAll();
+        Map<String, UserView> views = new HashMap<>();
+        for (Map<String, User> source : List.of(retired, users)) {
+            for (Map.Entry<String, User> entry : source.entrySet()) {
+                UserView view = visibleAt(entry.getValue(), entry.getKey(), timestamp);
+                if (view != null) {
+                    views.put(entry.getKey(), view);
+                }
+            }
+        }
+        return views;
+    }
+
+    // Uma viso s vale para o login que o usurio tinha naquele instante
+    private static UserView visibleAt(User user, String login, long timestamp) {
+        if (user == null) {
+            return null;
+        }
+        UserView view = user.viewAt(timestamp);
+        return view != null && view.getLogin().equals(login) ? view : null;
+    }
+
     /** Verifica se usurio existe. */
     public boolean userExists(String login) {
-        return users.containsKey(login);
+        if (login == null) {
+            return false;
+        }
+        UserIndex cold = coldUsers;
+        return users.containsKey(login) || (cold != null && cold.contains(login));
     }
 
-    /** Busca um usurio pelo login. */
+    /**
+     * Busca um usurio pelo login.
+     * Se o usurio ainda no foi decodificado do snapshot, ele  decodificado agora;
+     * threads concorrentes pedindo o mesmo usurio recebem o mesmo objeto.
+     */
     public User getUserByLogin(String login) {
-        return users.get(login);
+        if (login == null) {
+            return null;
+        }
+        User user = users.get(login);
+        if (user != null) {
+            return user;
+        }
+        synchronized (this) {
+            user = users.get(login);
+            UserIndex cold = coldUsers;
+            if (user == null && cold != null) {
+                user = cold.hydrate(login);
+                if (user != null) {
+                    versions.publishLoaded(user);
+                    users.put(login, user);
+                }
+            }
+            return user;
+        }
     }
 
 
     /** Retorna mapa imutvel de usurios (s leitura). */
     public Map<String, User> getUsers() {
+        hydrateAll();
         return Collections.unmodifiableMap(users);
     }
 
+    /** Retorna quantos usurios do ltimo snapshot ainda no foram decodificados. */
+    public int getColdUserCount() {
+        UserIndex cold = coldUsers;
+        return cold == null ? 0 : cold.size();
+    }
+
+    /**
+     * Abre uma sesso para um usurio: um ID de {@link SessionTokens} guardado
+     * no {@link SessionStore}, ou um token de {@link SignedSessions} se elas
+     * estiverem ativadas.
+     *
+     * @param user o usurio
+     * @return o ID da sesso
+     */
+    public String openSession(User user) {
+        if (signed != null) {
+            return signed.issue(user.getLogin());
+        }
+        String sessionId = SessionTokens.generate();
+        sessions.add(sessionId, user);
+        return sessionId;
+    }
+
     /** Associa uma sesso a um usurio. */
     public void addSession(String sessionId, User user) {
-        sessions.put(sessionId, user);
+        sessions.add(sessionId, user);
     }
 
     /** Remove uma sesso. */
     public void removeSession(String sessionId) {
-        sessions.remove(sessionId);
+        if (signed != null) {
+            signed.remove(sessionId);
+        } else {
+            sessions.remove(sessionId);
+        }
+    }
+
+    /**
+     * Revoga as sesses de um usurio, menos a indicada.
+     *
+     * @param login o login do usurio
+     * @param keptSessionId a sesso mantida, ou null para revogar todas
+     */
+    public void revokeSessions(String login, String keptSessionId) {
+        if (signed != null) {
+            signed.revokeAllExcept(login, keptSessionId);
+        } else {
+            sessions.revokeAllExcept(login, keptSessionId);
+        }
     }
 
     /** Recupera usurio a partir de um sessionId. */
     public User getUserBySession(String sessionId)  {
-        if (sessions.containsKey(sessionId)) {
-            return sessions.get(sessionId);
+        User user;
+        if (sessionId == null) {
+            user = null;
+        } else if (signed != null) {
+            user = getUserByLogin(signed.verify(sessionId));
+        } else {
+            user = sessions.get(sessionId);
+        }
+        if (user != null) {
+            return user;
         }
         throw new NotFoundUserException();
     }
@@ -182,38 +417,150 @@ public class UserRepository {
     public void clearAll() {
         users.clear();
         sessions.clear();
+        if (signed != null) {
+            signed.clear();
+        }
+        coldUsers = null;
+        removedLogins.clear();
+        retired.clear();
     }
 
-    /** Deleta o arquivo de dados do disco. */
+    /** Deleta os arquivos de dados do disco. */
     public boolean deleteDataFile() {
-        File f = new File(DATA_FILE);
-        return !f.exists() || f.delete();
+        return store.delete();
     }
 
-    /** Persiste o mapa de usurios em disco. */
+    /** Persiste em disco os usurios alterados desde a ltima gravao. */
     public void saveData() {
-        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(DATA_FILE))) {
-            out.writeObject(users);
+        SnapshotStore.await(saveChanges());
+    }
+
+    /**
+     * Captura os usurios alterados ou removidos desde a ltima gravao e agenda a
+     * gravao deles, sem esperar pelo disco.
+     * Normalmente s as alteraes so anexadas ao arquivo de alteraes; quando ele
+     * cresce demais (ou no h snapshot binrio), um snapshot completo  gravado.
+     *
+     * No pode haver outras threads alterando o repositrio durante a captura
+     * (ver {@link br.ufal.ic.p2.jackut.concurrency.StripedLocks#lockAll()}).
+     *
+     * @return a gravao pendente
+     */
+    public Future<?> saveChanges() {
+        if (format != SnapshotFormat.BINARY) {
+            byte[] snapshot = exportSnapshot(0);
+            markAllClean();
+            return store.writeSnapshot(snapshot, 0);
+        }
+
+        List<User> changed = new ArrayList<>();
+        for (User user : users.values()) {
+            if (user.isDirty()) {
+                changed.add(user);
+            }
+        }
+        if (changed.isEmpty() && removedLogins.isEmpty() && !store.needsSnapshot(0)) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        byte[] changes = SnapshotCodec.encodeUserChanges(changed, removedLogins);
+        Future<?> write;
+        if (store.needsSnapshot(changes.length)) {
+            int generation = store.newGeneration();
+            write = store.writeSnapshot(exportSnapshot(generation), generation);
+            markAllClean();
+        } else {
+            write = store.appendChanges(changes);
+            for (User user : changed) {
+                user.clearDirty();
+            }
+        }
+        removedLogins.clear();
+        return write;
+    }
+
+    /**
+     * Serializa todos os usurios em memria, sem tocar no disco.
+     * O resultado  uma cpia consistente do estado atual.
+     *
+     * @param generation a gerao gravada no cabealho de um snapshot binrio
+     */
+    private byte[] exportSnapshot(int generation) {
+        if (format == SnapshotFormat.BINARY) {
+            // Usurios no decodificados so copiados byte a byte do snapshot anterior
+            return SnapshotCodec.encodeUsers(users.values(), coldUsers, generation);
+        }
+        hydrateAll();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(new HashMap<>(users));
         } catch (IOException e) {
-            System.err.println("Erro ao salvar os dados no arquivo serializado: " + e.getMessage());
+            System.err.println("Erro ao serializar os usurios: " + e.getMessage());
             throw new RuntimeException("Erro ao encerrar o sistema.", e);
         }
+        return bytes.toByteArray();
+    }
+
+    private void markAllClean() {
+        for (User user : users.values()) {
+            user.clearDirty();
+        }
+        removedLogins.clear();
     }
 
-    /** Carrega o mapa de usurios do disco (se existir). */
+    /**
+     * Carrega o mapa de usurios do disco (se existir) e aplica as alteraes
+     * gravadas depois do snapshot.
+     * Snapshots binrios so decodificados direto do arquivo mapeado em memria, e o
+     * contedo dos recados s  decodificado quando lido. No modo preguioso apenas o
+     * ndice de registros  lido, e cada usurio  decodificado no primeiro acesso.
+     */
     @SuppressWarnings("unchecked")
     public void loadData() {
-        File f = new File(DATA_FILE);
-        if (!f.exists()) {
-            users = new HashMap<>();
-            return;
-        }
+        coldUsers = null;
+        removedLogins.clear();
+        retired.clear();
+        users = new ConcurrentHashMap<>();
+
+        try {
+            ByteBuffer snapshot = store.open();
+            if (snapshot != null && SnapshotFormat.detect(snapshot) == SnapshotFormat.BINARY) {
+                UserIndex index = lazyUsers ? SnapshotCodec.openUsers(snapshot) : null;
+                if (index != null) {
+                    coldUsers = index;
+                } else {
+                    users = new ConcurrentHashMap<>(SnapshotCodec.decodeUsers(snapshot, true));
+                }
+            } else if (snapshot != null) {
+                try (ObjectInputStream in = new ObjectInputStream(SnapshotFiles.stream(snapshot))) {
+                    users = new ConcurrentHashMap<>((Map<String, User>) in.readObject());
+                }
+            }
 
-        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(f))) {
-            users = (Map<String, User>) in.readObject();
-        } catch (IOException | ClassNotFoundException e) {
+            for (ByteBuffer change : store.readChanges()) {
+                applyChanges(SnapshotCodec.decodeUserChanges(change));
+            }
+            for (User user : users.values()) {
+                versions.publishLoaded(user);
+            }
+        } catch (IOException | ClassNotFoundException | RuntimeException e) {
             System.err.println("Erro ao carregar dados do arquivo serializado: " + e.getMessage());
             throw new RuntimeException("Falha ao carregar o sistema.", e);
         }
     }
+
+    private void applyChanges(SnapshotChanges<User> changes) {
+        for (String login : changes.getRemoved()) {
+            users.remove(login);
+            if (coldUsers != null) {
+                coldUsers.remove(login);
+            }
+        }
+        for (User user : changes.getChanged().values()) {
+            if (coldUsers != null) {
+                coldUsers.remove(user.getLogin());
+            }
+            users.put(user.getLogin(), user);
+        }
+    }
 }
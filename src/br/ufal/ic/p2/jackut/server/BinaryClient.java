@@ -0,0 +1,114 @@
+package br.ufal.ic.p2.jackut.server;
+
+import br.ufal.ic.p2.jackut.exceptions.RemoteOperationException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+/**
+ * Client of the {@link BinaryServer}.
+ *
+ * <p>{@link #call(Opcode, String...)} sends one request and waits for its
+ * response. To pipeline, {@link #send(Opcode, String...)} several requests,
+ * {@link #flush()}, then {@link #receive()} their responses in the same order.
+ * The server does not read new requests while its responses are not read, so
+ * a client should keep a bounded number of requests in flight (a few hundred
+ * small requests are fine).</p>
+ *
+ * <p>A client is not thread-safe; each thread should use its own connection.</p>
+ */
+public final class BinaryClient implements AutoCloseable {
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    /**
+     * Connects to a binary server.
+     *
+     * @param host the server host
+     * @param port the server port
+     * @throws IOException if the connection fails
+     */
+    public BinaryClient(String host, int port) throws IOException {
+        this.socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+    }
+
+    /**
+     * Runs an operation on the server and waits for its result.
+     *
+     * @param opcode the operation
+     * @param arguments its arguments
+     * @return the result: null, a {@link Boolean} or a {@link String}
+     * @throws IOException if the connection fails
+     * @throws RemoteOperationException if the operation failed on the server
+     */
+    public Object call(Opcode opcode, String... arguments) throws IOException {
+        send(opcode, arguments);
+        flush();
+        return receive();
+    }
+
+    /**
+     * Queues a request without waiting for its response.
+     *
+     * @param opcode the operation
+     * @param arguments its arguments
+     * @throws IOException if the connection fails
+     */
+    public void send(Opcode opcode, String... arguments) throws IOException {
+        BinaryProtocol.writeRequest(out, opcode, arguments);
+    }
+
+    /**
+     * Sends the queued requests to the server.
+     *
+     * @throws IOException if the connection fails
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Waits for the response of the oldest request not yet received.
+     *
+     * @return the result: null, a {@link Boolean} or a {@link String}
+     * @throws IOException if the connection fails
+     * @throws RemoteOperationException if the operation failed on the server
+     */
+    public Object receive() throws IOException {
+        ByteBuffer frame = BinaryProtocol.readFrame(in);
+        if (frame == null) {
+            throw new EOFException("Conexao encerrada pelo servidor");
+        }
+        int status = frame.get();
+        switch (status) {
+            case BinaryProtocol.OK:
+                return null;
+            case BinaryProtocol.TRUE:
+                return Boolean.TRUE;
+            case BinaryProtocol.FALSE:
+                return Boolean.FALSE;
+            case BinaryProtocol.STRING:
+                return BinaryProtocol.readString(frame);
+            case BinaryProtocol.ERROR:
+                throw new RemoteOperationException(BinaryProtocol.readString(frame));
+            default:
+                throw new IOException("Status desconhecido: " + status);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,171 @@
+package br.ufal.ic.p2.jackut.server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Frames of the binary protocol served by {@link BinaryServer}.
+ *
+ * <p>Every frame starts with its length (a big-endian {@code int}, not counting
+ * itself). Strings are UTF-8 bytes preceded by their length as an unsigned
+ * varint (7 bits per byte, low bits first).</p>
+ * <pre>
+ * request:  length | opcode (1 byte) | one string per argument of the {@link Opcode}
+ * response: length | status (1 byte) | a string for {@link #STRING} and {@link #ERROR}
+ * </pre>
+ * <p>A client may send many requests without waiting; the responses come back
+ * on the same connection in the order of the requests.</p>
+ */
+public final class BinaryProtocol {
+
+    /** Status of an operation without a result. */
+    public static final int OK = 0;
+    /** Status of a text result. */
+    public static final int STRING = 1;
+    /** Status of the boolean result {@code true}. */
+    public static final int TRUE = 2;
+    /** Status of the boolean result {@code false}. */
+    public static final int FALSE = 3;
+    /** Status of a failed operation; the string is the error message. */
+    public static final int ERROR = 4;
+
+    // Limite de tamanho de um frame, usado para detectar fluxos corrompidos
+    static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * Reads the next frame.
+     *
+     * @param in the connection
+     * @return the frame contents, or null if the connection was closed between frames
+     * @throws IOException if the connection fails or the frame is malformed
+     */
+    public static ByteBuffer readFrame(DataInputStream in) throws IOException {
+        int first = in.read();
+        if (first < 0) {
+            return null;
+        }
+        int length = (first << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedShort());
+        if (length < 1 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Frame invalido: " + length + " bytes");
+        }
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        return ByteBuffer.wrap(frame);
+    }
+
+    /**
+     * Writes a request, without flushing.
+     *
+     * @param out the connection
+     * @param opcode the operation
+     * @param arguments exactly {@link Opcode#arity()} arguments
+     * @throws IOException if the connection fails
+     */
+    public static void writeRequest(DataOutputStream out, Opcode opcode, String... arguments) throws IOException {
+        if (arguments.length != opcode.arity()) {
+            throw new IllegalArgumentException(opcode + " espera " + opcode.arity() + " argumentos");
+        }
+        byte[][] encoded = new byte[arguments.length][];
+        int length = 1;
+        for (int i = 0; i < arguments.length; i++) {
+            encoded[i] = arguments[i].getBytes(StandardCharsets.UTF_8);
+            length += varintSize(encoded[i].length) + encoded[i].length;
+        }
+        out.writeInt(length);
+        out.writeByte(opcode.code());
+        for (byte[] argument : encoded) {
+            writeBytes(out, argument);
+        }
+    }
+
+    /**
+     * Writes the response of a successful operation, without flushing.
+     *
+     * @param out the connection
+     * @param result the result of the Facade: null, a {@link Boolean} or a value sent as text
+     * @throws IOException if the connection fails
+     */
+    public static void writeResult(DataOutputStream out, Object result) throws IOException {
+        if (result == null) {
+            out.writeInt(1);
+            out.writeByte(OK);
+        } else if (result instanceof Boolean) {
+            out.writeInt(1);
+            out.writeByte((Boolean) result ? TRUE : FALSE);
+        } else {
+            writeText(out, STRING, result.toString());
+        }
+    }
+
+    /**
+     * Writes the response of a failed operation, without flushing.
+     *
+     * @param out the connection
+     * @param message the error message
+     * @throws IOException if the connection fails
+     */
+    public static void writeError(DataOutputStream out, String message) throws IOException {
+        writeText(out, ERROR, message == null ? "" : message);
+    }
+
+    /**
+     * Reads a string from a frame.
+     *
+     * @param frame the frame, positioned at the string
+     * @return the string
+     * @throws IOException if the frame ends before the string
+     */
+    public static String readString(ByteBuffer frame) throws IOException {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (!frame.hasRemaining() || shift > 28) {
+                throw new EOFException("String truncada");
+            }
+            int b = frame.get();
+            length |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                break;
+            }
+        }
+        if (length < 0 || length > frame.remaining()) {
+            throw new EOFException("String truncada");
+        }
+        String value = new String(frame.array(), frame.arrayOffset() + frame.position(), length,
+                StandardCharsets.UTF_8);
+        frame.position(frame.position() + length);
+        return value;
+    }
+
+    private static void writeText(DataOutputStream out, int status, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(1 + varintSize(bytes.length) + bytes.length);
+        out.writeByte(status);
+        writeBytes(out, bytes);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        int length = bytes.length;
+        while ((length & ~0x7F) != 0) {
+            out.writeByte((length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+        out.writeByte(length);
+        out.write(bytes);
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+}
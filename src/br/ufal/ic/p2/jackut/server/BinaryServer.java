@@ -0,0 +1,196 @@
+package br.ufal.ic.p2.jackut.server;
+
+import br.ufal.ic.p2.jackut.config.JackutConfig;
+import br.ufal.ic.p2.jackut.facade.Facade;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TCP front end that serves the Facade with the {@link BinaryProtocol}.
+ *
+ * <p>Each connection is served by its own thread (virtual when the JDK has
+ * them, see {@link RequestThreads}), which runs the requests in the order they
+ * arrive. Responses are buffered and only flushed when no further request is
+ * already waiting in the input buffer, so a client that pipelines many requests
+ * gets their responses in a few large writes instead of one packet per call.</p>
+ *
+ * <p>As in {@link JackutServer}, the system operations are refused unless
+ * {@value JackutServer#ADMIN} is true, and {@link #main} binds to
+ * {@value JackutServer#HOST}, the loopback interface by default.</p>
+ *
+ * <p>Usage: {@code java br.ufal.ic.p2.jackut.server.BinaryServer [port]}</p>
+ */
+public final class BinaryServer implements AutoCloseable {
+
+    /** TCP port of the binary server (0 picks a free port). */
+    public static final String PORT = "jackut.server.binaryPort";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Facade facade;
+    private final boolean admin;
+    private final ServerSocket socket;
+    private final ExecutorService executor;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private Thread acceptor;
+
+    /**
+     * Creates a server for a Facade. Call {@link #start()} to serve.
+     *
+     * @param facade the Facade that serves the requests
+     * @param address the address to bind
+     * @throws IOException if the address cannot be bound
+     */
+    public BinaryServer(Facade facade, InetSocketAddress address) throws IOException {
+        this.facade = facade;
+        this.admin = JackutConfig.getBoolean(JackutServer.ADMIN, false);
+        ExecutorService virtual = JackutConfig.getBoolean(RequestThreads.VIRTUAL_THREADS, true)
+                ? RequestThreads.virtual() : null;
+        this.executor = virtual != null ? virtual : RequestThreads.platform("jackut-binary");
+        this.socket = new ServerSocket();
+        socket.bind(address, JackutConfig.getInt(JackutServer.BACKLOG, 1024));
+    }
+
+    /**
+     * Starts accepting connections.
+     */
+    public synchronized void start() {
+        if (acceptor == null) {
+            acceptor = new Thread(this::accept, "jackut-binary-acceptor");
+            acceptor.start();
+        }
+    }
+
+    /**
+     * Gets the port the server is bound to.
+     *
+     * @return the TCP port
+     */
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    /**
+     * Stops accepting connections and closes the open ones.
+     */
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.err.println("Erro ao fechar o servidor: " + e.getMessage());
+        }
+        for (Socket connection : connections) {
+            closeQuietly(connection);
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void accept() {
+        while (!socket.isClosed()) {
+            try {
+                Socket connection = socket.accept();
+                connection.setTcpNoDelay(true);
+                connections.add(connection);
+                executor.execute(() -> serve(connection));
+            } catch (SocketException e) {
+                return; // Servidor fechado
+            } catch (IOException e) {
+                System.err.println("Erro ao aceitar conexao: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Serves one connection until the client closes it.
+     */
+    private void serve(Socket connection) {
+        try (connection;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream(), BUFFER_SIZE));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream(), BUFFER_SIZE))) {
+            ByteBuffer frame;
+            while ((frame = BinaryProtocol.readFrame(in)) != null) {
+                handle(frame, out);
+                // Com mais pedidos ja recebidos, as respostas seguem juntas no proximo flush
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            if (!socket.isClosed()) {
+                System.err.println("Conexao encerrada: " + e.getMessage());
+            }
+        } finally {
+            connections.remove(connection);
+        }
+    }
+
+    private void handle(ByteBuffer frame, DataOutputStream out) throws IOException {
+        Opcode opcode = Opcode.of(frame.get() & 0xFF);
+        if (opcode == null || opcode.isSystem() && !admin) {
+            BinaryProtocol.writeError(out, "Operacao desconhecida");
+            return;
+        }
+        String[] arguments = new String[opcode.arity()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = BinaryProtocol.readString(frame);
+        }
+
+        Object result;
+        try {
+            result = opcode.invoke(facade, arguments);
+        } catch (RuntimeException e) {
+            BinaryProtocol.writeError(out, e.getMessage());
+            return;
+        }
+        BinaryProtocol.writeResult(out, result);
+    }
+
+    private static void closeQuietly(Socket connection) {
+        try {
+            connection.close();
+        } catch (IOException e) {
+            // A conexao ja estava encerrada
+        }
+    }
+
+    /**
+     * Loads the system and serves it until the process is stopped, saving it on shutdown.
+     *
+     * @param args optional port (default {@code jackut.server.binaryPort}, or 8081)
+     * @throws IOException if the port cannot be bound
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : JackutConfig.getInt(PORT, 8081);
+        Facade facade = new Facade();
+        facade.carregarSistema();
+
+        BinaryServer server = new BinaryServer(facade, JackutServer.address(port));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            facade.encerrarSistema();
+        }, "jackut-shutdown"));
+        server.start();
+        System.out.printf("Jackut (protocolo binario) ouvindo em %s:%d%n",
+                server.socket.getInetAddress().getHostAddress(), server.getPort());
+    }
+}
@@ -0,0 +1,270 @@
+package br.ufal.ic.p2.jackut.server;
+
+import br.ufal.ic.p2.jackut.config.JackutConfig;
+import br.ufal.ic.p2.jackut.facade.Facade;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP front end that exposes every operation of the {@link Facade}.
+ *
+ * <p>Each public Facade method is served at {@code /<nome da operacao>}, and
+ * its arguments are the request parameters (query string, or a form-encoded
+ * POST body) in the order of the method's parameters, as in the EasyAccept
+ * scripts:</p>
+ * <pre>
+ * GET /criarUsuario?login=jpsauve&amp;senha=sfgsdfg&amp;nome=Jacques
+ * GET /getAtributoUsuario?login=jpsauve&amp;atributo=nome
+ * </pre>
+ * <p>The result is returned as {@code text/plain} (empty for operations without
+ * a result) with status 200. An exception of the Facade is returned with status
+ * 400 and its message as the body; an unknown operation or a wrong number of
+ * arguments gets 404 or 400.</p>
+ *
+ * <p>The operations that reset, load or save the whole system
+ * ({@code zerarSistema}, {@code carregarSistema}, {@code encerrarSistema}) are
+ * not served unless {@value #ADMIN} is true, and {@link #main} binds to the
+ * loopback interface unless {@value #HOST} names another one.</p>
+ *
+ * <p>Each request runs on its own thread, virtual when the JDK has them
+ * (see {@link RequestThreads}).</p>
+ *
+ * <p>Usage: {@code java br.ufal.ic.p2.jackut.server.JackutServer [port]}</p>
+ */
+public final class JackutServer implements AutoCloseable {
+
+    /** TCP port of the server (0 picks a free port). */
+    public static final String PORT = "jackut.server.port";
+
+    /** Address the servers bind to; the loopback interface by default. */
+    public static final String HOST = "jackut.server.host";
+
+    /** Serves the system operations (zerar, carregar, encerrar) over the network; false by default. */
+    public static final String ADMIN = "jackut.server.admin";
+
+    /** Maximum number of pending connections. */
+    public static final String BACKLOG = "jackut.server.backlog";
+
+    /** Uses virtual threads when the JDK has them; false always uses platform threads. */
+    public static final String VIRTUAL_THREADS = RequestThreads.VIRTUAL_THREADS;
+
+    static {
+        // Respostas pequenas: sem TCP_NODELAY, o algoritmo de Nagle segura cada uma por dezenas de ms
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    // Operacoes que apagam, recarregam ou salvam o sistema inteiro
+    private static final Set<String> SYSTEM_OPERATIONS = Set.of("zerarSistema", "carregarSistema", "encerrarSistema");
+
+    private final Facade facade;
+    private final Map<String, Method> operations = new HashMap<>();
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+
+    /**
+     * Creates a server for a Facade, bound to {@value #HOST} (the loopback
+     * interface by default). Call {@link #start()} to serve.
+     *
+     * @param facade the Facade that serves the requests
+     * @param port the TCP port, or 0 for a free one
+     * @throws IOException if the port cannot be bound
+     */
+    public JackutServer(Facade facade, int port) throws IOException {
+        this(facade, address(port));
+    }
+
+    /**
+     * Creates a server for a Facade. Call {@link #start()} to serve.
+     *
+     * @param facade the Facade that serves the requests
+     * @param address the address to bind
+     * @throws IOException if the address cannot be bound
+     */
+    public JackutServer(Facade facade, InetSocketAddress address) throws IOException {
+        this.facade = facade;
+        boolean admin = JackutConfig.getBoolean(ADMIN, false);
+        for (Method method : Facade.class.getDeclaredMethods()) {
+            if (!admin && SYSTEM_OPERATIONS.contains(method.getName())) {
+                continue;
+            }
+            if (Modifier.isPublic(method.getModifiers()) && !Modifier.isStatic(method.getModifiers())) {
+                operations.put(method.getName(), method);
+            }
+        }
+
+        ExecutorService virtual = JackutConfig.getBoolean(VIRTUAL_THREADS, true) ? RequestThreads.virtual() : null;
+        this.virtualThreads = virtual != null;
+        this.executor = virtual != null ? virtual : RequestThreads.platform("jackut-http");
+
+        this.server = HttpServer.create(address, JackutConfig.getInt(BACKLOG, 1024));
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Starts serving requests.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Gets the port the server is bound to.
+     *
+     * @return the TCP port
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Checks whether requests run on virtual threads.
+     *
+     * @return true if the JDK has virtual threads and they are enabled
+     */
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Stops the server, letting the requests in progress finish for up to one second.
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            // O corpo e lido antes da resposta mesmo vazio: senao o servidor fecha a conexao
+            String body;
+            try (InputStream in = exchange.getRequestBody()) {
+                body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+
+            String name = exchange.getRequestURI().getPath().substring(1);
+            Method operation = operations.get(name);
+            if (operation == null) {
+                reply(exchange, 404, "Operacao desconhecida: " + name);
+                return;
+            }
+
+            List<String> arguments = parameters(exchange.getRequestURI().getRawQuery());
+            if ("POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                arguments.addAll(parameters(body));
+            }
+            if (arguments.size() != operation.getParameterCount()) {
+                reply(exchange, 400, "A operacao " + name + " espera " + operation.getParameterCount()
+                        + " parametros");
+                return;
+            }
+
+            Object result;
+            try {
+                result = operation.invoke(facade, arguments.toArray());
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (!(cause instanceof RuntimeException)) {
+                    throw new IOException(cause);
+                }
+                reply(exchange, 400, String.valueOf(cause.getMessage()));
+                return;
+            } catch (IllegalAccessException e) {
+                throw new IOException(e);
+            }
+            reply(exchange, 200, result == null ? "" : result.toString());
+        }
+    }
+
+    /**
+     * Gets the address to bind a server to: {@value #HOST}, or the loopback interface.
+     *
+     * @param port the TCP port
+     * @return the address
+     */
+    static InetSocketAddress address(int port) {
+        String host = JackutConfig.getString(HOST, null);
+        return host == null ? new InetSocketAddress(InetAddress.getLoopbackAddress(), port)
+                : new InetSocketAddress(host, port);
+    }
+
+    /**
+     * Decodes the values of a form-encoded parameter list, in order. The names
+     * only document the request: as in EasyAccept, the position gives the argument.
+     */
+    private static List<String> parameters(String encoded) {
+        List<String> values = new ArrayList<>();
+        if (encoded == null || encoded.isEmpty()) {
+            return values;
+        }
+        for (String pair : encoded.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int equals = pair.indexOf('=');
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            values.add(URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return values;
+    }
+
+    private static void reply(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+
+    /**
+     * Loads the system and serves it until the process is stopped, saving it on shutdown.
+     *
+     * @param args optional port (default {@code jackut.server.port}, or 8080)
+     * @throws IOException if the port cannot be bound
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : JackutConfig.getInt(PORT, 8080);
+        Facade facade = new Facade();
+        facade.carregarSistema();
+
+        JackutServer server = new JackutServer(facade, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            facade.encerrarSistema();
+        }, "jackut-shutdown"));
+        server.start();
+        System.out.printf("Jackut ouvindo em %s:%d (%s)%n", server.server.getAddress().getHostString(), server.getPort(),
+                server.usesVirtualThreads() ? "threads virtuais" : "threads de plataforma");
+    }
+}
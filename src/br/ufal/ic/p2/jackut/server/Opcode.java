@@ -0,0 +1,207 @@
+package br.ufal.ic.p2.jackut.server;
+
+import br.ufal.ic.p2.jackut.facade.Facade;
+
+/**
+ * Numeric opcodes of the Facade operations in the binary protocol
+ * (see {@link BinaryProtocol}).
+ *
+ * <p>The codes are part of the protocol: new operations get new codes at the
+ * end, and existing codes are never reused or renumbered.</p>
+ */
+public enum Opcode {
+
+    /** {@link Facade#zerarSistema}. */
+    ZERAR_SISTEMA(0, 0, (f, a) -> {
+        f.zerarSistema();
+        return null;
+    }),
+    /** {@link Facade#carregarSistema}. */
+    CARREGAR_SISTEMA(1, 0, (f, a) -> {
+        f.carregarSistema();
+        return null;
+    }),
+    /** {@link Facade#encerrarSistema}. */
+    ENCERRAR_SISTEMA(2, 0, (f, a) -> {
+        f.encerrarSistema();
+        return null;
+    }),
+    /** {@link Facade#criarUsuario}. */
+    CRIAR_USUARIO(3, 3, (f, a) -> {
+        f.criarUsuario(a[0], a[1], a[2]);
+        return null;
+    }),
+    /** {@link Facade#getAtributoUsuario}. */
+    GET_ATRIBUTO_USUARIO(4, 2, (f, a) -> f.getAtributoUsuario(a[0], a[1])),
+    /** {@link Facade#abrirSessao}. */
+    ABRIR_SESSAO(5, 2, (f, a) -> f.abrirSessao(a[0], a[1])),
+    /** {@link Facade#editarPerfil}. */
+    EDITAR_PERFIL(6, 3, (f, a) -> {
+        f.editarPerfil(a[0], a[1], a[2]);
+        return null;
+    }),
+    /** {@link Facade#ehAmigo}. */
+    EH_AMIGO(7, 2, (f, a) -> f.ehAmigo(a[0], a[1])),
+    /** {@link Facade#adicionarAmigo}. */
+    ADICIONAR_AMIGO(8, 2, (f, a) -> {
+        f.adicionarAmigo(a[0], a[1]);
+        return null;
+    }),
+    /** {@link Facade#getAmigos}. */
+    GET_AMIGOS(9, 1, (f, a) -> f.getAmigos(a[0])),
+    /** {@link Facade#enviarRecado}. */
+    ENVIAR_RECADO(10, 3, (f, a) -> {
+        f.enviarRecado(a[0], a[1], a[2]);
+        return null;
+    }),
+    /** {@link Facade#lerRecado}. */
+    LER_RECADO(11, 1, (f, a) -> f.lerRecado(a[0])),
+    /** {@link Facade#criarComunidade}. */
+    CRIAR_COMUNIDADE(12, 3, (f, a) -> {
+        f.criarComunidade(a[0], a[1], a[2]);
+        return null;
+    }),
+    /** {@link Facade#editarComunidade}. */
+    EDITAR_COMUNIDADE(13, 3, (f, a) -> {
+        f.editarComunidade(a[0], a[1], a[2]);
+        return null;
+    }),
+    /** {@link Facade#deletarComunidade}. */
+    DELETAR_COMUNIDADE(14, 2, (f, a) -> {
+        f.deletarComunidade(a[0], a[1]);
+        return null;
+    }),
+    /** {@link Facade#adicionarComunidade}. */
+    ADICIONAR_COMUNIDADE(15, 2, (f, a) -> {
+        f.adicionarComunidade(a[0], a[1]);
+        return null;
+    }),
+    /** {@link Facade#sairComunidade}. */
+    SAIR_COMUNIDADE(16, 2, (f, a) -> {
+        f.sairComunidade(a[0], a[1]);
+        return null;
+    }),
+    /** {@link Facade#listarComunidades}. */
+    LISTAR_COMUNIDADES(17, 1, (f, a) -> {
+        f.listarComunidades(a[0]);
+        return null;
+    }),
+    /** {@link Facade#getDescricaoComunidade}. */
+    GET_DESCRICAO_COMUNIDADE(18, 1, (f, a) -> f.getDescricaoComunidade(a[0])),
+    /** {@link Facade#getDonoComunidade}. */
+    GET_DONO_COMUNIDADE(19, 1, (f, a) -> f.getDonoComunidade(a[0])),
+    /** {@link Facade#getMembrosComunidade}. */
+    GET_MEMBROS_COMUNIDADE(20, 1, (f, a) -> f.getMembrosComunidade(a[0])),
+    /** {@link Facade#getComunidades}. */
+    GET_COMUNIDADES(21, 1, (f, a) -> f.getComunidades(a[0])),
+    /** {@link Facade#enviarMensagem}. */
+    ENVIAR_MENSAGEM(22, 3, (f, a) -> {
+        f.enviarMensagem(a[0], a[1], a[2]);
+        return null;
+    }),
+    /** {@link Facade#lerMensagem}. */
+    LER_MENSAGEM(23, 1, (f, a) -> f.lerMensagem(a[0])),
+    /** {@link Facade#adicionarIdolo}. */
+    ADICIONAR_IDOLO(24, 2, (f, a) -> {
+        f.adicionarIdolo(a[0], a[1]);
+        return null;
+    }),
+    /** {@link Facade#ehFa}. */
+    EH_FA(25, 2, (f, a) -> f.ehFa(a[0], a[1])),
+    /** {@link Facade#getFas}. */
+    GET_FAS(26, 1, (f, a) -> f.getFas(a[0])),
+    /** {@link Facade#adicionarPaquera}. */
+    ADICIONAR_PAQUERA(27, 2, (f, a) -> {
+        f.adicionarPaquera(a[0], a[1]);
+        return null;
+    }),
+    /** {@link Facade#ehPaquera}. */
+    EH_PAQUERA(28, 2, (f, a) -> f.ehPaquera(a[0], a[1])),
+    /** {@link Facade#getPaqueras}. */
+    GET_PAQUERAS(29, 1, (f, a) -> f.getPaqueras(a[0])),
+    /** {@link Facade#adicionarInimigo}. */
+    ADICIONAR_INIMIGO(30, 2, (f, a) -> {
+        f.adicionarInimigo(a[0], a[1]);
+        return null;
+    }),
+    /** {@link Facade#ehInimigo}. */
+    EH_INIMIGO(31, 2, (f, a) -> f.ehInimigo(a[0], a[1])),
+    /** {@link Facade#getInimigos}. */
+    GET_INIMIGOS(32, 1, (f, a) -> f.getInimigos(a[0])),
+    /** {@link Facade#removerUsuario}. */
+    REMOVER_USUARIO(33, 1, (f, a) -> {
+        f.removerUsuario(a[0]);
+        return null;
+    });
+
+    private static final Opcode[] BY_CODE = new Opcode[values().length];
+
+    static {
+        for (Opcode opcode : values()) {
+            BY_CODE[opcode.code] = opcode;
+        }
+    }
+
+    private final int code;
+    private final int arity;
+    private final Call call;
+
+    Opcode(int code, int arity, Call call) {
+        this.code = code;
+        this.arity = arity;
+        this.call = call;
+    }
+
+    /**
+     * Gets the code sent on the wire.
+     *
+     * @return the opcode
+     */
+    public int code() {
+        return code;
+    }
+
+    /**
+     * Gets the number of arguments of the operation.
+     *
+     * @return the argument count
+     */
+    public int arity() {
+        return arity;
+    }
+
+    /**
+     * Checks whether the operation resets, loads or saves the whole system.
+     *
+     * @return true for zerarSistema, carregarSistema and encerrarSistema
+     */
+    public boolean isSystem() {
+        return this == ZERAR_SISTEMA || this == CARREGAR_SISTEMA || this == ENCERRAR_SISTEMA;
+    }
+
+    /**
+     * Finds an operation by its code.
+     *
+     * @param code the opcode
+     * @return the operation, or null if the code is unknown
+     */
+    public static Opcode of(int code) {
+        return code >= 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+    }
+
+    /**
+     * Runs the operation on a Facade.
+     *
+     * @param facade the Facade
+     * @param arguments exactly {@link #arity()} arguments
+     * @return the result, or null for operations without one
+     */
+    Object invoke(Facade facade, String[] arguments) {
+        return call.invoke(facade, arguments);
+    }
+
+    @FunctionalInterface
+    private interface Call {
+        Object invoke(Facade f, String[] a);
+    }
+}
@@ -0,0 +1,52 @@
+package br.ufal.ic.p2.jackut.server;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executors that run the requests of the network front ends.
+ *
+ * <p>On a JDK with virtual threads (21 or later) every task gets its own virtual
+ * thread, so blocked requests cost almost nothing. The factory is looked up by
+ * reflection so the code still runs on JDK 17, where a cached pool of daemon
+ * platform threads is used instead.</p>
+ */
+final class RequestThreads {
+
+    /** Uses virtual threads when the JDK has them; false always uses platform threads. */
+    static final String VIRTUAL_THREADS = "jackut.server.virtualThreads";
+
+    private RequestThreads() {
+    }
+
+    /**
+     * Creates an executor with one virtual thread per task, if this JDK has them.
+     *
+     * @return the executor, or null without virtual threads
+     */
+    static ExecutorService virtual() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Creates a cached pool of daemon platform threads.
+     *
+     * @param name the prefix of the thread names
+     * @return the executor
+     */
+    static ExecutorService platform(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -1,5 +1,6 @@
 package br.ufal.ic.p2.jackut.services;
 
+import br.ufal.ic.p2.jackut.concurrency.StripedLocks;
 import br.ufal.ic.p2.jackut.exceptions.InvalidAuthException;
 import br.ufal.ic.p2.jackut.exceptions.NotFoundUserException;
 import br.ufal.ic.p2.jackut.models.User;
@@ -8,17 +9,34 @@ import br.ufal.ic.p2.jackut.repositories.UserRepository;
 /**
  * Servio responsvel pela autenticao e gerenciamento de sesses de usurios.
  */
+@SuppressWarnings("try")
 public class AuthService {
 
     private final UserRepository userRepository;
+    private final StripedLocks locks;
+    private final PasswordHasher passwords;
 
     /**
-     * Construtor que recebe o repositrio de usurios.
+     * Construtor que recebe o repositrio de usurios e usa o pool de hashes do processo.
      *
      * @param userRepository o repositrio de usurios
+     * @param locks os locks compartilhados pelos servios
      */
-    public AuthService(UserRepository userRepository) {
+    public AuthService(UserRepository userRepository, StripedLocks locks) {
+        this(userRepository, locks, PasswordHasher.shared());
+    }
+
+    /**
+     * Construtor que recebe o repositrio de usurios e o pool de hashes.
+     *
+     * @param userRepository o repositrio de usurios
+     * @param locks os locks compartilhados pelos servios
+     * @param passwords o pool que confere as senhas
+     */
+    public AuthService(UserRepository userRepository, StripedLocks locks, PasswordHasher passwords) {
         this.userRepository = userRepository;
+        this.locks = locks;
+        this.passwords = passwords;
     }
 
     /**
@@ -30,25 +48,47 @@ public class AuthService {
      * @throws InvalidAuthException se o login ou senha for invlido
      */
     public String login(String login, String senha) throws InvalidAuthException {
-        User user = userRepository.getUserByLogin(login);
-
-        if (user == null || !user.getPassword().equals(senha)) {
-            throw new InvalidAuthException("Login ou senha invlidos.");
-        }
-
-        String sessionId = generateSessionId(login);
-        userRepository.addSession(sessionId, user);
-        return sessionId;
+        return login(login, senha, () -> { });
     }
 
     /**
-     * Gera um ID nico para a sesso do usurio.
+     * Realiza o login de um usurio e cria uma sesso, avisando quando a senha
+     * guardada foi trocada por um hash atualizado.
      *
-     * @param login o login do usurio
-     * @return o ID da sesso gerado
+     * @param login O login do usurio
+     * @param senha A senha do usurio
+     * @param onRehash chamado, sem nenhum lock, se a senha guardada foi atualizada
+     * @return O ID da sesso
+     * @throws InvalidAuthException se o login ou senha for invlido
      */
-    private String generateSessionId(String login) {
-        return login + "_" + System.currentTimeMillis();
+    public String login(String login, String senha, Runnable onRehash) throws InvalidAuthException {
+        while (true) {
+            // A senha  conferida no pool de hashes, fora do lock do login
+            User user = userRepository.getUserByLogin(login);
+            String stored = user == null ? null : user.getPassword();
+            if (user == null || !passwords.verify(senha, stored)) {
+                throw new InvalidAuthException("Login ou senha invlidos.");
+            }
+            String upgraded = passwords.needsRehash(stored) ? passwords.hash(senha) : null;
+
+            // Registrada sob o lock, a sesso no escapa de uma remoo ou troca de login simultnea
+            String sessionId = null;
+            try (StripedLocks.Held ignored = locks.lock(login)) {
+                if (userRepository.getUserByLogin(login) == user && user.getPassword() == stored) {
+                    if (upgraded != null) {
+                        user.setPassword(upgraded);
+                    }
+                    sessionId = userRepository.openSession(user);
+                }
+            }
+            if (sessionId != null) {
+                if (upgraded != null) {
+                    onRehash.run();
+                }
+                return sessionId;
+            }
+            // Usurio ou senha trocados enquanto a senha era conferida: confere de novo
+        }
     }
 
     /**
@@ -1,36 +1,110 @@
 package br.ufal.ic.p2.jackut.services;
 
+import br.ufal.ic.p2.jackut.concurrency.StripedLocks;
+import br.ufal.ic.p2.jackut.concurrency.Versions;
+import br.ufal.ic.p2.jackut.config.JackutConfig;
 import br.ufal.ic.p2.jackut.exceptions.InvalidCommunityException;
 import br.ufal.ic.p2.jackut.exceptions.NotFoundUserException;
 import br.ufal.ic.p2.jackut.models.Community;
+import br.ufal.ic.p2.jackut.models.CommunityView;
 import br.ufal.ic.p2.jackut.models.User;
+import br.ufal.ic.p2.jackut.models.UserView;
+import br.ufal.ic.p2.jackut.persistence.CommunityJournal;
+import br.ufal.ic.p2.jackut.persistence.JournalRecord;
 import br.ufal.ic.p2.jackut.repositories.CommunityRepository;
 import br.ufal.ic.p2.jackut.repositories.UserRepository;
 
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 
 /**
  * Service class responsible for managing community-related operations.
  * This class handles the creation, modification, and deletion of communities,
  * as well as user membership and message management within communities.
+ *
+ * <p>Operations on a single community hold the stripe of its name; creating,
+ * joining and leaving hold the stripes of both the user and the community, and
+ * posting holds only the stripe of the community: the message is pushed into the
+ * lock-free inbox of each member.</p>
+ *
+ * <p>Member and membership listings take no lock: they read the last committed
+ * version through a {@link Versions.Snapshot}.</p>
  */
+@SuppressWarnings("try")
 public class CommunityService {
     private final UserRepository userRepository;
     private final CommunityRepository communityRepository;
+    private final CommunityJournal journal;
+    private final boolean journalEnabled;
+    private final StripedLocks locks;
 
     /**
      * Constructor that initializes the CommunityService with required repositories.
-     * Loads community data upon initialization.
+     * Community data is only loaded by {@link SystemService#loadSystem()}.
      *
      * @param userRepository The repository for user data
      * @param communityRepository The repository for community data
+     * @param locks The locks shared by the services
      */
-    public CommunityService(UserRepository userRepository, CommunityRepository communityRepository) {
+    public CommunityService(UserRepository userRepository, CommunityRepository communityRepository,
+                            StripedLocks locks) {
+        this(userRepository, communityRepository, new CommunityJournal(),
+                JackutConfig.getBoolean(JackutConfig.JOURNAL_ENABLED, true), locks);
+    }
+
+    /**
+     * Constructor that allows choosing the journal used to persist mutations.
+     *
+     * @param userRepository The repository for user data
+     * @param communityRepository The repository for community data
+     * @param journal The write-ahead log of community mutations
+     * @param journalEnabled true to append mutations to the journal, false to rewrite the snapshots
+     * @param locks The locks shared by the services
+     */
+    public CommunityService(UserRepository userRepository, CommunityRepository communityRepository,
+                            CommunityJournal journal, boolean journalEnabled, StripedLocks locks) {
         this.userRepository = userRepository;
         this.communityRepository = communityRepository;
-        this.communityRepository.loadData(); // Carrega os dados ao inicializar
+        this.journal = journal;
+        this.journalEnabled = journalEnabled;
+        this.locks = locks;
+    }
+
+    /**
+     * Persists a community mutation without waiting for the disk, in journaled mode.
+     * The record is queued for the journal flusher. The journal must receive the
+     * records in the order the mutations were applied, so this is called while the
+     * mutation's locks are still held.
+     *
+     * @param record The mutation that was just applied in memory
+     */
+    private void journal(JournalRecord record) {
+        if (journalEnabled) {
+            journal.append(record);
+        }
+    }
+
+    /**
+     * Persists the last mutation without waiting for the disk, when the journal is
+     * disabled: the changed communities (and users, if users changed) are queued
+     * for the snapshot writer. Collecting them needs the exclusive lock, so this
+     * is called after the mutation's stripes were released.
+     *
+     * @param usersChanged true if the mutation also changed user data
+     */
+    private void saveChanges(boolean usersChanged) {
+        if (journalEnabled) {
+            return;
+        }
+        try (StripedLocks.Held ignored = locks.lockAll()) {
+            communityRepository.saveChanges();
+            if (usersChanged) {
+                userRepository.saveChanges();
+            }
+        }
     }
 
     /**
@@ -50,6 +124,18 @@ public class CommunityService {
             throw new NotFoundUserException();
         }
 
+        try (StripedLocks.Held ignored = locks.lockUsers(user, nome)) {
+            createCommunityLocked(sessao, nome, descricao);
+        }
+        saveChanges(true); // Persiste aps criao
+    }
+
+    private void createCommunityLocked(String sessao, String nome, String descricao) {
+        User user = userRepository.getUserBySession(sessao);
+        if (user == null) {
+            throw new NotFoundUserException();
+        }
+
 
         if (communityRepository.communityExists(nome)) {
             throw new InvalidCommunityException("alreadyExists");
@@ -58,8 +144,7 @@ public class CommunityService {
         Community community = new Community(nome, descricao, user.getLogin());
         communityRepository.addCommunity(community);
         userRepository.JoinCommunity(sessao,nome);
-        communityRepository.saveData(); // Persiste aps criao
-        userRepository.saveData();
+        journal(JournalRecord.createCommunity(nome, descricao, user.getLogin()));
     }
 
     /**
@@ -68,7 +153,7 @@ public class CommunityService {
      * @return A list of community names
      */
     public List<String> getCommunities() {
-        return communityRepository.getCommunities().keySet().stream().toList();
+        return communityRepository.listCommunities();
     }
 
     /**
@@ -79,8 +164,15 @@ public class CommunityService {
      * @throws NotFoundUserException If the user is not found
      */
     public String getCommunityByUser(String nome) throws NotFoundUserException {
-        return"{" + String.join(",", communityRepository.listCommunitiesByUser(nome)) + "}";
-
+        List<String> names = new ArrayList<>();
+        try (Versions.Snapshot snapshot = userRepository.getVersions().open()) {
+            for (CommunityView community : communityRepository.communitiesAt(snapshot.timestamp())) {
+                if (community.isMember(nome)) {
+                    names.add(community.getName());
+                }
+            }
+        }
+        return "{" + String.join(",", names) + "}";
     }
 
     /**
@@ -106,11 +198,9 @@ public class CommunityService {
      * @throws InvalidCommunityException If the community does not exist
      */
     public String getCommunityDescription(String nome) throws InvalidCommunityException {
-        Community community = getCommunity(nome);
-        if (community == null) {
-            throw new InvalidCommunityException("notFound");
+        try (StripedLocks.Held ignored = locks.lock(nome)) {
+            return getCommunity(nome).getDescription();
         }
-        return community.getDescription();
     }
     /**
      * Retrieves the manager (owner) of a community.
@@ -120,12 +210,9 @@ public class CommunityService {
      * @throws InvalidCommunityException If the community does not exist
      */
     public String getCommunityOwner(String owner) throws InvalidCommunityException {
-        Community community = getCommunity(owner);
-        if (community == null) {
-            throw new InvalidCommunityException("notFound");
-
+        try (StripedLocks.Held ignored = locks.lock(owner)) {
+            return getCommunity(owner).getManager();
         }
-        return community.getManager();
     }
 
     /**
@@ -136,11 +223,13 @@ public class CommunityService {
      * @throws InvalidCommunityException If the community does not exist
      */
     public String getCommunityMembers(String nome) throws InvalidCommunityException {
-        Community community = getCommunity(nome);
-        if (community == null) {
-            throw new InvalidCommunityException("notFound");
+        try (Versions.Snapshot snapshot = userRepository.getVersions().open()) {
+            CommunityView community = communityRepository.communityAt(nome, snapshot.timestamp());
+            if (community == null) {
+                throw new InvalidCommunityException("notFound");
+            }
+            return "{" + String.join(",", community.getMembers()) + "}";
         }
-        return "{" + String.join(",", community.getMembers()) + "}";
     }
 
     /**
@@ -151,8 +240,13 @@ public class CommunityService {
      * @throws NotFoundUserException If the user is not found
      */
     public String listCommunities(String login) throws NotFoundUserException {
-
-        return "{" + String.join(",", userRepository.getCommunities(login)) + "}";
+        try (Versions.Snapshot snapshot = userRepository.getVersions().open()) {
+            UserView user = userRepository.userAt(login, snapshot.timestamp());
+            if (user == null) {
+                throw new NotFoundUserException();
+            }
+            return "{" + String.join(",", user.getCommunities()) + "}";
+        }
     }
 
 
@@ -171,6 +265,18 @@ public class CommunityService {
             throw new NotFoundUserException();
         }
 
+        try (StripedLocks.Held ignored = locks.lockUsers(user, nome)) {
+            joinCommunityLocked(id, nome);
+        }
+        saveChanges(true); // Persiste aps adio de membro
+    }
+
+    private void joinCommunityLocked(String id, String nome) {
+        User user = userRepository.getUserBySession(id);
+        if (user == null) {
+            throw new NotFoundUserException();
+        }
+
         Community community = getCommunity(nome);
         if (community.isMember(user.getLogin())) {
             throw new InvalidCommunityException("alreadyMember");
@@ -179,8 +285,7 @@ public class CommunityService {
         community.addMember(user.getLogin());
         userRepository.JoinCommunity(id, nome);// adiciona no User para manter a ordem em que foi adicionado pelo o usurio
 
-        communityRepository.saveData(); // Persiste aps adio de membro
-        userRepository.saveData();
+        journal(JournalRecord.joinCommunity(nome, user.getLogin()));
     }
 
     /**
@@ -198,6 +303,18 @@ public class CommunityService {
             throw new NotFoundUserException();
         }
 
+        try (StripedLocks.Held ignored = locks.lockUsers(user, nome)) {
+            leaveCommunityLocked(id, nome);
+        }
+        saveChanges(true); // Persiste aps remoo de membro
+    }
+
+    private void leaveCommunityLocked(String id, String nome) {
+        User user = userRepository.getUserBySession(id);
+        if (user == null) {
+            throw new NotFoundUserException();
+        }
+
         Community community = getCommunity(nome);
         if (community.isManager(user.getLogin())) {
             throw new InvalidCommunityException("managerCantLeave");
@@ -208,8 +325,7 @@ public class CommunityService {
 
         community.removeMember(user.getLogin());
         userRepository.LeaveCommunity(id, nome);
-        communityRepository.saveData(); // Persiste aps remoo de membro
-        userRepository.saveData();
+        journal(JournalRecord.leaveCommunity(nome, user.getLogin()));
     }
 
     /**
@@ -229,13 +345,16 @@ public class CommunityService {
             throw new NotFoundUserException();
         }
 
-        Community community = getCommunity(nome);
-        if (!community.isManager(user.getLogin())) {
-            throw new InvalidCommunityException("notManager");
-        }
+        try (StripedLocks.Held ignored = locks.lock(nome)) {
+            Community community = getCommunity(nome);
+            if (!community.isManager(user.getLogin())) {
+                throw new InvalidCommunityException("notManager");
+            }
 
-        community.setDescription(descricao);
-        communityRepository.saveData(); // Persiste aps edio
+            community.setDescription(descricao);
+            journal(JournalRecord.editDescription(nome, descricao));
+        }
+        saveChanges(false); // Persiste aps edio
     }
 
     /**
@@ -260,16 +379,19 @@ public class CommunityService {
             throw new NotFoundUserException();
         }
 
-        Community community = getCommunity(nome);
-        if (!community.isManager(currentManager.getLogin())) {
-            throw new InvalidCommunityException("notManager");
-        }
-        if (!community.isMember(novoGerente)) {
-            throw new InvalidCommunityException("notMember");
-        }
+        try (StripedLocks.Held ignored = locks.lock(nome)) {
+            Community community = getCommunity(nome);
+            if (!community.isManager(currentManager.getLogin())) {
+                throw new InvalidCommunityException("notManager");
+            }
+            if (!community.isMember(novoGerente)) {
+                throw new InvalidCommunityException("notMember");
+            }
 
-        community.setManager(novoGerente);
-        communityRepository.saveData(); // Persiste aps transferncia
+            community.setManager(novoGerente);
+            journal(JournalRecord.transferManagement(nome, novoGerente));
+        }
+        saveChanges(false); // Persiste aps transferncia
     }
 
     /**
@@ -288,13 +410,16 @@ public class CommunityService {
             throw new NotFoundUserException();
         }
 
-        Community community = getCommunity(nome);
-        if (!community.isManager(user.getLogin())) {
-            throw new InvalidCommunityException("notManager");
-        }
+        try (StripedLocks.Held ignored = locks.lock(nome)) {
+            Community community = getCommunity(nome);
+            if (!community.isManager(user.getLogin())) {
+                throw new InvalidCommunityException("notManager");
+            }
 
-        communityRepository.removeCommunity(nome);
-        communityRepository.saveData(); // Persiste aps remoo
+            communityRepository.removeCommunity(nome);
+            journal(JournalRecord.deleteCommunity(nome));
+        }
+        saveChanges(false); // Persiste aps remoo
     }
     // Add these methods to the CommunityService class
 
@@ -314,13 +439,21 @@ public class CommunityService {
             throw new NotFoundUserException();
         }
 
-        Community community = communityRepository.getCommunityByName(communityName);
-        if (community == null) {
-            throw new InvalidCommunityException("notFound");
+        // Entrega a mensagem na caixa de todos os membros. Entrar ou sair exige a
+        // faixa da comunidade, entao a lista de membros nao muda enquanto ela esta
+        // presa; as caixas de entrada dos membros dispensam as faixas deles.
+        try (StripedLocks.Held ignored = locks.lock(communityName)) {
+            Community community = communityRepository.getCommunityByName(communityName);
+            if (community == null) {
+                throw new InvalidCommunityException("notFound");
+            }
+            deliver(community, community.getMembers(), content);
         }
+    }
 
+    private void deliver(Community community, Set<String> members, String content) {
         community.addMessage(content);
-        for (String member : community.getMembers()) {
+        for (String member : members) {
             User memberUser = userRepository.getUserByLogin(member);
             if (memberUser != null) {
                 memberUser.addCommunityMessage(content);
@@ -341,21 +474,47 @@ public class CommunityService {
             throw new NotFoundUserException();
         }
 
-        return user.readCommunitiesMessages();
+        try (StripedLocks.Held ignored = locks.lockShared()) {
+            return user.readCommunitiesMessages();
+        }
     }
 
     /**
      * Loads community data from persistent storage.
+     * The journal is replayed over the snapshot, so the users must be loaded first.
      */
     public void loadData() {
+        loadSnapshot();
+        replayJournal();
+    }
+
+    /**
+     * Loads the community snapshot and its change sets.
+     * Does not touch the users, so it may run while they are being loaded.
+     */
+    public void loadSnapshot() {
         communityRepository.loadData();
     }
 
     /**
-     * Saves community data to persistent storage.
+     * Replays the journal over the loaded communities.
+     * Both the users and the community snapshot must be loaded first.
      */
-    public void saveData() {
-        communityRepository.saveData();
+    public void replayJournal() {
+        journal.replay(userRepository, communityRepository);
+    }
+
+    /**
+     * Removes a community as part of the removal of its user, journaling the deletion
+     * so that a replay of the journal does not bring it back.
+     * The caller holds the exclusive lock.
+     *
+     * @param name The name of the community
+     */
+    public void removeCommunityLocked(String name) {
+        if (communityRepository.removeCommunity(name)) {
+            journal(JournalRecord.deleteCommunity(name));
+        }
     }
 
     /**
@@ -371,7 +530,8 @@ public class CommunityService {
      * @return true if the file was successfully deleted or did not exist, false otherwise
      */
     public boolean deleteDataFile() {
-        return communityRepository.deleteDataFile();
+        boolean logDeleted = journal.deleteLogFile();
+        return communityRepository.deleteDataFile() && logDeleted;
     }
 
 }
@@ -1,28 +1,37 @@
 package br.ufal.ic.p2.jackut.services;
 
+import br.ufal.ic.p2.jackut.concurrency.StripedLocks;
+import br.ufal.ic.p2.jackut.concurrency.Versions;
 import br.ufal.ic.p2.jackut.exceptions.EnemyException;
 import br.ufal.ic.p2.jackut.exceptions.InvalidFriendOpException;
 import br.ufal.ic.p2.jackut.exceptions.NotFoundUserException;
 import br.ufal.ic.p2.jackut.models.User;
+import br.ufal.ic.p2.jackut.models.UserView;
 import br.ufal.ic.p2.jackut.repositories.UserRepository;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Servio responsvel pelas operaes relacionadas a amizades.
  * Implementa o padro Service para isolar a lgica de negcio.
+ * As operaes sobre um usurio seguram o lock da sua faixa em {@link StripedLocks}.
  */
+@SuppressWarnings("try")
 public class FriendshipService {
 
     private final UserRepository userRepository;
+    private final StripedLocks locks;
 
     /**
      * Construtor que recebe o repositrio de usurios.
      *
      * @param userRepository o repositrio de usurios
+     * @param locks os locks compartilhados pelos servios
      */
-    public FriendshipService(UserRepository userRepository) {
+    public FriendshipService(UserRepository userRepository, StripedLocks locks) {
         this.userRepository = userRepository;
+        this.locks = locks;
     }
 
     /**
@@ -34,12 +43,15 @@ public class FriendshipService {
      * @throws NotFoundUserException se algum dos usurios no for encontrado
      */
     public boolean areFriends(String login, String amigo) throws NotFoundUserException {
-        User user = userRepository.getUserByLogin(login);
-        if (user == null) {
-            throw new NotFoundUserException();
-        }
-
-        return user.getFriends().contains(amigo);
+        // Leitura otimista, sem locks, refeita sob o lock se um escritor interferir
+        return locks.read(login, () -> {
+            User user = userRepository.getUserByLogin(login);
+            if (user == null) {
+                throw new NotFoundUserException();
+            }
+
+            return user.getFriends().contains(amigo);
+        });
     }
 
     /**
@@ -56,6 +68,18 @@ public class FriendshipService {
             throw new NotFoundUserException();
         }
 
+        // Altera os dois usurios: as duas faixas so obtidas em ordem fixa
+        try (StripedLocks.Held ignored = locks.lockUsers(user, friendLogin)) {
+            addFriendLocked(sessionId, friendLogin);
+        }
+    }
+
+    private void addFriendLocked(String sessionId, String friendLogin) {
+        User user = userRepository.getUserBySession(sessionId);
+        if (user == null) {
+            throw new NotFoundUserException();
+        }
+
         User friend = userRepository.getUserByLogin(friendLogin);
         if (friend == null) {
             throw new NotFoundUserException();
@@ -84,11 +108,11 @@ public class FriendshipService {
         List<String> userSolicitations = user.getFriends().getFriendSolicitations();
         if (userSolicitations.contains(friend.getLogin())) {
             // Se o amigo j enviou uma solicitao, aceita automaticamente
-            user.getFriends().addFriend(friend.getLogin());
-            friend.getFriends().addFriend(user.getLogin());
+            user.addFriend(friend.getLogin());
+            friend.addFriend(user.getLogin());
         } else {
             // Caso contrrio, envia uma solicitao
-            friend.getFriends().addFriendSolicitation(user.getLogin());
+            friend.addFriendSolicitation(user.getLogin());
         }
     }
 
@@ -100,28 +124,33 @@ public class FriendshipService {
      * @throws NotFoundUserException se o usurio no for encontrado
      */
     public String getFriendsList(String login) {
-        User user = userRepository.getUserByLogin(login);
-        if (user == null) {
-            throw new NotFoundUserException();
+        // L a ltima verso publicada, sem esperar pelos escritores
+        try (Versions.Snapshot snapshot = userRepository.getVersions().open()) {
+            UserView user = userRepository.userAt(login, snapshot.timestamp());
+            if (user == null) {
+                throw new NotFoundUserException();
+            }
+
+            return "{" + String.join(",", user.getFriends()) + "}";
         }
-
-        return user.getFriends().getFormattedFriendsList();
     }
 
     /**
      * Obtm a lista de solicitaes de amizade pendentes de um usurio.
      *
      * @param login o login do usurio
-     * @return uma lista com os logins dos usurios que enviaram solicitaes
+     * @return uma cpia da lista com os logins dos usurios que enviaram solicitaes
      * @throws NotFoundUserException se o usurio no for encontrado
      */
     public List<String> getPendingFriendRequests(String login){
-        User user = userRepository.getUserByLogin(login);
-        if (user == null) {
-            throw new NotFoundUserException();
-        }
+        try (StripedLocks.Held ignored = locks.lock(login)) {
+            User user = userRepository.getUserByLogin(login);
+            if (user == null) {
+                throw new NotFoundUserException();
+            }
 
-        return user.getFriends().getFriendSolicitations();
+            return new ArrayList<>(user.getFriends().getFriendSolicitations());
+        }
     }
 
     /**
@@ -138,11 +167,14 @@ public class FriendshipService {
             throw new NotFoundUserException();
         }
 
-        List<String> solicitations = user.getFriends().getFriendSolicitations();
-        if (!solicitations.contains(solicitante)) {
-            throw new InvalidFriendOpException("default");
-        }
+        try (StripedLocks.Held ignored = locks.lockUser(user)) {
+            List<String> solicitations = user.getFriends().getFriendSolicitations();
+            if (!solicitations.contains(solicitante)) {
+                throw new InvalidFriendOpException("default");
+            }
 
-        solicitations.remove(solicitante);
+            solicitations.remove(solicitante);
+            user.markDirty();
+        }
     }
 }
@@ -1,5 +1,6 @@
 package br.ufal.ic.p2.jackut.services;
 
+import br.ufal.ic.p2.jackut.concurrency.StripedLocks;
 import br.ufal.ic.p2.jackut.exceptions.*;
 import br.ufal.ic.p2.jackut.models.Recado;
 import br.ufal.ic.p2.jackut.models.User;
@@ -8,17 +9,23 @@ import br.ufal.ic.p2.jackut.repositories.UserRepository;
 /**
  * Servio responsvel pelas operaes relacionadas a mensagens.
  * Implementa o padro Service para isolar a lgica de negcio.
+ * Os recados ficam em caixas de entrada sem locks ({@link br.ufal.ic.p2.jackut.concurrency.MpscInbox}),
+ * ento enviar e ler s seguram o lock do sistema em modo compartilhado.
  */
+@SuppressWarnings("try")
 public class MessageService {
     private final UserRepository userRepository;
+    private final StripedLocks locks;
 
     /**
      * Construtor que recebe o repositrio de usurios.
      *
      * @param userRepository o repositrio de usurios
+     * @param locks os locks compartilhados pelos servios
      */
-    public MessageService(UserRepository userRepository) {
+    public MessageService(UserRepository userRepository, StripedLocks locks) {
         this.userRepository = userRepository;
+        this.locks = locks;
     }
 
     /**
@@ -45,12 +52,21 @@ public class MessageService {
             throw new SelfMessageException();
         }
 
-        if (recipient.getEnemies().contains(sender.getLogin())) {
+        // A lista de inimigos e lida sem travar a faixa do destinatario
+        String senderLogin = sender.getLogin();
+        if (locks.readUser(recipient, () -> recipient.getEnemies().contains(senderLogin))) {
             throw new InvalidFriendOpException("Funo invlida: " + recipient.getName() + "  seu inimigo.");
         }
 
-        Recado recado = new Recado(sender.getLogin(), mensagem, destinatario);
-        recipient.incomingMessage(recado);
+        try (StripedLocks.Held ignored = locks.lockShared()) {
+            // Uma remocao pode ter ocorrido antes do lock; os recados dela ja foram apagados
+            if (userRepository.getUserBySession(sessionId) != sender
+                    || userRepository.getUserByLogin(destinatario) != recipient) {
+                throw new NotFoundUserException();
+            }
+            Recado recado = new Recado(senderLogin, mensagem, destinatario);
+            recipient.incomingMessage(recado);
+        }
     }
 
     /**
@@ -67,9 +83,12 @@ public class MessageService {
             throw new NotFoundUserException();
         }
 
-        Recado recado = user.getMessages().poll();
-        if (recado == null) {
-            throw new NotFoundMessageException("No h recados.");
+        Recado recado;
+        try (StripedLocks.Held ignored = locks.lockShared()) {
+            recado = user.pollMessage();
+            if (recado == null) {
+                throw new NotFoundMessageException("No h recados.");
+            }
         }
 
         return recado.getMensagem();
@@ -0,0 +1,219 @@
+package br.ufal.ic.p2.jackut.services;
+
+import br.ufal.ic.p2.jackut.config.JackutConfig;
+import br.ufal.ic.p2.jackut.exceptions.SystemOperationException;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Calcula e confere os hashes das senhas com PBKDF2 (HMAC-SHA256, sal
+ * aleatrio por senha), num pool de threads prprio.
+ *
+ * <p>Um hash lento de propsito no pode rodar nas threads das requisies
+ * sem limite: com muitos logins ao mesmo tempo, elas tomariam todos os
+ * processadores. Aqui cada hash roda num pool de {@link #THREADS} threads, e
+ * no mximo {@link #QUEUE} hashes esperam por elas; quem chega com a fila
+ * cheia espera uma vaga por at {@link #TIMEOUT} milissegundos e ento recebe
+ * {@link SystemOperationException}, em vez de acumular trabalho sem fim.</p>
+ *
+ * <p>O custo ({@link #ITERATIONS})  gravado junto com cada hash, no formato
+ * {@code pbkdf2-sha256$iteracoes$sal$hash}, ento ele pode mudar entre
+ * implantaes sem invalidar as senhas existentes: {@link #needsRehash(String)}
+ * indica os hashes com outro custo, e o login os recalcula. Senhas gravadas em
+ * texto puro por verses anteriores continuam aceitas e tambm so
+ * recalculadas no primeiro login.</p>
+ */
+public final class PasswordHasher {
+
+    /** Iteraes do PBKDF2 para os novos hashes (padro: 100000). */
+    public static final String ITERATIONS = "jackut.passwords.iterations";
+
+    /** Threads do pool de hashes (padro: nmero de processadores). */
+    public static final String THREADS = "jackut.passwords.threads";
+
+    /** Hashes que podem esperar por uma thread do pool (padro: 256). */
+    public static final String QUEUE = "jackut.passwords.queue";
+
+    /** Milissegundos que um hash espera por uma vaga na fila (padro: 10000). */
+    public static final String TIMEOUT = "jackut.passwords.timeout";
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String PREFIX = "pbkdf2-sha256$";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static final class Shared {
+        static final PasswordHasher INSTANCE = new PasswordHasher(
+                JackutConfig.getInt(ITERATIONS, 100_000),
+                JackutConfig.getInt(THREADS, Runtime.getRuntime().availableProcessors()),
+                JackutConfig.getInt(QUEUE, 256),
+                JackutConfig.getLong(TIMEOUT, 10_000));
+    }
+
+    private final int iterations;
+    private final ThreadPoolExecutor pool;
+    // Vagas de hashes em andamento ou na fila
+    private final Semaphore slots;
+    private final long timeoutMillis;
+
+    /**
+     * Obtm o pool do processo, com os parmetros configurados.
+     *
+     * @return o pool compartilhado
+     */
+    public static PasswordHasher shared() {
+        return Shared.INSTANCE;
+    }
+
+    /**
+     * Cria um pool de hashes com parmetros explcitos.
+     *
+     * @param iterations iteraes do PBKDF2 para os novos hashes
+     * @param threads threads do pool
+     * @param queue hashes que podem esperar por uma thread
+     * @param timeoutMillis milissegundos que um hash espera por uma vaga na fila
+     */
+    public PasswordHasher(int iterations, int threads, int queue, long timeoutMillis) {
+        this.iterations = Math.max(1, iterations);
+        int size = Math.max(1, threads);
+        AtomicInteger count = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(size, size, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "jackut-passwords-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.slots = new Semaphore(size + Math.max(0, queue));
+        this.timeoutMillis = Math.max(0, timeoutMillis);
+    }
+
+    /**
+     * Obtm o custo dos novos hashes.
+     *
+     * @return as iteraes do PBKDF2
+     */
+    public int iterations() {
+        return iterations;
+    }
+
+    /**
+     * Calcula o hash de uma senha com um sal novo.
+     *
+     * @param password a senha
+     * @return o hash, com o custo e o sal
+     * @throws SystemOperationException se o pool estiver sobrecarregado
+     */
+    public String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+        return PREFIX + iterations + '$' + encoder.encodeToString(salt) + '$'
+                + encoder.encodeToString(derive(password, salt, iterations));
+    }
+
+    /**
+     * Confere uma senha com o hash guardado.
+     *
+     * @param password a senha informada
+     * @param stored o hash guardado, ou a senha em texto puro de verses anteriores
+     * @return true se a senha conferir
+     * @throws SystemOperationException se o pool estiver sobrecarregado
+     */
+    public boolean verify(String password, String stored) {
+        if (password == null || stored == null) {
+            return false;
+        }
+        if (!stored.startsWith(PREFIX)) {
+            return MessageDigest.isEqual(stored.getBytes(StandardCharsets.UTF_8),
+                    password.getBytes(StandardCharsets.UTF_8));
+        }
+        String[] fields = stored.substring(PREFIX.length()).split("\\$");
+        if (fields.length != 3) {
+            return false;
+        }
+        try {
+            int cost = Integer.parseInt(fields[0]);
+            byte[] salt = Base64.getDecoder().decode(fields[1]);
+            byte[] expected = Base64.getDecoder().decode(fields[2]);
+            return cost > 0 && MessageDigest.isEqual(expected, derive(password, salt, cost));
+        } catch (IllegalArgumentException e) {
+            return false; // Hash malformado
+        }
+    }
+
+    /**
+     * Indica se um hash guardado deve ser recalculado com o custo atual.
+     *
+     * @param stored o hash guardado
+     * @return true se ele for texto puro ou tiver outro custo
+     */
+    public boolean needsRehash(String stored) {
+        return stored == null || !stored.startsWith(PREFIX + iterations + '$');
+    }
+
+    /**
+     * Encerra as threads do pool; os hashes seguintes falham.
+     */
+    public void close() {
+        pool.shutdown();
+    }
+
+    /**
+     * Calcula o PBKDF2 numa thread do pool e espera o resultado.
+     */
+    private byte[] derive(String password, byte[] salt, int cost) {
+        try {
+            if (!slots.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SystemOperationException("muitas senhas sendo conferidas, tente novamente");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SystemOperationException(e);
+        }
+        Future<byte[]> result;
+        try {
+            result = pool.submit(() -> {
+                try {
+                    return pbkdf2(password, salt, cost);
+                } finally {
+                    slots.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            slots.release();
+            throw new SystemOperationException(e);
+        }
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SystemOperationException(e);
+        } catch (ExecutionException e) {
+            throw new SystemOperationException(e.getCause());
+        }
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int cost) throws GeneralSecurityException {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, cost, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package br.ufal.ic.p2.jackut.services;
 
+import br.ufal.ic.p2.jackut.concurrency.StripedLocks;
 import br.ufal.ic.p2.jackut.models.User;
 import br.ufal.ic.p2.jackut.models.Recado;
 import br.ufal.ic.p2.jackut.repositories.UserRepository;
@@ -8,7 +9,11 @@ import br.ufal.ic.p2.jackut.exceptions.*;
 /**
  * Service class responsible for managing different types of relationships between users in the Jackut social network.
  * This class handles idol-fan relationships, crushes, and enemy relationships.
+ *
+ * <p>Operations that read or change a single user hold that user's stripe in
+ * {@link StripedLocks}; operations that change two users lock the whole system.</p>
  */
+@SuppressWarnings("try")
 public class RelationshipService {
 
     /**
@@ -21,15 +26,22 @@ public class RelationshipService {
      */
     private final UserRepository userManager;
 
+    /**
+     * The locks shared by the services.
+     */
+    private final StripedLocks locks;
+
     /**
      * Constructs a new RelationshipService with the specified repositories.
      *
      * @param userRepository The repository for accessing user data
      * @param authService The service for authentication and session management
+     * @param locks The locks shared by the services
      */
-    public RelationshipService(UserRepository userRepository, AuthService authService) {
+    public RelationshipService(UserRepository userRepository, AuthService authService, StripedLocks locks) {
         this.userManager = userRepository;
         this.sessionManager = authService;
+        this.locks = locks;
     }
 
     /**
@@ -49,6 +61,17 @@ public class RelationshipService {
             throw new NotFoundUserException();
         }
 
+        try (StripedLocks.Held ignored = locks.lockUsers(fan, loginIdol)) {
+            addIdolLocked(session, loginIdol);
+        }
+    }
+
+    private void addIdolLocked(String session, String loginIdol) {
+        User fan = sessionManager.getUserFromSession(session);
+        if (fan == null) {
+            throw new NotFoundUserException();
+        }
+
         User idol = userManager.getUserByLogin(loginIdol);
         if (idol == null) {
             throw new NotFoundUserException("Usurio no cadastrado.");
@@ -68,6 +91,8 @@ public class RelationshipService {
 
         fan.idols.add(loginIdol);
         idol.fans.add(fan.getLogin());
+        fan.markDirty();
+        idol.markDirty();
     }
 
     /**
@@ -78,9 +103,11 @@ public class RelationshipService {
      * @return true if the user is a fan of the idol, false otherwise
      */
     public boolean ehFa(String loginUser, String loginIdol) {
-        User user = userManager.getUserByLogin(loginUser);
-        if (user == null || user.idols == null) return false;
-        return user.idols.contains(loginIdol);
+        return locks.read(loginUser, () -> {
+            User user = userManager.getUserByLogin(loginUser);
+            if (user == null || user.idols == null) return false;
+            return user.idols.contains(loginIdol);
+        });
     }
 
     /**
@@ -90,8 +117,10 @@ public class RelationshipService {
      * @return A formatted string containing the logins of all fans
      */
     public String getFas(String login) {
-        User user = userManager.getUserByLogin(login);
-        return "{" + String.join(",", user.fans) + "}";
+        try (StripedLocks.Held ignored = locks.lock(login)) {
+            User user = userManager.getUserByLogin(login);
+            return "{" + String.join(",", user.fans) + "}";
+        }
     }
 
     /**
@@ -103,7 +132,7 @@ public class RelationshipService {
      */
     public boolean ehPaquera(String session, String paquera) {
         User user = sessionManager.getUserFromSession(session);
-        return user.getCrushes().contains(paquera);
+        return locks.readUser(user, () -> user.getCrushes().contains(paquera));
     }
 
     /**
@@ -123,6 +152,18 @@ public class RelationshipService {
             throw new NotFoundUserException();
         }
 
+        // Uma paquera mtua envia recados aos dois usurios
+        try (StripedLocks.Held ignored = locks.lockUsers(user, paqueraLogin)) {
+            addCrushLocked(session, paqueraLogin);
+        }
+    }
+
+    private void addCrushLocked(String session, String paqueraLogin) {
+        User user = sessionManager.getUserFromSession(session);
+        if (user == null) {
+            throw new NotFoundUserException();
+        }
+
         User paquera = userManager.getUserByLogin(paqueraLogin);
         if (paquera == null) {
             throw new NotFoundUserException("Usurio no cadastrado.");
@@ -141,6 +182,7 @@ public class RelationshipService {
         }
 
         user.getCrushes().add(paqueraLogin);
+        user.markDirty();
 
         // Verificar se  paquera mtua
         if (paquera.getCrushes().contains(user.getLogin())) {
@@ -164,7 +206,9 @@ public class RelationshipService {
      */
     public String getPaqueras(String session) {
         User user = sessionManager.getUserFromSession(session);
-        return "{" + String.join(",", user.getCrushes()) + "}";
+        try (StripedLocks.Held ignored = locks.lockUser(user)) {
+            return "{" + String.join(",", user.getCrushes()) + "}";
+        }
     }
 
     /**
@@ -188,15 +232,18 @@ public class RelationshipService {
             throw new NotFoundUserException("Usurio no cadastrado.");
         }
 
-        if (user.getEnemies().contains(loginInimigo)) {
-            throw new EnemyAlreadyAdded("Usurio j est adicionado como inimigo.");
-        }
+        try (StripedLocks.Held ignored = locks.lockUser(user)) {
+            if (user.getEnemies().contains(loginInimigo)) {
+                throw new EnemyAlreadyAdded("Usurio j est adicionado como inimigo.");
+            }
 
-        if (loginInimigo.equals(user.getLogin())) {
-            throw new EnemyOfItself("Usurio no pode ser inimigo de si mesmo.");
-        }
+            if (loginInimigo.equals(user.getLogin())) {
+                throw new EnemyOfItself("Usurio no pode ser inimigo de si mesmo.");
+            }
 
-        user.getEnemies().add(loginInimigo);
+            user.getEnemies().add(loginInimigo);
+            user.markDirty();
+        }
     }
 
     /**
@@ -207,7 +254,9 @@ public class RelationshipService {
      */
     public String getInimigos(String session)  {
         User user = sessionManager.getUserFromSession(session);
-        return "{" + String.join(",", user.getEnemies()) + "}";
+        try (StripedLocks.Held ignored = locks.lockUser(user)) {
+            return "{" + String.join(",", user.getEnemies()) + "}";
+        }
     }
 
     /**
@@ -219,7 +268,7 @@ public class RelationshipService {
      */
     public boolean ehInimigo(String session, String loginInimigo) {
         User user = sessionManager.getUserFromSession(session);
-        return user.getEnemies().contains(loginInimigo);
+        return locks.readUser(user, () -> user.getEnemies().contains(loginInimigo));
     }
 
     /**
@@ -232,14 +281,18 @@ public class RelationshipService {
      */
     public void removerIdolo(String session, String loginIdol)  {
         User fan = sessionManager.getUserFromSession(session);
-        User idol = userManager.getUserByLogin(loginIdol);
+        try (StripedLocks.Held ignored = locks.lockUsers(fan, loginIdol)) {
+            User idol = userManager.getUserByLogin(loginIdol);
 
-        if (!fan.idols.contains(loginIdol)) {
-            throw new RuntimeException("Usurio no  seu dolo");
-        }
+            if (!fan.idols.contains(loginIdol)) {
+                throw new RuntimeException("Usurio no  seu dolo");
+            }
 
-        fan.idols.remove(loginIdol);
-        idol.fans.remove(fan.getLogin());
+            fan.idols.remove(loginIdol);
+            idol.fans.remove(fan.getLogin());
+            fan.markDirty();
+            idol.markDirty();
+        }
     }
 
     /**
@@ -252,10 +305,13 @@ public class RelationshipService {
     public void removerPaquera(String session, String loginPaquera)  {
         User user = sessionManager.getUserFromSession(session);
 
-        if (!user.getCrushes().contains(loginPaquera))
-            throw new RuntimeException("Usurio no  seu paquera");
+        try (StripedLocks.Held ignored = locks.lockUser(user)) {
+            if (!user.getCrushes().contains(loginPaquera))
+                throw new RuntimeException("Usurio no  seu paquera");
 
-        user.getCrushes().remove(loginPaquera);
+            user.getCrushes().remove(loginPaquera);
+            user.markDirty();
+        }
     }
 
     /**
@@ -268,10 +324,13 @@ public class RelationshipService {
     public void removerInimigo(String session, String loginInimigo) {
         User user = sessionManager.getUserFromSession(session);
 
-        if (!user.getEnemies().contains(loginInimigo))
-            throw new RuntimeException("Usurio no  seu inimigo");
+        try (StripedLocks.Held ignored = locks.lockUser(user)) {
+            if (!user.getEnemies().contains(loginInimigo))
+                throw new RuntimeException("Usurio no  seu inimigo");
 
-        user.getEnemies().remove(loginInimigo);
+            user.getEnemies().remove(loginInimigo);
+            user.markDirty();
+        }
     }
 
     /**
@@ -282,6 +341,8 @@ public class RelationshipService {
      */
     public String getIdolos(String session) {
         User user = sessionManager.getUserFromSession(session);
-        return "{" + String.join(",", user.idols) + "}";
+        try (StripedLocks.Held ignored = locks.lockUser(user)) {
+            return "{" + String.join(",", user.idols) + "}";
+        }
     }
 }
\ No newline at end of file
@@ -1,5 +1,9 @@
 package br.ufal.ic.p2.jackut.services;
 
+import br.ufal.ic.p2.jackut.concurrency.StripedLocks;
+import br.ufal.ic.p2.jackut.config.JackutConfig;
+import br.ufal.ic.p2.jackut.exceptions.SystemOperationException;
+import br.ufal.ic.p2.jackut.persistence.Checkpointer;
 import br.ufal.ic.p2.jackut.repositories.CommunityRepository;
 import br.ufal.ic.p2.jackut.repositories.UserRepository;
 import br.ufal.ic.p2.jackut.exceptions.NotFoundUserException;
@@ -7,50 +11,137 @@ import br.ufal.ic.p2.jackut.exceptions.InvalidCommunityException;
 
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Servio responsvel pelas operaes do sistema.
  * Gerencia a inicializao e encerramento do sistema.
  */
+@SuppressWarnings("try")
 public class SystemService {
     private final UserRepository userRepository;
     private final CommunityService communityService;
+    private final Checkpointer checkpointer;
+    private final StripedLocks locks;
 
     /**
      * Construtor que recebe os repositrios e servios necessrios.
      *
      * @param userRepository o repositrio de usurios
      * @param communityService o servio de comunidades
+     * @param checkpointer o responsvel pelos snapshots peridicos em segundo plano
+     * @param locks os locks compartilhados pelos servios
      */
-    public SystemService(UserRepository userRepository, CommunityService communityService) {
+    public SystemService(UserRepository userRepository, CommunityService communityService,
+                         Checkpointer checkpointer, StripedLocks locks) {
         this.userRepository = userRepository;
         this.communityService = communityService;
+        this.checkpointer = checkpointer;
+        this.locks = locks;
     }
 
     /**
      * Inicializa o sistema, carregando os dados dos arquivos serializados.
+     * Os snapshots de usurios e de comunidades so independentes, ento so
+     * carregados ao mesmo tempo (o de comunidades no pool fork/join comum); o log
+     * de comunidades s  reaplicado depois que os dois esto em memria.
      */
     public void loadSystem() {
-        userRepository.loadData();
-        communityService.loadData();
+        try (StripedLocks.Held ignored = locks.lockAll()) {
+            loadLocked();
+        }
+    }
+
+    private void loadLocked() {
+        checkpointer.awaitIdle();
+        if (JackutConfig.getBoolean(JackutConfig.PARALLEL_STARTUP, true)) {
+            CompletableFuture<Void> communities = CompletableFuture.runAsync(communityService::loadSnapshot);
+            try {
+                userRepository.loadData();
+            } finally {
+                awaitLoad(communities);
+            }
+        } else {
+            userRepository.loadData();
+            communityService.loadSnapshot();
+        }
+        communityService.replayJournal();
+        checkpointer.reset();
+    }
+
+    /**
+     * Espera o carregamento em segundo plano, repassando a sua falha.
+     */
+    private static void awaitLoad(CompletableFuture<Void> load) {
+        try {
+            load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new SystemOperationException(e.getCause());
+        }
     }
 
     /**
      * Encerra o sistema, salvando os dados nos arquivos serializados.
+     * Se um checkpoint recente j cobre todas as alteraes, nada  regravado.
      */
     public void saveSystem() {
-        userRepository.saveData();
-        communityService.saveData();
+        try (StripedLocks.Held ignored = locks.lockAll()) {
+            checkpointer.checkpointNow();
+        }
+    }
+
+    /**
+     * Grava agora um checkpoint que cobre uma alterao ainda em andamento sob o
+     * lock exclusivo, descartando o trecho do log de comunidades que ele cobre.
+     * Quem chama j tem {@link StripedLocks#lockAll()}.
+     */
+    public void checkpointLocked() {
+        checkpointer.checkpointNow(true);
+    }
+
+    /**
+     * Remove uma comunidade como parte da remoo de um usurio.
+     * Quem chama j tem {@link StripedLocks#lockAll()}.
+     *
+     * @param name o nome da comunidade
+     */
+    public void removeCommunityLocked(String name) {
+        communityService.removeCommunityLocked(name);
+    }
+
+    /**
+     * Registra que uma operao alterou o estado do sistema.
+     * Pode disparar um checkpoint em segundo plano.
+     */
+    public void recordMutation() {
+        checkpointer.recordMutation();
+    }
+
+    /**
+     * Registra um lote de operaes que alteraram o estado do sistema,
+     * verificando os gatilhos de checkpoint uma nica vez.
+     *
+     * @param count o nmero de operaes do lote
+     */
+    public void recordMutations(int count) {
+        checkpointer.recordMutations(count);
     }
 
     /**
      * Reinicia o sistema, limpando todos os dados.
      */
     public void resetSystem() {
-        userRepository.clearAll();
-        communityService.clearAll();
-        userRepository.deleteDataFile();
-        communityService.deleteDataFile();
+        try (StripedLocks.Held ignored = locks.lockAll()) {
+            checkpointer.reset();
+            userRepository.clearAll();
+            communityService.clearAll();
+            userRepository.deleteDataFile();
+            communityService.deleteDataFile();
+        }
     }
 
 
@@ -1,5 +1,6 @@
 package br.ufal.ic.p2.jackut.services;
 
+import br.ufal.ic.p2.jackut.concurrency.StripedLocks;
 import br.ufal.ic.p2.jackut.exceptions.*;
 import br.ufal.ic.p2.jackut.models.Recado;
 import br.ufal.ic.p2.jackut.models.User;
@@ -13,23 +14,44 @@ import java.util.List;
  * Servio responsvel pelas operaes relacionadas a usurios.
  * Implementa o padro Service para isolar a lgica de negcio.
  */
+@SuppressWarnings("try")
 public class UserService {
 
     private final UserRepository userRepository;
     private final CommunityRepository communityRepository;
     private final SystemService systemService;
+    private final StripedLocks locks;
+    private final PasswordHasher passwords;
 
     /**
-     * Construtor que recebe os repositrios e servios necessrios.
+     * Construtor que recebe os repositrios e servios necessrios e usa o pool de hashes do processo.
      *
      * @param userRepository o repositrio de usurios
      * @param communityRepository o repositrio de comunidades
      * @param systemService o servio de sistema
+     * @param locks os locks compartilhados pelos servios
      */
-    public UserService(UserRepository userRepository, CommunityRepository communityRepository, SystemService systemService) {
+    public UserService(UserRepository userRepository, CommunityRepository communityRepository,
+                       SystemService systemService, StripedLocks locks) {
+        this(userRepository, communityRepository, systemService, locks, PasswordHasher.shared());
+    }
+
+    /**
+     * Construtor que recebe os repositrios, os servios necessrios e o pool de hashes.
+     *
+     * @param userRepository o repositrio de usurios
+     * @param communityRepository o repositrio de comunidades
+     * @param systemService o servio de sistema
+     * @param locks os locks compartilhados pelos servios
+     * @param passwords o pool que calcula os hashes das senhas
+     */
+    public UserService(UserRepository userRepository, CommunityRepository communityRepository,
+                       SystemService systemService, StripedLocks locks, PasswordHasher passwords) {
         this.userRepository = userRepository;
         this.communityRepository = communityRepository;
         this.systemService = systemService;
+        this.locks = locks;
+        this.passwords = passwords;
     }
 
     /**
@@ -42,6 +64,20 @@ public class UserService {
      * @throws UserAlreadyExistsException se j existir um usurio com o mesmo login
      */
     public void createUser(String login, String senha, String nome) {
+        addHashedUser(login, hashNewPassword(login, senha), nome);
+    }
+
+    /**
+     * Valida os dados de um novo usurio e calcula o hash da senha dele, no
+     * pool de hashes e sem nenhum lock, para que a incluso em si seja rpida.
+     *
+     * @param login o login do usurio
+     * @param senha a senha do usurio
+     * @return o hash da senha
+     * @throws InvalidAuthException se o login ou senha forem invlidos
+     * @throws UserAlreadyExistsException se j existir um usurio com o mesmo login
+     */
+    public String hashNewPassword(String login, String senha) {
         if (login == null || login.isBlank() || login.length() < 3) {
             throw new InvalidAuthException("login");
         }
@@ -50,16 +86,36 @@ public class UserService {
             throw new InvalidAuthException("senha");
         }
 
+        // Evita calcular o hash  toa; a incluso confere de novo sob o lock
         if (userRepository.userExists(login)) {
             throw new UserAlreadyExistsException();
         }
 
-        if (nome == null) {
-            nome = "";
-        }
+        return passwords.hash(senha);
+    }
 
-        User user = new User(nome, login, senha);
-        userRepository.addUser(user);
+    /**
+     * Inclui um usurio cuja senha j passou por {@link #hashNewPassword(String, String)}.
+     *
+     * @param login o login do usurio
+     * @param hash o hash da senha
+     * @param nome o nome do usurio
+     * @throws UserAlreadyExistsException se j existir um usurio com o mesmo login
+     */
+    public void addHashedUser(String login, String hash, String nome) {
+        // A faixa do login torna a verificao e a incluso atmicas
+        try (StripedLocks.Held ignored = locks.lock(login)) {
+            if (userRepository.userExists(login)) {
+                throw new UserAlreadyExistsException();
+            }
+
+            if (nome == null) {
+                nome = "";
+            }
+
+            User user = new User(nome, login, hash);
+            userRepository.addUser(user);
+        }
     }
 
     /**
@@ -70,9 +126,15 @@ public class UserService {
      * @return o valor do atributo
      * @exception  NotFoundUserException Se o usurio inimigo no for encontrado.
      * @throws InvalidAuthException se o atributo for invlido
-     * @throws NotFilledAttributeException se o atributo no estiver preenchido
+     * @throws NotFilledAttributeException se o atributo no estiver preenchido, ou for a senha
      */
     public String getUserAttribute(String login, String atributo){
+        try (StripedLocks.Held ignored = locks.lock(login)) {
+            return readAttribute(login, atributo);
+        }
+    }
+
+    private String readAttribute(String login, String atributo) {
         User user = userRepository.getUserByLogin(login);
         if (user == null) {
             throw new NotFoundUserException();
@@ -80,7 +142,8 @@ public class UserService {
 
         return switch (atributo) {
             case "nome"  -> user.getName();
-            case "senha" -> user.getPassword();
+            // S o hash da senha  guardado, e ele no  exposto
+            case "senha" -> throw new NotFilledAttributeException();
             case "login" -> user.getLogin();
             default -> {
                 try {
@@ -112,26 +175,76 @@ public class UserService {
             throw new NotFoundUserException();
         }
 
-        switch (atributo) {
-            case "nome" -> user.setName(valor);
-            case "senha" -> user.setPassword(valor);
-            case "login" -> {
-                if (valor == null || valor.isBlank() || valor.length() < 3) {
-                    throw new InvalidAuthException("login");
-                }
+        if (atributo.equals("senha")) {
+            changePassword(sessionId, hashPassword(sessionId, valor));
+            return;
+        }
 
-                if (userRepository.userExists(valor) && !valor.equals(user.getLogin())) {
-                    throw new UserAlreadyExistsException();
-                }
+        if (atributo.equals("login")) {
+            // A troca de login altera referncias em todos os usurios
+            try (StripedLocks.Held ignored = locks.lockAll()) {
+                changeLogin(user, valor);
+            }
+            return;
+        }
 
-                userRepository.removeUserCompletely(user.getLogin());
-                user.setLogin(valor);
-                userRepository.addUser(user);
+        try (StripedLocks.Held ignored = locks.lockUser(user)) {
+            switch (atributo) {
+                case "nome" -> user.setName(valor);
+                default -> user.setAttributeExtra(atributo, valor);
             }
-            default -> user.setAttributeExtra(atributo, valor);
         }
     }
 
+    /**
+     * Calcula o hash da nova senha de um usurio, no pool de hashes e sem nenhum lock.
+     *
+     * @param sessionId o ID da sesso do usurio
+     * @param senha a nova senha
+     * @return o hash da senha
+     * @exception NotFoundUserException se a sesso no for encontrada
+     * @throws InvalidAuthException se a senha for nula
+     */
+    public String hashPassword(String sessionId, String senha) {
+        // Sesses invlidas no chegam a ocupar o pool
+        userRepository.getUserBySession(sessionId);
+        if (senha == null) {
+            throw new InvalidAuthException("senha");
+        }
+        return passwords.hash(senha);
+    }
+
+    /**
+     * Troca a senha de um usurio por uma que j passou por {@link #hashPassword(String, String)}
+     * e revoga as outras sesses dele.
+     *
+     * @param sessionId o ID da sesso do usurio
+     * @param hash o hash da nova senha
+     * @exception NotFoundUserException se a sesso no for encontrada
+     */
+    public void changePassword(String sessionId, String hash) {
+        User user = userRepository.getUserBySession(sessionId);
+        try (StripedLocks.Held ignored = locks.lockUser(user)) {
+            user.setPassword(hash);
+            // As outras sesses foram abertas com a senha antiga
+            userRepository.revokeSessions(user.getLogin(), sessionId);
+        }
+    }
+
+    private void changeLogin(User user, String valor) {
+        if (valor == null || valor.isBlank() || valor.length() < 3) {
+            throw new InvalidAuthException("login");
+        }
+
+        if (userRepository.userExists(valor) && !valor.equals(user.getLogin())) {
+            throw new UserAlreadyExistsException();
+        }
+
+        userRepository.removeUserCompletely(user.getLogin());
+        user.setLogin(valor);
+        userRepository.addUser(user);
+    }
+
     /**
      * Mtod0 alternativo para editar o perfil de um usurio.
      * Delega a operao para editUserProfile.
@@ -267,6 +380,8 @@ public class UserService {
 
         user.getIdols().remove(idolLogin);
         idol.getFans().remove(userLogin);
+        user.markDirty();
+        idol.markDirty();
     }
 
     /**
@@ -284,6 +399,7 @@ public class UserService {
         }
 
         user.getCrushes().remove(crushLogin);
+        user.markDirty();
     }
 
     /**
@@ -301,6 +417,7 @@ public class UserService {
         }
 
         user.getEnemies().remove(enemyLogin);
+        user.markDirty();
     }
 
     /**
@@ -385,6 +502,13 @@ public class UserService {
      * @exception  NotFoundUserException Se o usurio inimigo no for encontrado.
      */
     public boolean removeUser(String login)  {
+        // Remove referncias ao usurio em todo o sistema
+        try (StripedLocks.Held ignored = locks.lockAll()) {
+            return removeUserLocked(login);
+        }
+    }
+
+    private boolean removeUserLocked(String login) {
         User user = userRepository.getUserByLogin(login);
         if (user == null) {
             throw new NotFoundUserException();
@@ -399,7 +523,7 @@ public class UserService {
         // Remove all communities owned by the user
         for (String communityName : ownedCommunities) {
             try {
-                communityRepository.removeCommunity(communityName);
+                systemService.removeCommunityLocked(communityName);
             } catch (Exception e) {
                 System.err.println("Erro ao remover comunidade: " + e.getMessage());
                 // Continue with user removal even if community removal fails
@@ -408,9 +532,8 @@ public class UserService {
 
         boolean result = userRepository.removeUserCompletely(login);
 
-        // Persist changes to disk
-        userRepository.saveData();
-        communityRepository.saveData();
+        // Persist changes to disk; the checkpoint also discards the journal records it covers
+        systemService.checkpointLocked();
 
         return result;
     }